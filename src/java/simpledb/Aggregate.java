@@ -3,11 +3,12 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, can be computed
+ * in one pass over the child, grouped by zero or more columns.  A child that
+ * hands out batches is read a batch at a time.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -30,51 +31,78 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     
-    Aggregator aggr;
+    HashAggregator aggr;
     DbIterator child;
     DbIterator aggrIt;
+    transient BatchIterator results; // aggrIt, read in batches.
     DbIterator[] children;
-    int groupField;
-    String groupFieldName;
-    int aggrField;
-    String aggrFieldName;
-    Aggregator.Op operator;
+    int[] groupFields;
+    String[] groupFieldNames;
+    int[] aggrFields;
+    String[] aggrFieldNames;
+    Aggregator.Op[] operators;
     TupleDesc td;
     
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
 	// some code goes here
+    	this(child, new int[] { afield }, new Aggregator.Op[] { aop },
+    			gfield > -1 ? new int[] { gfield } : new int[0]);
+    }
+
+    /**
+     * Constructor for several aggregates over a composite group key.
+     * 
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param aops
+     *            The aggregation operator of each of afields.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @throws IllegalArgumentException
+     *             if afields and aops differ in length, or an operator other
+     *             than COUNT is applied to a string column
+     */
+    public Aggregate(DbIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+    	if (afields.length == 0 || afields.length != aops.length)
+    		throw new IllegalArgumentException("need an operator for each of at least one aggregate field");
     	this.child = child;
-    	Type atype = child.getTupleDesc().getFieldType(afield);
-    	Type gtype = null;
-    	if (gfield > -1) {
-    		gtype = child.getTupleDesc().getFieldType(gfield);
+    	TupleDesc ctd = child.getTupleDesc();
+    	this.groupFields = gfields.clone();
+    	this.aggrFields = afields.clone();
+    	this.operators = aops.clone();
+
+    	Type[] gtypes = new Type[gfields.length];
+    	this.groupFieldNames = new String[gfields.length];
+    	for (int k = 0; k < gfields.length; k++) {
+    		gtypes[k] = ctd.getFieldType(gfields[k]);
+    		this.groupFieldNames[k] = ctd.getFieldName(gfields[k]);
     	}
-    	if (atype == Type.INT_TYPE) {
-    		this.aggr = new IntegerAggregator(gfield, gtype, afield, aop);
-    	} else {
-    		this.aggr = new StringAggregator(gfield, gtype, afield, aop);
+    	Type[] atypes = new Type[afields.length];
+    	this.aggrFieldNames = new String[afields.length];
+    	for (int a = 0; a < afields.length; a++) {
+    		atypes[a] = ctd.getFieldType(afields[a]);
+    		this.aggrFieldNames[a] = ctd.getFieldName(afields[a]);
     	}
-    	
     	this.children = new DbIterator[1];
     	this.children[0] = this.child;
-    	this.groupField = gfield;
-    	if (gfield > -1) {
-    		this.groupFieldName = child.getTupleDesc().getFieldName(gfield);
+
+    	// Group columns first, then one int column per aggregate.
+    	Type[] typeAr = new Type[gfields.length + afields.length];
+    	String[] nameAr = new String[typeAr.length];
+    	System.arraycopy(gtypes, 0, typeAr, 0, gfields.length);
+    	System.arraycopy(this.groupFieldNames, 0, nameAr, 0, gfields.length);
+    	for (int a = 0; a < afields.length; a++) {
+    		typeAr[gfields.length + a] = Type.INT_TYPE;
+    		nameAr[gfields.length + a] = nameOfAggregatorOp(aops[a])
+    				+ "(" + this.aggrFieldNames[a] + ")";
     	}
-    	this.aggrField = afield;
-    	this.aggrFieldName = child.getTupleDesc().getFieldName(afield);
-    	this.operator = aop;
+    	this.td = new TupleDesc(typeAr, nameAr);
+
+    	this.aggr = new HashAggregator(gfields, gtypes, afields, atypes, aops, this.td);
     	this.aggrIt = this.aggr.iterator();
-    	
-    	if (gfield > -1) {
-    		Type[] typeAr = {gtype, atype};
-    		String[] NameAr = {this.groupFieldName, this.aggrFieldName};
-        	this.td = new TupleDesc(typeAr, NameAr);
-    	} else {
-    		Type[] typeAr = {atype};
-    		String[] NameAr = {this.aggrFieldName};
-        	this.td = new TupleDesc(typeAr, NameAr);
-    	}
     }
 
     /**
@@ -84,7 +112,15 @@ public class Aggregate extends Operator {
      * */
     public int groupField() {
 	// some code goes here
-    	return this.groupField;
+    	return this.groupFields.length == 0 ? Aggregator.NO_GROUPING : this.groupFields[0];
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples; empty if
+     *         there is no grouping
+     * */
+    public int[] groupFields() {
+    	return this.groupFields.clone();
     }
 
     /**
@@ -94,32 +130,62 @@ public class Aggregate extends Operator {
      * */
     public String groupFieldName() {
 	// some code goes here
-		return this.groupFieldName;
+		return this.groupFieldNames.length == 0 ? null : this.groupFieldNames[0];
     }
 
     /**
-     * @return the aggregate field
+     * @return the names of the groupby fields in the <b>OUTPUT</b> tuples
+     * */
+    public String[] groupFieldNames() {
+    	return this.groupFieldNames.clone();
+    }
+
+    /**
+     * @return the (first) aggregate field
      * */
     public int aggregateField() {
 	// some code goes here
-		return this.aggrField;
+		return this.aggrFields[0];
+    }
+
+    /**
+     * @return the aggregate fields, in output order
+     * */
+    public int[] aggregateFields() {
+    	return this.aggrFields.clone();
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return return the name of the (first) aggregate field in the
+     *         <b>INPUT</b> tuples; its column in the <b>OUTPUT</b> tuples is
+     *         named aggName(aop) (field name)
      * */
     public String aggregateFieldName() {
 	// some code goes here
-		return this.aggrFieldName;
+		return this.aggrFieldNames[0];
+    }
+
+    /**
+     * @return the names of the aggregate fields in the <b>INPUT</b> tuples,
+     *         in output order
+     * */
+    public String[] aggregateFieldNames() {
+    	return this.aggrFieldNames.clone();
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
 	// some code goes here
-		return this.operator;
+		return this.operators[0];
+    }
+
+    /**
+     * @return the aggregate operators, in output order
+     * */
+    public Aggregator.Op[] aggregateOps() {
+    	return this.operators.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -131,19 +197,36 @@ public class Aggregate extends Operator {
 	// some code goes here
     	super.open();
     	this.child.open();
-    	while(this.child.hasNext()) {
-    		this.aggr.mergeTupleIntoGroup(this.child.next());
+    	this.aggr.clear();
+    	if (this.child instanceof BatchIterator) {
+    		BatchIterator batches = (BatchIterator) this.child;
+    		TupleBatch b;
+    		while ((b = batches.nextBatch()) != null) {
+    			this.aggr.mergeBatch(b);
+    		}
+    	} else {
+    		while(this.child.hasNext()) {
+    			this.aggr.mergeTupleIntoGroup(this.child.next());
+    		}
     	}
     	this.aggrIt = this.aggr.iterator();
     	this.aggrIt.open();
+    	this.results = new BatchAdapter(this.aggrIt);
+    }
+
+    /**
+     * Returns the next batch of results; the group by fields come first,
+     * followed by the result of each aggregate.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	return this.results.nextBatch();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple. The group by fields come first, in the order
+     * given to the constructor, followed by the result of each aggregate. If
+     * there is no group by field, then the result tuple contains only the
+     * aggregate results. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
@@ -160,15 +243,13 @@ public class Aggregate extends Operator {
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * followed by one int field per aggregate.
      * 
-     * The name of an aggregate column should be informative. For example:
-     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-     * given in the constructor, and child_td is the TupleDesc of the child
-     * iterator.
+     * An aggregate column is named "aggName(aop)(child_td.getFieldName(afield))",
+     * e.g. "min(t.a)", where aop and afield are given in the constructor, and
+     * child_td is the TupleDesc of the child iterator; so two aggregates over
+     * one field get different names.
      */
     public TupleDesc getTupleDesc() {
 	// some code goes here
@@ -180,6 +261,7 @@ public class Aggregate extends Operator {
     	super.close();
     	this.child.close();
     	this.aggrIt.close();
+    	this.aggr.clear();
     }
 
     @Override
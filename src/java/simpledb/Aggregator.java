@@ -1,7 +1,6 @@
 package simpledb;
 
 import java.io.Serializable;
-import java.util.Vector;
 
 /**
  * The common interface for any class that can compute an aggregate over a
@@ -10,16 +9,6 @@ import java.util.Vector;
 public interface Aggregator extends Serializable {
     static final int NO_GROUPING = -1;
 
-    public class Group {
-    	Field gbField;
-    	Vector<Tuple> tuples;
-    	
-    	public Group(Field gbField) {
-    		this.gbField = gbField;
-    		this.tuples = new Vector<Tuple>();
-    	}
-    }
-    
     /**
      * SUM_COUNT and SC_AVG will
      * only be used in lab6, you are not required
@@ -94,5 +83,10 @@ public interface Aggregator extends Serializable {
      * @see simpledb.TupleIterator for a possible helper
      */
     public DbIterator iterator();
+
+    /**
+     * Discards all groups merged so far, and anything kept on disk for them.
+     */
+    public void clear();
     
 }
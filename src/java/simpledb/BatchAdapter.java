@@ -0,0 +1,65 @@
+package simpledb;
+
+/**
+ * Implements a BatchIterator by wrapping a DbIterator: each batch is filled
+ * with the next tuples of the wrapped iterator.
+ */
+public class BatchAdapter implements BatchIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private final int capacity;
+    transient private TupleBatch batch;
+
+    /**
+     * Constructs batches of {@link TupleBatch#DEFAULT_CAPACITY} rows.
+     *
+     * @param child
+     *            the iterator the rows come from
+     */
+    public BatchAdapter(DbIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    public BatchAdapter(DbIterator child, int capacity) {
+        this.child = child;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the iterator itself if it hands out batches natively, or else
+     *         an adapter over it. Since both share open, rewind and close, an
+     *         iterator that is already open can be read in batches this way.
+     */
+    public static BatchIterator of(DbIterator it) {
+        if (it instanceof BatchIterator)
+            return (BatchIterator) it;
+        return new BatchAdapter(it);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (this.batch == null)
+            this.batch = new TupleBatch(this.child.getTupleDesc(), this.capacity);
+        this.batch.clear();
+        while (!this.batch.isFull() && this.child.hasNext())
+            this.batch.add(this.child.next());
+        return this.batch.numSelected() == 0 ? null : this.batch;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        this.child.close();
+    }
+}
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * BatchIterator is the batch-at-a-time counterpart of {@link DbIterator}:
+ * rather than one tuple per call, it hands out a {@link TupleBatch} of up to
+ * {@link TupleBatch#DEFAULT_CAPACITY} rows, so the per-row work of an
+ * operator runs in tight loops over primitive columns.
+ * <p>
+ * Operators that implement both interfaces share open, rewind and close;
+ * between an open (or rewind) and the next close (or rewind) a caller reads
+ * the operator either with next or with nextBatch, not both.
+ * {@link BatchAdapter} turns any DbIterator into a BatchIterator, and
+ * {@link BatchTupleIterator} turns a BatchIterator back into a DbIterator.
+ */
+public interface BatchIterator extends Serializable {
+
+    /**
+     * Opens the iterator. This must be called before nextBatch.
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch. The batch is only valid until the next call.
+     *
+     * @return a batch with at least one selected row, or null if there are
+     *         no more rows
+     * @throws IllegalStateException if the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * @return the TupleDesc of the rows of the batches.
+     */
+    public TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    public void close();
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Implements a DbIterator by wrapping a BatchIterator: the selected rows of
+ * each batch are returned one at a time as tuples.
+ */
+public class BatchTupleIterator implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final BatchIterator child;
+    transient private TupleBatch batch; // The batch being returned, or null.
+    transient private int pos; // Its next selected row.
+
+    public BatchTupleIterator(BatchIterator child) {
+        this.child = child;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.child.open();
+        this.batch = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        while (this.batch == null || this.pos == this.batch.numSelected()) {
+            this.batch = this.child.nextBatch();
+            this.pos = 0;
+            if (this.batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return this.batch.getTuple(this.batch.selected(this.pos++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        this.child.rewind();
+        this.batch = null;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.child.getTupleDesc();
+    }
+
+    public void close() {
+        this.child.close();
+        this.batch = null;
+    }
+}
@@ -3,9 +3,12 @@ package simpledb;
 
 import java.io.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -14,7 +17,24 @@ import java.util.concurrent.locks.ReentrantLock;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page.  Locks are page-level, granted by a
+ * {@link LockManager} and held until the transaction completes (strict
+ * two-phase locking).  Pages fetched with a null TransactionId are not
+ * locked.
+ * <p>
+ * The page table is a concurrent map of frames; the pool takes no
+ * pool-wide lock.  Each frame has its own latch, held while its page is read
+ * in, written out or dropped, and a pin count of the threads that need it to
+ * stay in the pool; eviction skips pinned frames.  A hit is a map lookup
+ * plus a {@link ReplacementPolicy#pageHit}, which takes no lock with the
+ * default CLOCK policy.  By default the pages are split between CLOCK
+ * stripes ({@link StripedReplacementPolicy}), so misses that evict at the
+ * same time mostly choose their victims in different stripes, and a dirty
+ * victim is written out without the monitor of the log.
+ * <p>
+ * Committing does not write pages out (NO-FORCE), and uncommitted pages may
+ * be evicted (STEAL): a page is written only after the {@link LogFile} holds
+ * its update, so recovery can redo committed updates and undo the others.
  * 
  * @Threadsafe, all fields are final
  */
@@ -29,23 +49,57 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
     
-    // Comments needed.
-    private ConcurrentHashMap<PageId, Page> pool; // The container of the pages.
+    // A page of the pool.  Its monitor is the latch of the frame.
+    private static class Frame {
+        volatile Page page; // Null until the page is read in.
+        final AtomicInteger pins = new AtomicInteger(0);
+    }
+
+    private ConcurrentHashMap<PageId, Frame> pool; // The container of the pages.
     private int maxSize; // The max page number of the pool.
+    private final AtomicInteger size; // Frames in the pool or being added.
+    private final AtomicInteger busy; // Pins, plus frames being added.
+
+    private ReplacementPolicy policy; // Picks the page to evict.
+
+    private final LockManager locks; // Page locks of the transactions.
 
-    private ConcurrentHashMap<PageId, Integer> lruCache;
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting pages
+     * with striped CLOCK policies when it is full.
      *
      * @param numPages maximum number of pages in this buffer pool.
+     * @see StripedReplacementPolicy#clock
      */
     public BufferPool(int numPages) {
+        this(numPages, StripedReplacementPolicy.clock(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to choose which page to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy; must not be shared with another
+     *        BufferPool.
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
 		// Instantiate instance variables.
     	this.maxSize = numPages;
-    	this.pool = new ConcurrentHashMap<PageId, Page>();
-        this.lruCache = new ConcurrentHashMap<PageId,Integer>();
+    	this.pool = new ConcurrentHashMap<PageId, Frame>();
+    	this.size = new AtomicInteger(0);
+    	this.busy = new AtomicInteger(0);
+        this.policy = policy;
+        this.locks = new LockManager();
     }
     
+    /**
+     * @return the maximum number of pages this buffer pool caches.
+     */
+    public int getNumPages() {
+        return this.maxSize;
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -66,38 +120,109 @@ public class BufferPool {
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
      *
-     * @param tid the ID of the transaction requesting the page
+     * @param tid the ID of the transaction requesting the page, or null to
+     *        read it without locking
      * @param pid the ID of the requested page
-     * @param perm the requested permissions on the page
+     * @param perm the requested permissions on the page; READ_WRITE takes an
+     *        exclusive lock, anything else a shared one
+     * @throws TransactionAbortedException if waiting for the lock would
+     *         deadlock
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        // First, try to get the page from the buffer pool.
-    	Page page = this.pool.get(pid);
-    	if (page != null) {
-            // Do LRU Cache update
-            for(PageId piddd: this.lruCache.keySet())
-            {
-                int times = this.lruCache.get(piddd); 
-                this.lruCache.replace(piddd,times+1);
+        if (tid != null) {
+            this.locks.acquire(tid, pid, perm == Permissions.READ_WRITE);
+        }
+        return fetchPage(pid);
+    }
+
+    // Returns the page from the pool, reading it in if it is not there.
+    private Page fetchPage(PageId pid) throws DbException {
+        while (true) {
+            // First, try to get the page from the buffer pool.
+            Frame f = this.pool.get(pid);
+            if (f != null) {
+                Page page = f.page;
+                if (page == null) {
+                    synchronized (f) { // Wait for the page to be read in.
+                        page = f.page;
+                    }
+                }
+                if (page != null) {
+                    // Tell the replacement policy about the hit.
+                    this.policy.pageHit(pid);
+                    return page;
+                }
+                continue; // Reading it in failed; try again.
             }
-            this.lruCache.replace(pid,1);
-			// On success, return the page.
-    		return page;
-    	} else {
-			// On failure, read the file from the disk.
-    		page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-    		if (this.pool.size() == this.maxSize) {
-                this.evictPage(); // Do eviction
-                //System.err.println(this.pool.size()+1 == this.maxSize);
-                //System.err.println(this.maxSize);
-    		}
-
-			// Put the page into the buffer.
-            this.lruCache.put(pid,1);
-    		this.pool.put(pid, page);
-    		return page;
-    	}
+
+            // On failure, make room and read the page from the disk.  The
+            // frame is latched before it is published, so other threads
+            // asking for the page wait for it.
+            reserve();
+            f = new Frame();
+            try {
+                synchronized (f) {
+                    if (this.pool.putIfAbsent(pid, f) != null) {
+                        this.size.decrementAndGet();
+                        continue; // Another thread is reading it in.
+                    }
+                    try {
+                        f.page = Database.getCatalog()
+                                .getDatabaseFile(pid.getTableId()).readPage(pid);
+                    } finally {
+                        if (f.page == null) {
+                            this.pool.remove(pid, f);
+                            this.size.decrementAndGet();
+                        }
+                    }
+                }
+            } finally {
+                this.busy.decrementAndGet();
+            }
+            this.policy.pageAdded(pid);
+            return f.page;
+        }
+    }
+
+    // Makes room in the pool for one more frame, evicting pages if needed.
+    private void reserve() throws DbException {
+        while (true) {
+            int n = this.size.get();
+            if (n < this.maxSize) {
+                if (this.size.compareAndSet(n, n + 1)) {
+                    this.busy.incrementAndGet();
+                    return;
+                }
+            } else if (!this.evictPage()) {
+                if (this.busy.get() == 0) {
+                    throw new DbException("BufferPool: all pages are pinned");
+                }
+                Thread.yield(); // Wait for a frame to be unpinned or added.
+            }
+        }
+    }
+
+    // Pins the frame of a page in the pool, reading it in if needed.
+    private Frame pin(PageId pid) throws DbException {
+        while (true) {
+            fetchPage(pid);
+            Frame f = this.pool.get(pid);
+            if (f == null)
+                continue; // Evicted meanwhile.
+            synchronized (f) {
+                if (this.pool.get(pid) == f) {
+                    f.pins.incrementAndGet();
+                    this.busy.incrementAndGet();
+                    return f;
+                }
+            }
+        }
+    }
+
+    private void unpin(Frame f) {
+        f.pins.decrementAndGet();
+        this.busy.decrementAndGet();
     }
 
     /**
@@ -111,7 +236,7 @@ public class BufferPool {
      */
     public void releasePage(TransactionId tid, PageId pid) {
         // some code goes here
-        // not necessary for lab1|lab2
+        this.locks.release(tid, pid);
     }
 
     /**
@@ -121,7 +246,7 @@ public class BufferPool {
      */
     public void transactionComplete(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     public Iterator<PageId> getPidIterator() {
@@ -129,18 +254,25 @@ public class BufferPool {
     }
     
     public Iterator<Page> getPageIterator() {
-    	return this.pool.values().iterator();
+    	ArrayList<Page> pages = new ArrayList<Page>();
+    	for (Frame f : this.pool.values()) {
+    		if (f.page != null)
+    			pages.add(f.page);
+    	}
+    	return pages.iterator();
     }
     /** Return true if the specified transaction has a lock on the specified page */
     public boolean holdsLock(TransactionId tid, PageId p) {
         // some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return this.locks.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
-     * the transaction.
+     * the transaction.  On commit the pages it dirtied are logged and its
+     * commit record is forced to the log, but the pages stay in the pool
+     * (NO-FORCE); on abort the pages it dirtied are set back to their
+     * before images, and the log rolls back the updates it logged.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
@@ -148,7 +280,37 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        try {
+            if (commit) {
+                this.flushPages(tid);
+                Database.getLogFile().logCommit(tid);
+                return;
+            }
+            // Set the pages it dirtied back to their before images first,
+            // so that the log undoes its logged updates on pages without
+            // its unlogged ones.  They stay dirty: they may hold committed
+            // updates that were not written out yet.
+            for (PageId pid : this.locks.pagesLocked(tid)) {
+                Frame f = this.pool.get(pid);
+                if (f == null)
+                    continue;
+                synchronized (f) {
+                    Page p = f.page;
+                    if (p != null && p.isDirty() != null && p.isDirty().equals(tid)) {
+                        Page before = p.getBeforeImage();
+                        before.markDirty(true, tid);
+                        f.page = before;
+                        // Undo what the aborted changes told the free
+                        // space map; its log records may not be rolled back.
+                        if (before instanceof HeapPage)
+                            ((HeapPage) before).updateFreeSpaceMap();
+                    }
+                }
+            }
+            Database.getLogFile().logAbort(tid);
+        } finally {
+            this.locks.releaseAll(tid);
+        }
     }
 
     /**
@@ -170,7 +332,93 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
     	DbFile table = Database.getCatalog().getDatabaseFile(tableId);
-    	table.insertTuple(tid, t);
+    	for (Page p : table.insertTuple(tid, t)) {
+    		this.dirtied(tid, p);
+    	}
+    }
+
+    /**
+     * Marks a page as dirtied by a transaction, and puts it back into the
+     * pool if it was evicted in the meantime.  For files that change pages
+     * they got from {@link #getPage} other than through insertTuple and
+     * deleteTuple.
+     */
+    void dirtied(TransactionId tid, Page p) throws DbException {
+        p.markDirty(true, tid);
+        this.install(p);
+    }
+
+    /**
+     * Locks a page that a file has just allocated past its end exclusively
+     * for a transaction, before the file fills it in memory, so that no
+     * other transaction reads or fills the page until the file has written
+     * it out after {@link #logNewPages}.
+     *
+     * @throws TransactionAbortedException if waiting for the lock would
+     *         deadlock
+     */
+    void lockNewPage(TransactionId tid, PageId pid)
+        throws TransactionAbortedException {
+        this.locks.acquire(tid, pid, true);
+    }
+
+    /**
+     * Logs pages that a file built in memory past its end for a transaction,
+     * and locked with {@link #lockNewPage}, forcing the log once for all of
+     * them.  The file then writes them out itself, without caching them
+     * (write-ahead logging), and drops any copy read in before with
+     * {@link #discardPage}.  On abort the log rolls them back like any other
+     * logged update.
+     */
+    void logNewPages(TransactionId tid, List<? extends Page> pages)
+        throws IOException {
+        LogFile log = Database.getLogFile();
+        synchronized (log) {
+            for (Page p : pages)
+                log.logWrite(tid, p.getBeforeImage(), p);
+        }
+        log.groupForce();
+    }
+
+    // Puts a dirtied page back into the pool if it was evicted before it
+    // was marked dirty, so that the change is not lost.
+    private void install(Page p) throws DbException {
+        PageId pid = p.getId();
+        while (true) {
+            Frame f = this.pool.get(pid);
+            if (f != null && f.page == p)
+                return;
+            // Drop the copy read in from disk since, if any.
+            this.discardPage(pid);
+            this.reserve();
+            Frame nf = new Frame();
+            nf.page = p;
+            boolean added = this.pool.putIfAbsent(pid, nf) == null;
+            this.busy.decrementAndGet();
+            if (added) {
+                this.policy.pageAdded(pid);
+                return;
+            }
+            this.size.decrementAndGet();
+        }
+    }
+
+    /**
+     * Add every remaining tuple of an iterator to the specified table on
+     * behalf of transaction tid.  Tuples that fit on pages already in the
+     * table go through {@link #insertTuple}; the table may fill new pages
+     * at the end of its file with the rest, a page at a time.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples an open iterator over the tuples to add
+     * @return the number of tuples added
+     * @see DbFile#insertTuples
+     */
+    public int insertTuples(TransactionId tid, int tableId, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException {
+    	DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+    	return table.insertTuples(tid, tuples);
     }
 
     /**
@@ -189,7 +437,16 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-    	((HeapPage) getPage(tid, t.getRecordId().getPageId(), null)).deleteTuple(t);    	
+    	PageId pid = t.getRecordId().getPageId();
+    	getPage(tid, pid, Permissions.READ_WRITE);
+    	Frame f = this.pin(pid); // Keep it in the pool until marked dirty.
+    	try {
+    		HeapPage page = (HeapPage) f.page;
+    		page.deleteTuple(t);
+    		page.markDirty(true, tid);
+    	} finally {
+    		this.unpin(f);
+    	}
     }
 
     /**
@@ -197,16 +454,10 @@ public class BufferPool {
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // flush all dirty pages to disk
-        // we can simply use for loop and flush clean page as well
-        for(PageId pid:this.pool.keySet())
-        {
-            Page p = this.pool.get(pid);
-            if (p.isDirty() != null)
-            {
-                this.flushPage(pid);
-            }
+        for (PageId pid : this.pool.keySet()) {
+            this.flushPage(pid);
         }
     }
 
@@ -215,68 +466,147 @@ public class BufferPool {
         buffer pool doesn't keep a rolled back page in its
         cache.
     */
-    public synchronized void discardPage(PageId pid) {
-        // some code goes here
-        // only necessary for lab5
+    public void discardPage(PageId pid) {
+        Frame f = this.pool.get(pid);
+        if (f == null)
+            return;
+        synchronized (f) {
+            if (this.pool.remove(pid, f)) {
+                this.size.decrementAndGet();
+                this.policy.pageRemoved(pid);
+            }
+        }
     }
 
     /**
      * Flushes a certain page to disk
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
-        DbFile df = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        Page to_be_written = this.pool.get(pid);
-        // if no matching page in hashmap, we do not need to flush
-        if ( to_be_written == null)
-        {
+    private void flushPage(PageId pid) throws IOException {
+        Frame f = this.pool.get(pid);
+        // if no matching page in the pool, we do not need to flush
+        if (f == null)
             return;
-        }
-        else
-        {
-            df.writePage(to_be_written); // write
-            to_be_written.markDirty(false,null); // mark clean
+        this.flushFrame(pid, f);
+    }
 
+    // Writes the page of a frame out if it is dirty.  Caller holds neither
+    // the latch nor, unless it is the LogFile, the monitor of the log.  The
+    // update of a transaction that is still running is logged first, under
+    // the monitor of the log, which is taken before the latch as by LogFile,
+    // and the page is written once the log is on disk (write-ahead logging);
+    // a committed update was logged at its commit.  The log is forced with
+    // neither held, through LogFile.groupForce, so that other threads keep
+    // logging and committing meanwhile.  A page changed while the log was
+    // forced is logged again.
+    private void flushFrame(PageId pid, Frame f) throws IOException {
+        LogFile log = Database.getLogFile();
+        while (true) {
+            byte[] logged = null; // The contents logged, if any.
+            synchronized (log) {
+                synchronized (f) {
+                    Page p = f.page;
+                    if (p == null || p.isDirty() == null || this.pool.get(pid) != f)
+                        return;
+                    TransactionId dirtier = p.isDirty();
+                    if (this.locks.holdsLock(dirtier, pid)) {
+                        log.logWrite(dirtier, p.getBeforeImage(), p);
+                        logged = p.getPageData();
+                    }
+                }
+            }
+            if (logged != null)
+                log.groupForce();
+            synchronized (f) {
+                Page p = f.page;
+                if (p == null || p.isDirty() == null || this.pool.get(pid) != f)
+                    return; // Written or dropped meanwhile.
+                if (this.locks.holdsLock(p.isDirty(), pid)
+                        && (logged == null || !Arrays.equals(logged, p.getPageData())))
+                    continue; // Changed since it was logged.
+                DbFile df = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                df.writePage(p); // write
+                p.markDirty(false, null); // mark clean
+                return;
+            }
         }
     }
 
-    /** Write all pages of the specified transaction to disk.
+    /**
+     * Logs the pages the specified transaction dirtied, so that its commit
+     * record makes them durable without writing them out; they are written
+     * when evicted or checkpointed.  Their before images become their
+     * current contents.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
+    public void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for lab1|lab2
+        LogFile log = Database.getLogFile();
+        for (PageId pid : this.locks.pagesLocked(tid)) {
+            Frame f = this.pool.get(pid);
+            Page p = f == null ? null : f.page;
+            if (p != null && p.isDirty() != null && p.isDirty().equals(tid)) {
+                log.logWrite(tid, p.getBeforeImage(), p);
+                p.setBeforeImage();
+            }
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the pool's ReplacementPolicy; pinned pages,
+     * and pages whose latch another thread holds, are passed over.
+     *
+     * @return false if no page could be evicted
      */
-    private synchronized void evictPage() throws DbException {
-        PageId temppid = null;
-        int tempmax = 1;
-        for(PageId pid: this.lruCache.keySet())
-        {
-            int v = this.lruCache.get(pid);
-            if(v >= tempmax)
-            {
-                temppid = pid;
-                tempmax = v;
+    private boolean evictPage() throws DbException {
+        ArrayList<PageId> passed = new ArrayList<PageId>();
+        try {
+            for (int tries = 0; tries <= this.maxSize; tries++) {
+                PageId victim = this.policy.evict();
+                if (victim == null)
+                    return false;
+                Frame f = this.pool.get(victim);
+                if (f == null)
+                    continue; // Discarded meanwhile.
+                if (f.pins.get() > 0) {
+                    passed.add(victim);
+                    continue;
+                }
+                Page p = f.page;
+                if (p != null && p.isDirty() != null) {
+                    try {
+                        this.flushFrame(victim, f);
+                    } catch (IOException e) {
+                        passed.add(victim);
+                        throw new DbException("BufferPool: failed to flush evicted page " + victim);
+                    }
+                }
+                if (this.evictFrame(victim, f, passed))
+                    return true;
             }
+            return false;
+        } finally {
+            for (PageId pid : passed)
+                this.policy.pageReinstated(pid);
         }
-        if (temppid == null)
-        {
-            throw new DbException("Should exist victim page!\n");
-        }
-        else
-        {
-            for(PageId pid: this.lruCache.keySet())
-            {
-                int times = this.lruCache.get(pid); 
-                this.lruCache.replace(pid,times+1);
+    }
+
+    // Drops the frame of a victim, which the caller has written out, unless
+    // it is pinned or was dirtied again meanwhile.
+    private boolean evictFrame(PageId victim, Frame f, ArrayList<PageId> passed) {
+        synchronized (f) {
+            if (this.pool.get(victim) != f)
+                return false;
+            Page p = f.page;
+            if (f.pins.get() > 0 || (p != null && p.isDirty() != null)) {
+                passed.add(victim);
+                return false;
             }
-            this.lruCache.remove(temppid);
-            this.pool.remove(temppid);
+            this.pool.remove(victim, f);
         }
+        this.size.decrementAndGet();
+        return true;
     }
 
 }
@@ -51,6 +51,8 @@ public class Catalog {
     	if(fileId.contains(file.getId()))
     	{
     		int index = fileId.indexOf(file.getId());
+    		if (fileItself.get(index) != file)
+    			closeFile(fileItself.get(index));
    			fileItself.set(index, file);
     		fileName.set(index, name);
     		fileKey.set(index, pkeyField);
@@ -140,14 +142,22 @@ public class Catalog {
     		throw new NoSuchElementException("The tableid does not exist!");
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their file handles */
     public void clear() {
+    	for (DbFile file : fileItself)
+    		closeFile(file);
     	fileItself.clear();
     	fileName.clear();
     	fileKey.clear();
     	fileId.clear();
     }
     
+    // Release the open handle of a file that leaves the catalog.
+    private static void closeFile(DbFile file) {
+    	if (file instanceof HeapFile)
+    		((HeapFile) file).close();
+    }
+    
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
      * @param catalogFile
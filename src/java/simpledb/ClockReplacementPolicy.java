@@ -0,0 +1,143 @@
+package simpledb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * CLOCK (second chance) replacement.  Every frame carries a reference bit
+ * that is set on a hit; the clock hand sweeps the frames, clearing set bits
+ * and evicting the first frame whose bit is already clear.  A hit is O(1)
+ * and an eviction is amortized O(1).
+ * <p>
+ * Frames freed by an eviction or a removal are kept on a stack, so adding a
+ * page takes the most recently freed frame in O(1) instead of searching the
+ * clock for an empty one.
+ * <p>
+ * A hit takes no lock: it looks the frame up in a concurrent map and sets
+ * its bit in an atomic array, so threads hitting pages in the pool never
+ * wait for each other or for an eviction.  A hit that races with the page
+ * leaving its frame may set the bit of the frame's next page, which only
+ * gives that page one extra chance.  Adding, removing and evicting pages
+ * synchronize on the policy.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private PageId[] frames; // The page held by each frame, or null.
+    // The reference bit of each frame, 1 if set; replaced when it grows.
+    private volatile AtomicIntegerArray referenced;
+    private final ConcurrentHashMap<PageId, Integer> frameOf; // Page -> frame index.
+    private int[] freeFrames; // Stack of the empty frames.
+    private int numFree; // Number of frames on that stack.
+    private int hand; // The next frame the clock looks at.
+    private int used; // Number of non-empty frames.
+
+    /**
+     * @param numPages the number of pages of the BufferPool this policy
+     *        serves; the clock grows if more pages are ever added.
+     */
+    public ClockReplacementPolicy(int numPages) {
+        int capacity = Math.max(1, numPages);
+        this.frames = new PageId[capacity];
+        this.referenced = new AtomicIntegerArray(capacity);
+        this.frameOf = new ConcurrentHashMap<PageId, Integer>();
+        this.freeFrames = new int[capacity];
+        this.numFree = 0;
+        pushFree(0, capacity);
+        this.hand = 0;
+        this.used = 0;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        Integer frame = this.frameOf.get(pid);
+        if (frame != null) {
+            this.referenced.set(frame, 1);
+            return;
+        }
+        if (this.numFree == 0) {
+            grow();
+        }
+        // The most recently freed frame is usually the one evict() just
+        // passed, so the new page sits as far as possible from the next
+        // sweep.
+        int i = this.freeFrames[--this.numFree];
+        this.frames[i] = pid;
+        this.referenced.set(i, 0);
+        this.frameOf.put(pid, i);
+        this.used++;
+    }
+
+    public void pageHit(PageId pid) {
+        Integer frame = this.frameOf.get(pid);
+        if (frame != null) {
+            // A frame never goes away, so the index is valid in the current
+            // array; a bit set in an array grow() has just copied is lost.
+            this.referenced.set(frame, 1);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = this.frameOf.remove(pid);
+        if (frame != null) {
+            this.frames[frame] = null;
+            this.referenced.set(frame, 0);
+            this.freeFrames[this.numFree++] = frame;
+            this.used--;
+        }
+    }
+
+    public synchronized void pageReinstated(PageId pid) {
+        // Back into a frame with a clear reference bit, as when it was
+        // chosen.
+        pageAdded(pid);
+    }
+
+    public synchronized PageId evict() {
+        if (this.used == 0) {
+            return null;
+        }
+        // At most two sweeps: the first one clears every reference bit.
+        // Hits may set bits again meanwhile, so after two sweeps they are
+        // ignored.
+        for (int steps = 0; ; steps++) {
+            PageId pid = this.frames[this.hand];
+            if (pid != null) {
+                if (this.referenced.get(this.hand) != 0
+                        && steps < 2 * this.frames.length) {
+                    this.referenced.set(this.hand, 0);
+                } else {
+                    this.frames[this.hand] = null;
+                    this.frameOf.remove(pid);
+                    this.freeFrames[this.numFree++] = this.hand;
+                    this.used--;
+                    this.hand = (this.hand + 1) % this.frames.length;
+                    return pid;
+                }
+            }
+            this.hand = (this.hand + 1) % this.frames.length;
+        }
+    }
+
+    // Pushes frames from..to-1 on the free stack, the lowest on top.
+    private void pushFree(int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            this.freeFrames[this.numFree++] = i;
+        }
+    }
+
+    // Double the number of frames; only happens if the pool overfills.
+    private void grow() {
+        int n = this.frames.length;
+        PageId[] newFrames = new PageId[n * 2];
+        AtomicIntegerArray newReferenced = new AtomicIntegerArray(n * 2);
+        System.arraycopy(this.frames, 0, newFrames, 0, n);
+        for (int i = 0; i < n; i++) {
+            newReferenced.set(i, this.referenced.get(i));
+        }
+        this.frames = newFrames;
+        this.referenced = newReferenced;
+        this.freeFrames = new int[n * 2];
+        pushFree(n, n * 2);
+    }
+}
@@ -43,6 +43,23 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts every remaining tuple of the iterator into the file on behalf
+     * of the transaction.  Implementations may fill new pages at the end of
+     * the file with tuples that do not fit in existing pages a whole page at
+     * a time, rather than one tuple at a time; the pages must still be
+     * locked and dirtied through the BufferPool, so that they are logged.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples An open iterator over the tuples to add.  Each tuple
+     *          should be updated to reflect that it is now stored in this file.
+     * @return The number of tuples inserted
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+        throws DbException, IOException, TransactionAbortedException;
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -3,9 +3,12 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select. Read a batch
+ * at a time, it narrows the selection of each batch of its child.  A Filter
+ * may apply the conjunction of several predicates, which are compiled into
+ * one {@link PredicateEvaluator} for the schema of its child.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -20,21 +23,43 @@ public class Filter extends Operator {
      */
     
     // Private variables.
-    Predicate predicate;
+    Predicate[] predicates;
+    PredicateEvaluator evaluator;
     DbIterator child;
     DbIterator[] children;
+    transient BatchIterator batches; // The child, read in batches.
     
     public Filter(Predicate p, DbIterator child) {
         // some code goes here
-    	this.predicate = p;
+    	this(new Predicate[] { p }, child);
+    }
+
+    /**
+     * Constructor accepts predicates that tuples must all pass, tried in
+     * order, and a child operator to read tuples to filter from.
+     * 
+     * @param ps
+     *            The predicates to filter tuples with
+     * @param child
+     *            The child operator
+     */
+    public Filter(Predicate[] ps, DbIterator child) {
+    	this.predicates = ps;
+    	this.evaluator = PredicateEvaluator.compile(ps, child.getTupleDesc());
     	this.child = child;
     	this.children = new DbIterator[1];
     	this.children[0] = child;
     }
 
+    /** @return the first predicate of this filter. */
     public Predicate getPredicate() {
         // some code goes here
-        return this.predicate;
+        return this.predicates[0];
+    }
+
+    /** @return the predicates of this filter. */
+    public Predicate[] getPredicates() {
+        return this.predicates;
     }
 
     public TupleDesc getTupleDesc() {
@@ -47,6 +72,7 @@ public class Filter extends Operator {
         // some code goes here
     	super.open();
     	this.child.open();
+    	this.batches = BatchAdapter.of(this.child);
     }
 
     public void close() {
@@ -63,24 +89,39 @@ public class Filter extends Operator {
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass the predicates (i.e. for which the compiled evaluator returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
-     * @see Predicate#filter
+     * @see PredicateEvaluator#eval
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
     	while (this.child.hasNext()) {
     		Tuple next = this.child.next();
-    		if (this.predicate.filter(next)) {
+    		if (this.evaluator.eval(next)) {
     			return next;
     		}
     	}
     	return null;
     }
 
+    /**
+     * Returns the next batch of the child with the tuples that do not pass
+     * the predicates dropped from its selection.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+    	TupleBatch b;
+    	while ((b = this.batches.nextBatch()) != null) {
+    		this.evaluator.filter(b);
+    		if (b.numSelected() > 0) {
+    			return b;
+    		}
+    	}
+    	return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
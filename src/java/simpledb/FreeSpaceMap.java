@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.*;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile have at least one empty
+ * slot, so that inserts can find a target page without pulling every page
+ * of the file through the BufferPool.
+ * <p>
+ * The map is only a hint: a page it reports as free is still checked by
+ * the caller, and a page it wrongly reports as full merely wastes its free
+ * slots.  It is kept in memory, saved to a sidecar file next to the table
+ * (the table file name plus {@link #SUFFIX}) when the HeapFile is closed,
+ * and rebuilt from the page headers when the sidecar is missing or does
+ * not match the table.  Whoever deletes a table file deletes the sidecar
+ * too; {@link #deleteOnExit} does both for temporary tables.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    /** Suffix appended to the table file name to name the sidecar file. */
+    public static final String SUFFIX = ".fsm";
+
+    private final HeapFile hf;
+    private final File sidecar;
+    private BitSet free; // Bit i is set if page i has an empty slot.
+    private int firstFreeHint; // No page below this one is free.
+
+    /**
+     * Creates the free space map of the given file.  Nothing is read until
+     * the map is first used.
+     */
+    public FreeSpaceMap(HeapFile hf) {
+        this.hf = hf;
+        this.sidecar = new File(hf.getFile().getPath() + SUFFIX);
+        this.free = null;
+        this.firstFreeHint = 0;
+    }
+
+    /**
+     * Marks a table file and the sidecar of its free space map to be
+     * deleted when the virtual machine exits, as File.deleteOnExit does.
+     *
+     * @param table the table file
+     */
+    public static void deleteOnExit(File table) {
+        table.deleteOnExit();
+        new File(table.getPath() + SUFFIX).deleteOnExit();
+    }
+
+    /**
+     * @return the number of a page that probably has an empty slot, or -1 if
+     *         every page of the file is full.
+     */
+    public synchronized int findFreePage() throws IOException {
+        load();
+        int pageNo = this.free.nextSetBit(this.firstFreeHint);
+        this.firstFreeHint = pageNo < 0 ? this.free.length() : pageNo;
+        return pageNo;
+    }
+
+    /**
+     * Records whether a page has an empty slot.
+     *
+     * @param pageNo the page number in the file
+     * @param hasFreeSlot true if at least one slot of the page is empty
+     */
+    public synchronized void setFree(int pageNo, boolean hasFreeSlot) {
+        if (this.free == null) {
+            // Not loaded yet; the page headers will be read when it is.
+            return;
+        }
+        this.free.set(pageNo, hasFreeSlot);
+        if (hasFreeSlot && pageNo < this.firstFreeHint) {
+            this.firstFreeHint = pageNo;
+        }
+    }
+
+    /**
+     * Writes the map to its sidecar file, if it has been loaded.  If the
+     * table file has been deleted, the sidecar is deleted instead.
+     */
+    public synchronized void save() throws IOException {
+        if (!this.hf.getFile().exists()) {
+            this.sidecar.delete();
+            return;
+        }
+        if (this.free == null) {
+            return;
+        }
+        int numPages = this.hf.numPages();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(this.sidecar)));
+        try {
+            dos.writeInt(numPages);
+            dos.writeInt(BufferPool.getPageSize());
+            for (int i = 0; i < numPages; i += 8) {
+                int b = 0;
+                for (int j = 0; j < 8 && i + j < numPages; j++) {
+                    if (this.free.get(i + j)) {
+                        b |= 1 << j;
+                    }
+                }
+                dos.writeByte(b);
+            }
+        } finally {
+            dos.close();
+        }
+    }
+
+    // Reads the sidecar, or rebuilds the map from the page headers.
+    private void load() throws IOException {
+        if (this.free != null) {
+            return;
+        }
+        int numPages = this.hf.numPages();
+        if (!readSidecar(numPages)) {
+            rebuild(numPages);
+        }
+        this.firstFreeHint = 0;
+    }
+
+    private boolean readSidecar(int numPages) {
+        if (!this.sidecar.exists() || this.sidecar.lastModified() < this.hf.getFile().lastModified()) {
+            return false;
+        }
+        try {
+            DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(this.sidecar)));
+            try {
+                if (dis.readInt() != numPages || dis.readInt() != BufferPool.getPageSize()) {
+                    return false;
+                }
+                BitSet bits = new BitSet(numPages);
+                for (int i = 0; i < numPages; i += 8) {
+                    int b = dis.readUnsignedByte();
+                    for (int j = 0; j < 8 && i + j < numPages; j++) {
+                        bits.set(i + j, (b & (1 << j)) != 0);
+                    }
+                }
+                this.free = bits;
+                return true;
+            } finally {
+                dis.close();
+            }
+        } catch (IOException e) {
+            // A damaged sidecar is simply rebuilt.
+            return false;
+        }
+    }
+
+    private void rebuild(int numPages) throws IOException {
+        int numSlots = HeapPage.numSlots(this.hf.getTupleDesc());
+        byte[] header = new byte[HeapPage.headerSize(this.hf.getTupleDesc())];
+        BitSet bits = new BitSet(numPages);
+        for (int pageNo = 0; pageNo < numPages; pageNo++) {
+            this.hf.readBytes(header, (long) pageNo * BufferPool.getPageSize());
+            bits.set(pageNo, HeapPage.hasEmptySlot(header, numSlots));
+        }
+        this.free = bits;
+    }
+}
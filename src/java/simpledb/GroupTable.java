@@ -0,0 +1,201 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * GroupTable numbers the distinct group-by keys seen by an aggregator 0, 1,
+ * 2, ... in order of first appearance, so that per-group state can be kept
+ * in flat primitive arrays indexed by group number.  A key is made of one or
+ * more fields of a tuple.  A single int key is kept in an open-addressing
+ * table of ints, so no Field objects are held per group; other keys are
+ * kept in a HashMap.
+ */
+public class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] keyFields;
+    private final boolean intKey;
+    private int size;
+
+    // Single int key: open-addressing table of keys and their group number
+    // + 1 (0 marks an empty slot), and the keys by group number.
+    private int[] keys;
+    private int[] ids;
+    private int[] values;
+
+    // Other keys: a single Field, or a List of Fields.
+    private HashMap<Object, Integer> map;
+    private ArrayList<Field[]> fields;
+
+    /**
+     * Creates an empty table for keys made of the given fields of tuples
+     * with the given field types.
+     *
+     * @param keyFields
+     *            the indexes of the key fields in the tuples
+     * @param keyTypes
+     *            the types of those fields
+     */
+    public GroupTable(int[] keyFields, Type[] keyTypes) {
+        if (keyFields.length == 0 || keyFields.length != keyTypes.length)
+            throw new IllegalArgumentException("need a type for each of at least one key field");
+        this.keyFields = keyFields.clone();
+        this.intKey = keyFields.length == 1 && keyTypes[0] == Type.INT_TYPE;
+        this.size = 0;
+        if (this.intKey) {
+            this.keys = new int[16];
+            this.ids = new int[16];
+            this.values = new int[16];
+        } else {
+            this.map = new HashMap<Object, Integer>();
+            this.fields = new ArrayList<Field[]>();
+        }
+    }
+
+    /** @return the number of distinct keys in the table. */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the group number of the key of a tuple, or -1 if it is not in
+     * the table.
+     */
+    public int find(Tuple t) {
+        if (!this.intKey) {
+            Integer id = this.map.get(keyOf(t));
+            return id == null ? -1 : id;
+        }
+        return findInt(t.getInt(this.keyFields[0]));
+    }
+
+    /** @return true if keys are a single int field. */
+    public boolean isIntKey() {
+        return this.intKey;
+    }
+
+    /**
+     * Returns the group number of a single int key, or -1 if it is not in
+     * the table.
+     */
+    public int findInt(int key) {
+        return this.ids[slotOf(key)] - 1;
+    }
+
+    /**
+     * Returns the group number of the key of a tuple, adding the key as a
+     * new group if it is not in the table yet.
+     */
+    public int add(Tuple t) {
+        if (!this.intKey) {
+            Object key = keyOf(t);
+            Integer id = this.map.get(key);
+            if (id == null) {
+                id = this.size++;
+                this.map.put(key, id);
+                Field[] f = new Field[this.keyFields.length];
+                for (int k = 0; k < f.length; k++)
+                    f[k] = t.getField(this.keyFields[k]);
+                this.fields.add(f);
+            }
+            return id;
+        }
+
+        return addInt(t.getInt(this.keyFields[0]));
+    }
+
+    /**
+     * Returns the group number of a single int key, adding it as a new group
+     * if it is not in the table yet.
+     */
+    public int addInt(int key) {
+        int i = slotOf(key);
+        if (this.ids[i] != 0)
+            return this.ids[i] - 1;
+        int id = this.size++;
+        this.keys[i] = key;
+        this.ids[i] = id + 1;
+        if (id == this.values.length)
+            this.values = Arrays.copyOf(this.values, 2 * id);
+        this.values[id] = key;
+        if (2 * this.size > this.keys.length)
+            grow();
+        return id;
+    }
+
+    /** @return field k of the key of group number id. */
+    public Field get(int id, int k) {
+        if (id < 0 || id >= this.size)
+            throw new IndexOutOfBoundsException("no group " + id);
+        if (this.intKey)
+            return new IntField(this.values[id]);
+        return this.fields.get(id)[k];
+    }
+
+    /**
+     * @return a hash code of the key of a tuple, equal for tuples with equal
+     *         keys.
+     */
+    public int hashKey(Tuple t) {
+        if (this.keyFields.length == 1)
+            return t.getField(this.keyFields[0]).hashCode();
+        return keyOf(t).hashCode();
+    }
+
+    /** Removes all keys from the table. */
+    public void clear() {
+        this.size = 0;
+        if (this.intKey) {
+            Arrays.fill(this.ids, 0);
+        } else {
+            this.map.clear();
+            this.fields.clear();
+        }
+    }
+
+    private Object keyOf(Tuple t) {
+        if (this.keyFields.length == 1)
+            return t.getField(this.keyFields[0]);
+        List<Field> key = new ArrayList<Field>(this.keyFields.length);
+        for (int k : this.keyFields)
+            key.add(t.getField(k));
+        return key;
+    }
+
+    // Returns the slot holding key, or the empty slot where it would go.
+    private int slotOf(int key) {
+        int mask = this.keys.length - 1;
+        int i = mix(key) & mask;
+        while (this.ids[i] != 0 && this.keys[i] != key)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    // Spreads the key so that sequential values do not cluster.
+    private static int mix(int h) {
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        int[] oldKeys = this.keys;
+        int[] oldIds = this.ids;
+        this.keys = new int[oldKeys.length * 2];
+        this.ids = new int[oldIds.length * 2];
+        int mask = this.keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldIds[j] == 0)
+                continue;
+            int i = mix(oldKeys[j]) & mask;
+            while (this.ids[i] != 0)
+                i = (i + 1) & mask;
+            this.keys[i] = oldKeys[j];
+            this.ids[i] = oldIds[j];
+        }
+    }
+}
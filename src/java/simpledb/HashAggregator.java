@@ -0,0 +1,657 @@
+package simpledb;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * HashAggregator computes any number of aggregates over the tuples of a
+ * child, grouped by a key made of zero or more of its fields, in a single
+ * pass.  Group keys are numbered by a {@link GroupTable}; the running state
+ * of each aggregate is kept in arrays indexed by that number, holding only
+ * what its operator needs (a count, a sum, a sum and a count, a minimum or
+ * a maximum).
+ * IntegerAggregator and StringAggregator are the single-aggregate cases.
+ * <p>
+ * The number of groups held in memory is bounded by a budget tied to the
+ * size of the buffer pool.  Once the budget is used up, tuples of groups
+ * that are not in memory are hash partitioned into temporary
+ * {@link SpillFile}s.  The iterator returns the groups in memory first, and
+ * then aggregates each partition on its own with a fresh aggregator, which
+ * partitions again (with a different hash) if a partition still has too
+ * many groups.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Largest number of partitions overflow groups are spilled into. */
+    public static final int MAX_PARTITIONS = 64;
+
+    /** Partitioning depth after which groups are no longer spilled. */
+    public static final int MAX_LEVEL = 4;
+
+    // Private Variables
+    final int[] gbFields; // Empty if no grouping.
+    final Type[] gbFieldTypes;
+    final int[] aggrFields;
+    final Type[] aggrFieldTypes;
+    final Op[] aggrOperators;
+    String[] groupNames; // Null until the first tuple is merged.
+    private final TupleDesc td; // Of the results, or null to derive it.
+
+    GroupTable groups; // Null if no grouping.
+    int numGroups; // Groups in memory.
+    private final Accumulator[] accs; // One per aggregate.
+
+    private final int level; // Partitioning depth of this aggregator.
+    private int maxGroups; // Groups that fit in memory, or 0 until known.
+    private SpillFile[] parts; // Partitions being written, or null.
+    private ArrayList<ArrayList<SpillFile>> sealed; // Partitions being read.
+
+    /**
+     * Aggregator constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple, or
+     *            an empty array if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param whats
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException
+     *             if an operator other than COUNT is applied to a string field
+     */
+    public HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats) {
+        this(gbfields, gbfieldtypes, afields, afieldtypes, whats, null, 0);
+    }
+
+    /**
+     * Like {@link #HashAggregator(int[], Type[], int[], Type[], Op[])}, with
+     * the TupleDesc of the result tuples given by the caller, so that they
+     * carry its field names.  Aggregate passes its own TupleDesc.
+     *
+     * @param td
+     *            the TupleDesc of the results: the group-by fields, then one
+     *            int field per aggregate
+     */
+    HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats, TupleDesc td) {
+        this(gbfields, gbfieldtypes, afields, afieldtypes, whats, td, 0);
+    }
+
+    private HashAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats, TupleDesc td, int level) {
+        if (afields.length != whats.length || afields.length != afieldtypes.length)
+            throw new IllegalArgumentException("need a type and an operator for each aggregate field");
+        this.gbFields = gbfields.clone();
+        this.gbFieldTypes = gbfieldtypes.clone();
+        this.aggrFields = afields.clone();
+        this.aggrFieldTypes = afieldtypes.clone();
+        this.aggrOperators = whats.clone();
+        this.groupNames = null;
+        this.td = td;
+        if (this.gbFields.length > 0) {
+            this.groups = new GroupTable(this.gbFields, this.gbFieldTypes);
+        }
+        this.accs = new Accumulator[afields.length];
+        for (int a = 0; a < afields.length; a++) {
+            if (afieldtypes[a] == Type.INT_TYPE) {
+                this.accs[a] = intAccumulator(afields[a], whats[a]);
+            } else if (whats[a] == Op.COUNT) {
+                this.accs[a] = new CountAccumulator();
+            } else {
+                throw new IllegalArgumentException("cannot compute " + whats[a]
+                        + " over a " + afieldtypes[a] + " field");
+            }
+        }
+        this.numGroups = 0;
+        this.level = level;
+    }
+
+    /** Grouping arguments of the single-key constructors, as arrays. */
+    static int[] groupFields(int gbfield, Type gbfieldtype) {
+        if (gbfield == Aggregator.NO_GROUPING || gbfieldtype == null)
+            return new int[0];
+        return new int[] { gbfield };
+    }
+
+    static Type[] groupTypes(int gbfield, Type gbfieldtype) {
+        if (gbfield == Aggregator.NO_GROUPING || gbfieldtype == null)
+            return new Type[0];
+        return new Type[] { gbfieldtype };
+    }
+
+    /**
+     * The running state of one aggregate for every group, indexed by group
+     * number.
+     */
+    static abstract class Accumulator implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        /** Sets up the state of new group number g. */
+        abstract void initGroup(int g);
+
+        /** Merges the aggregate field of tup into group number g. */
+        abstract void merge(int g, Tuple tup);
+
+        /** Merges the aggregate field of a row of b into group number g. */
+        abstract void merge(int g, TupleBatch b, int row);
+
+        /** @return the aggregate value of group number g. */
+        abstract int value(int g);
+    }
+
+    /**
+     * @return an accumulator that keeps only the state op needs over int
+     *         field number field: a count, a sum, a sum and a count, a
+     *         minimum or a maximum per group.
+     */
+    static Accumulator intAccumulator(int field, Op op) {
+        switch (op) {
+        case COUNT:
+            return new CountAccumulator();
+        case SUM:
+            return new SumAccumulator(field);
+        case AVG:
+            return new AvgAccumulator(field);
+        case MIN:
+            return new MinAccumulator(field);
+        case MAX:
+            return new MaxAccumulator(field);
+        default:
+            throw new UnsupportedOperationException("HashAggregator: " + op);
+        }
+    }
+
+    // The number of values merged; COUNT over a field of any type.
+    static class CountAccumulator extends Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        int[] counts = new int[16];
+
+        void initGroup(int g) {
+            if (g == this.counts.length) {
+                this.counts = Arrays.copyOf(this.counts, 2 * g);
+            }
+            this.counts[g] = 0;
+        }
+
+        void merge(int g, Tuple tup) {
+            this.counts[g]++;
+        }
+
+        void merge(int g, TupleBatch b, int row) {
+            this.counts[g]++;
+        }
+
+        int value(int g) {
+            return this.counts[g];
+        }
+    }
+
+    // The sum of the values merged.
+    static class SumAccumulator extends Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        final int field;
+        long[] sums = new long[16];
+
+        SumAccumulator(int field) {
+            this.field = field;
+        }
+
+        void initGroup(int g) {
+            if (g == this.sums.length) {
+                this.sums = Arrays.copyOf(this.sums, 2 * g);
+            }
+            this.sums[g] = 0;
+        }
+
+        void merge(int g, Tuple tup) {
+            this.sums[g] += tup.getInt(this.field);
+        }
+
+        void merge(int g, TupleBatch b, int row) {
+            this.sums[g] += b.ints[this.field][row];
+        }
+
+        int value(int g) {
+            return (int) this.sums[g];
+        }
+    }
+
+    // The sum and the number of the values merged.
+    static class AvgAccumulator extends SumAccumulator {
+        private static final long serialVersionUID = 1L;
+
+        int[] counts = new int[16];
+
+        AvgAccumulator(int field) {
+            super(field);
+        }
+
+        void initGroup(int g) {
+            super.initGroup(g);
+            if (g == this.counts.length) {
+                this.counts = Arrays.copyOf(this.counts, 2 * g);
+            }
+            this.counts[g] = 0;
+        }
+
+        void merge(int g, Tuple tup) {
+            super.merge(g, tup);
+            this.counts[g]++;
+        }
+
+        void merge(int g, TupleBatch b, int row) {
+            super.merge(g, b, row);
+            this.counts[g]++;
+        }
+
+        int value(int g) {
+            return (int) (this.sums[g] / this.counts[g]);
+        }
+    }
+
+    // The least of the values merged.
+    static class MinAccumulator extends Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        final int field;
+        int[] mins = new int[16];
+
+        MinAccumulator(int field) {
+            this.field = field;
+        }
+
+        void initGroup(int g) {
+            if (g == this.mins.length) {
+                this.mins = Arrays.copyOf(this.mins, 2 * g);
+            }
+            this.mins[g] = Integer.MAX_VALUE;
+        }
+
+        void merge(int g, Tuple tup) {
+            add(g, tup.getInt(this.field));
+        }
+
+        void merge(int g, TupleBatch b, int row) {
+            add(g, b.ints[this.field][row]);
+        }
+
+        private void add(int g, int v) {
+            if (v < this.mins[g]) {
+                this.mins[g] = v;
+            }
+        }
+
+        int value(int g) {
+            return this.mins[g];
+        }
+    }
+
+    // The greatest of the values merged.
+    static class MaxAccumulator extends Accumulator {
+        private static final long serialVersionUID = 1L;
+
+        final int field;
+        int[] maxs = new int[16];
+
+        MaxAccumulator(int field) {
+            this.field = field;
+        }
+
+        void initGroup(int g) {
+            if (g == this.maxs.length) {
+                this.maxs = Arrays.copyOf(this.maxs, 2 * g);
+            }
+            this.maxs[g] = Integer.MIN_VALUE;
+        }
+
+        void merge(int g, Tuple tup) {
+            add(g, tup.getInt(this.field));
+        }
+
+        void merge(int g, TupleBatch b, int row) {
+            add(g, b.ints[this.field][row]);
+        }
+
+        private void add(int g, int v) {
+            if (v > this.maxs[g]) {
+                this.maxs[g] = v;
+            }
+        }
+
+        int value(int g) {
+            return this.maxs[g];
+        }
+    }
+
+    /**
+     * @return the TupleDesc of the results: the group-by fields, then one
+     *         int field per aggregate.
+     */
+    private TupleDesc resultDesc(String[] names) {
+        int ng = this.gbFields.length;
+        Type[] typeAr = new Type[ng + this.aggrFields.length];
+        String[] nameAr = new String[typeAr.length];
+        for (int k = 0; k < ng; k++) {
+            typeAr[k] = this.gbFieldTypes[k];
+            nameAr[k] = names == null ? null : names[k];
+        }
+        for (int a = 0; a < this.aggrFields.length; a++) {
+            typeAr[ng + a] = Type.INT_TYPE;
+            nameAr[ng + a] = this.aggrOperators[a].toString();
+        }
+        return new TupleDesc(typeAr, nameAr);
+    }
+
+    /**
+     * Number of groups that may be held in memory: half of the buffer pool,
+     * in pages of result tuples.
+     */
+    private int memoryBudget() {
+        TupleDesc td = resultDesc(null);
+        int pages = Math.max(1, Database.getBufferPool().getNumPages() / 2);
+        return pages * HeapPage.numSlots(td);
+    }
+
+    private static int numPartitions() {
+        int pages = Database.getBufferPool().getNumPages() / 2;
+        return Math.max(2, Math.min(MAX_PARTITIONS, pages));
+    }
+
+    // Spreads the hash code; each level mixes differently so that a
+    // partition splits again when it is partitioned once more.
+    private int partitionOf(Tuple t) {
+        int h = this.groups.hashKey(t) ^ (0x9e3779b9 * (level + 1));
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        h *= 0xc2b2ae35;
+        h ^= (h >>> 16);
+        return (h & 0x7fffffff) % parts.length;
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        if (groupNames == null) {
+            setGroupNames(tup.getTupleDesc());
+        }
+
+        int g;
+        if (this.groups == null) {
+            g = 0;
+        } else {
+            g = this.groups.find(tup);
+            if (g < 0) {
+                if (this.maxGroups == 0)
+                    this.maxGroups = memoryBudget();
+                if (this.numGroups >= this.maxGroups && this.level < MAX_LEVEL) {
+                    spill(tup);
+                    return;
+                }
+                g = this.groups.add(tup);
+            }
+        }
+        if (g == this.numGroups) {
+            for (Accumulator acc : this.accs)
+                acc.initGroup(g);
+            this.numGroups++;
+        }
+        for (Accumulator acc : this.accs)
+            acc.merge(g, tup);
+    }
+
+    private void setGroupNames(TupleDesc td) {
+        groupNames = new String[this.gbFields.length];
+        for (int k = 0; k < this.gbFields.length; k++) {
+            groupNames[k] = td.getFieldName(this.gbFields[k]);
+            if (groupNames[k] == null) {
+                groupNames[k] = "null";
+            }
+        }
+    }
+
+    /**
+     * Merges the selected rows of a batch into the aggregate. Without
+     * grouping, or grouped on a single int field, the rows are merged
+     * straight from the batch columns; other keys go through tuples.
+     *
+     * @param b
+     *            the batch containing the aggregate and group-by fields
+     */
+    public void mergeBatch(TupleBatch b) {
+        int n = b.numSelected();
+        if (this.groups != null && !this.groups.isIntKey()) {
+            for (int k = 0; k < n; k++)
+                mergeTupleIntoGroup(b.getTuple(b.selected(k)));
+            return;
+        }
+        if (groupNames == null) {
+            setGroupNames(b.getTupleDesc());
+        }
+        int[] keys = this.groups == null ? null : b.intColumn(this.gbFields[0]);
+        for (int k = 0; k < n; k++) {
+            int row = b.selected(k);
+            int g;
+            if (keys == null) {
+                g = 0;
+            } else {
+                g = this.groups.findInt(keys[row]);
+                if (g < 0) {
+                    if (this.maxGroups == 0)
+                        this.maxGroups = memoryBudget();
+                    if (this.numGroups >= this.maxGroups && this.level < MAX_LEVEL) {
+                        spill(b.getTuple(row));
+                        continue;
+                    }
+                    g = this.groups.addInt(keys[row]);
+                }
+            }
+            if (g == this.numGroups) {
+                for (Accumulator acc : this.accs)
+                    acc.initGroup(g);
+                this.numGroups++;
+            }
+            for (Accumulator acc : this.accs)
+                acc.merge(g, b, row);
+        }
+    }
+
+    private void spill(Tuple tup) {
+        if (this.parts == null) {
+            this.parts = new SpillFile[numPartitions()];
+            this.sealed = new ArrayList<ArrayList<SpillFile>>();
+            for (int i = 0; i < this.parts.length; i++)
+                this.sealed.add(new ArrayList<SpillFile>());
+        }
+        int p = partitionOf(tup);
+        try {
+            if (this.parts[p] == null)
+                this.parts[p] = new SpillFile(tup.getTupleDesc());
+            this.parts[p].add(tup);
+        } catch (IOException e) {
+            throw new RuntimeException("HashAggregator: cannot spill: " + e);
+        }
+    }
+
+    /** @return true if any tuples were spilled to disk. */
+    public boolean hasSpilled() {
+        return this.parts != null;
+    }
+
+    // Makes the partitions written so far readable; later tuples go to new
+    // spill files.
+    private void seal() {
+        if (this.parts == null)
+            return;
+        for (int i = 0; i < this.parts.length; i++) {
+            if (this.parts[i] != null) {
+                this.sealed.get(i).add(this.parts[i]);
+                this.parts[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Discards all groups and deletes any spilled tuples.
+     */
+    public void clear() {
+        if (this.groups != null)
+            this.groups.clear();
+        this.numGroups = 0;
+        this.groupNames = null;
+        if (this.parts != null) {
+            seal();
+            for (ArrayList<SpillFile> files : this.sealed)
+                for (SpillFile f : files)
+                    f.delete();
+            this.parts = null;
+            this.sealed = null;
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples hold the group-by values of a group
+     *         followed by its aggregate values, in the order given to the
+     *         constructor; without grouping there is a single tuple of
+     *         aggregate values.
+     */
+    public DbIterator iterator() {
+        return new DbIterator() {
+
+            private static final long serialVersionUID = 1L;
+
+            int next; // The next group number in memory to return.
+            int part; // The partition being returned, once past memory.
+            HashAggregator partAgg; // Its aggregator.
+            DbIterator partIt; // Its results.
+            TupleDesc td;
+
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                if (numGroups == 0 && !hasSpilled()) {
+                    throw new DbException("HashAggregator: open failed");
+                }
+                seal();
+                rewind();
+
+                td = HashAggregator.this.td != null ? HashAggregator.this.td
+                        : resultDesc(groupNames);
+            }
+
+            @Override
+            public boolean hasNext() throws DbException,
+                    TransactionAbortedException {
+                if (this.next < numGroups)
+                    return true;
+                while (true) {
+                    if (this.partIt != null && this.partIt.hasNext())
+                        return true;
+                    if (!nextPartition())
+                        return false;
+                }
+            }
+
+            // Aggregates the next non-empty partition.
+            private boolean nextPartition() throws DbException,
+                    TransactionAbortedException {
+                closePartition();
+                if (sealed == null)
+                    return false;
+                while (++this.part < sealed.size()) {
+                    ArrayList<SpillFile> files = sealed.get(this.part);
+                    if (files.isEmpty())
+                        continue;
+                    this.partAgg = new HashAggregator(gbFields, gbFieldTypes,
+                            aggrFields, aggrFieldTypes, aggrOperators,
+                            HashAggregator.this.td, level + 1);
+                    for (SpillFile f : files) {
+                        DbIterator it;
+                        try {
+                            it = f.iterator();
+                        } catch (IOException e) {
+                            throw new DbException("HashAggregator: cannot read spill file: " + e);
+                        }
+                        it.open();
+                        while (it.hasNext())
+                            this.partAgg.mergeTupleIntoGroup(it.next());
+                        it.close();
+                    }
+                    this.partIt = this.partAgg.iterator();
+                    this.partIt.open();
+                    return true;
+                }
+                return false;
+            }
+
+            private void closePartition() {
+                if (this.partIt != null) {
+                    this.partIt.close();
+                    this.partIt = null;
+                }
+                if (this.partAgg != null) {
+                    this.partAgg.clear();
+                    this.partAgg = null;
+                }
+            }
+
+            @Override
+            public Tuple next() throws DbException,
+                    TransactionAbortedException, NoSuchElementException {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                if (this.next >= numGroups) {
+                    return this.partIt.next();
+                }
+                int g = this.next++;
+
+                Tuple rettup = new Tuple(this.td);
+                int ng = gbFields.length;
+                for (int k = 0; k < ng; k++)
+                    rettup.setField(k, groups.get(g, k));
+                for (int a = 0; a < accs.length; a++)
+                    rettup.setField(ng + a, new IntField(accs[a].value(g)));
+                return rettup;
+            }
+
+            @Override
+            public void rewind() throws DbException,
+                    TransactionAbortedException {
+                closePartition();
+                this.next = 0;
+                this.part = -1;
+            }
+
+            @Override
+            public TupleDesc getTupleDesc() {
+                return this.td;
+            }
+
+            @Override
+            public void close() {
+                closePartition();
+                this.next = numGroups;
+                this.part = sealed == null ? 0 : sealed.size();
+            }
+        };
+    }
+
+}
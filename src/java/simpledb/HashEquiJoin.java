@@ -1,11 +1,17 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join as a grace hash
+ * join.  Its memory budget is tied to the size of the buffer pool; when the
+ * build input (child1) does not fit, both inputs are partitioned into
+ * temporary {@link SpillFile}s and joined partition by partition.  Read a
+ * batch at a time, it probes with the batches of the probe input and builds
+ * the joined rows directly in the columns of its output batch.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate pred;
@@ -51,47 +57,210 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
+    /** Largest number of partitions the join spills each input into. */
+    public final static int MAX_PARTITIONS = 64;
+
+    transient private int maxTuples; // Build tuples that fit in memory.
+    transient private DbIterator build; // Where build (child1) tuples come from.
+    transient private DbIterator probe; // Where probe (child2) tuples come from.
+    transient private SpillFile[] parts1, parts2; // Partitions, or null if in memory.
+    transient private int part; // The partition being joined.
+    transient private boolean done; // No more tuples until rewind.
+
+    // Batch reading: probe read in batches, the probe batch and its next
+    // selected row, the build tuples matching the current probe row, and
+    // the batch handed out.
+    transient private DbIterator probeOf;
+    transient private BatchIterator probeBatches;
+    transient private TupleBatch probeBatch;
+    transient private int probeK, probeRow;
+    transient private ArrayList<Tuple> matches;
+    transient private int matchPos;
+    transient private TupleBatch out;
+
+    /**
+     * Number of build tuples the join may hold in memory: half of the
+     * buffer pool, in pages of child1 tuples.
+     */
+    private int memoryBudget() {
+        int pages = Math.max(1, Database.getBufferPool().getNumPages() / 2);
+        return pages * HeapPage.numSlots(child1.getTupleDesc());
+    }
+
+    // Spreads the hash code so that partitions do not follow the low bits.
+    private static int partitionOf(Field f, int numPartitions) {
+        int h = f.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return (h & 0x7fffffff) % numPartitions;
+    }
+
+    /**
+     * Loads up to maxTuples tuples of the build input into the hash map.
+     * @return true if at least one tuple was loaded.
+     */
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
+        while (cnt < maxTuples && build.hasNext()) {
+            t1 = build.next();
             ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
             if (list == null) {
                 list = new ArrayList<Tuple>();
                 map.put(t1.getField(pred.getField1()), list);
             }
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            cnt++;
         }
         return cnt > 0;
 
     }
 
+    /**
+     * Grace hash join: writes both inputs into the same number of hash
+     * partitions, so that matching tuples always land in partitions with the
+     * same index.  Called when child1 does not fit in memory.
+     */
+    private void partition() throws DbException, TransactionAbortedException {
+        int numPartitions = Math.max(2, Math.min(MAX_PARTITIONS,
+                Database.getBufferPool().getNumPages() / 2));
+        parts1 = new SpillFile[numPartitions];
+        parts2 = new SpillFile[numPartitions];
+        try {
+            for (int i = 0; i < numPartitions; i++) {
+                parts1[i] = new SpillFile(child1.getTupleDesc());
+                parts2[i] = new SpillFile(child2.getTupleDesc());
+            }
+            // The tuples already in the map, then the rest of child1.
+            for (ArrayList<Tuple> list : map.values()) {
+                for (Tuple t : list)
+                    parts1[partitionOf(t.getField(pred.getField1()), numPartitions)].add(t);
+            }
+            map.clear();
+            while (child1.hasNext()) {
+                Tuple t = child1.next();
+                parts1[partitionOf(t.getField(pred.getField1()), numPartitions)].add(t);
+            }
+            while (child2.hasNext()) {
+                Tuple t = child2.next();
+                parts2[partitionOf(t.getField(pred.getField2()), numPartitions)].add(t);
+            }
+        } catch (IOException e) {
+            throw new DbException("HashEquiJoin: cannot spill partitions: " + e);
+        }
+        part = -1;
+    }
 
+    /**
+     * Moves on to the next pair of partitions that both have tuples, and
+     * loads the first part of its build side.
+     * @return false if there are no more partitions.
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (parts1 == null)
+            return false;
+        closePartition();
+        map.clear();
+        while (++part < parts1.length) {
+            if (parts1[part].size() == 0 || parts2[part].size() == 0)
+                continue;
+            try {
+                build = parts1[part].iterator();
+                probe = parts2[part].iterator();
+            } catch (IOException e) {
+                throw new DbException("HashEquiJoin: cannot read partition: " + e);
+            }
+            build.open();
+            probe.open();
+            loadMap();
+            return true;
+        }
+        return false;
+    }
+
+    // Closes the spill file readers of the current partition, if any.
+    private void closePartition() {
+        if (parts1 != null && build != null && build != child1) {
+            build.close();
+            probe.close();
+        }
+        build = null;
+        probe = null;
+    }
+
+    // Deletes all spill files.
+    private void deletePartitions() {
+        closePartition();
+        if (parts1 != null) {
+            for (int i = 0; i < parts1.length; i++) {
+                if (parts1[i] != null) parts1[i].delete();
+                if (parts2[i] != null) parts2[i].delete();
+            }
+        }
+        parts1 = null;
+        parts2 = null;
+    }
+
+    /**
+     * Builds the hash table from child1.  If child1 fits in the memory
+     * budget, child2 is simply streamed against it.  Otherwise both
+     * children are hash-partitioned into spill files and the join proceeds
+     * one pair of partitions at a time.  A partition that is still too big
+     * for memory is joined in budget-sized pieces, rescanning its probe
+     * partition for each piece.
+     */
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        super.open();
+        maxTuples = memoryBudget();
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        listIt = null;
+        resetBatches();
+        build = child1;
+        probe = child2;
+        boolean loaded = loadMap();
+        if (child1.hasNext()) {
+            partition();
+            done = !nextPartition();
+        } else {
+            // All of child1 is in memory; nothing can match if it is empty.
+            done = !loaded;
+        }
     }
 
     public void close() {
         super.close();
+        deletePartitions();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        resetBatches();
+        this.probeOf=null;
+        this.probeBatches=null;
+        this.out=null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        listIt = null;
+        resetBatches();
+        if (parts1 != null) {
+            // The partitions are still on disk; join them again.
+            part = -1;
+            done = !nextPartition();
+        } else if (!map.isEmpty()) {
+            child2.rewind();
+            done = false;
+        }
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -132,32 +301,101 @@ public class HashEquiJoin extends Operator {
 
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
-        }
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            if (done) {
+                return null;
+            }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+            // loop around the probe side
+            while (probe.hasNext()) {
+                t2 = probe.next();
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+                if (l == null)
+                    continue;
+                listIt = l.iterator();
 
-            return processList();
+                return processList();
 
-        }
+            }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+            // probe side is done: load the next piece of the build side, or
+            // move on to the next partition
+            if (build.hasNext()) {
+                loadMap();
+                probe.rewind();
+            } else if (!nextPartition()) {
+                done = true;
+            }
         }
+    }
+
+    private void resetBatches() {
+        probeBatch = null;
+        matches = null;
+    }
 
-        return null;
+    /**
+     * Returns the next batch of joined rows; each row is the concatenation
+     * of a build (child1) and a probe (child2) tuple, as with next.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null)
+            out = new TupleBatch(comboTD);
+        out.clear();
+        int n1 = child1.getTupleDesc().numFields();
+        int n2 = comboTD.numFields() - n1;
+        while (!out.isFull()) {
+            if (matches != null && matchPos < matches.size()) {
+                Tuple b = matches.get(matchPos++);
+                int row = out.addRow();
+                for (int j = 0; j < n1; j++) {
+                    if (out.ints[j] != null)
+                        out.ints[j][row] = b.getInt(j);
+                    else
+                        out.strings[j][row] = b.getString(j);
+                }
+                for (int j = 0; j < n2; j++) {
+                    if (out.ints[n1 + j] != null)
+                        out.ints[n1 + j][row] = probeBatch.ints[j][probeRow];
+                    else
+                        out.strings[n1 + j][row] = probeBatch.strings[j][probeRow];
+                }
+                continue;
+            }
+            matches = null;
+            if (done)
+                break;
+            if (probeBatch != null && probeK < probeBatch.numSelected()) {
+                probeRow = probeBatch.selected(probeK++);
+                matches = map.get(probeBatch.getField(pred.getField2(), probeRow));
+                matchPos = 0;
+                continue;
+            }
+            if (probeOf != probe) {
+                probeOf = probe;
+                probeBatches = BatchAdapter.of(probe);
+            }
+            probeBatch = probeBatches.nextBatch();
+            probeK = 0;
+            if (probeBatch != null)
+                continue;
+
+            // probe side is done: load the next piece of the build side, or
+            // move on to the next partition
+            if (build.hasNext()) {
+                loadMap();
+                probe.rewind();
+            } else if (!nextPartition()) {
+                done = true;
+            }
+        }
+        return out.numSelected() == 0 ? null : out;
     }
 
     @Override
@@ -2,6 +2,11 @@
 package simpledb;
 
 import java.io.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -18,8 +23,25 @@ public class HeapFile implements DbFile {
 
 	private File file; // The related file.
 	private TupleDesc td; // The related tuple descriptor.
-	private int maxPageNo; // The upper limit of the page number.
-	
+	private FileChannel channel; // Open handle to the file, or null.
+
+	/** Size, in bytes, of the regions the mmap mode maps at a time. */
+	public static final int MAP_SEGMENT_SIZE = 1 << 26;
+
+	private final boolean mmap; // Whether pages are read through mappings.
+	private ArrayList<MappedByteBuffer> segments; // The mapped regions, in file order.
+	private long mappedEnd; // Number of bytes of the file currently mapped.
+	// The pages read through the mapping that may still be in use, by page
+	// number.  Also held while any page is written in mmap mode.
+	private final HashMap<Integer, ArrayList<MappedView>> views;
+	private final ReferenceQueue<HeapPage> collected; // Views of unused pages.
+
+	private final FreeSpaceMap fsm; // Which pages have empty slots.
+
+	// Held while the file is extended, so that concurrent inserters never
+	// get the same new page number.
+	private final Object extendLock = new Object();
+	private int reservedPages; // Pages allocated so far, written out or not.
 	
     /**
      * Constructs a heap file backed by the specified file.
@@ -29,10 +51,39 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading its pages through memory mappings of the file.
+     * <p>
+     * In mmap mode the file is mapped read-only in segments of
+     * {@link #MAP_SEGMENT_SIZE} bytes and {@link #readPage} returns pages
+     * that decode their tuples straight from the mapped region, without a
+     * read system call or a copy.  Writes still go through the file channel,
+     * and the mapping is extended when the file grows.  Before a page is
+     * written, the pages read over its old contents that are still in use
+     * get a private copy of them (see {@link HeapPage#detach}), so they do
+     * not see slots they have not decoded yet change.  Writes and mapped
+     * reads of the file then wait for each other.  Intended for read-mostly
+     * tables.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param mmap whether to read pages through memory mappings.
+     */
+    public HeapFile(File f, TupleDesc td, boolean mmap) {
 		// Initialize the instance variables.
     	this.file = f;
     	this.td = td;
-    	this.maxPageNo = (int) f.length() / BufferPool.getPageSize() - 1;
+    	this.mmap = mmap;
+    	this.segments = new ArrayList<MappedByteBuffer>();
+    	this.mappedEnd = 0;
+    	this.views = new HashMap<Integer, ArrayList<MappedView>>();
+    	this.collected = new ReferenceQueue<HeapPage>();
+    	this.fsm = new FreeSpaceMap(this);
     }
 
     /**
@@ -66,115 +117,365 @@ public class HeapFile implements DbFile {
         return this.td;
     }
 
+    /**
+     * Returns the channel used for all page I/O on this file, opening it on
+     * first use (or first use after {@link #close}).  Reads and writes are
+     * positional, so the channel can be shared by concurrent callers.
+     */
+    private synchronized FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            this.channel = new RandomAccessFile(this.file, "rw").getChannel();
+        }
+        return this.channel;
+    }
+
+    /**
+     * Closes the file handle held by this HeapFile and saves its free space
+     * map.  A later page access transparently reopens it.
+     */
+    public synchronized void close() {
+        try {
+            this.fsm.save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        // Mappings stay valid until collected; just stop using them.
+        this.segments = new ArrayList<MappedByteBuffer>();
+        this.mappedEnd = 0;
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Returns a buffer positioned over the page starting at offset in the
+     * mapped region of the file, extending the mapping if the file has grown
+     * past it.  Returns null if the page lies beyond the end of the file.
+     */
+    private synchronized ByteBuffer mappedPage(long offset) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (offset + pageSize > this.mappedEnd) {
+            remap();
+            if (offset + pageSize > this.mappedEnd) {
+                return null;
+            }
+        }
+        // Segments hold a whole number of pages, so a page never straddles two.
+        long segmentSize = segmentSize();
+        ByteBuffer segment = this.segments.get((int) (offset / segmentSize)).duplicate();
+        int start = (int) (offset % segmentSize);
+        segment.position(start);
+        segment.limit(start + pageSize);
+        return segment.slice();
+    }
+
+    // Bytes covered by one mapping: the largest multiple of the page size
+    // that fits in MAP_SEGMENT_SIZE.
+    private static long segmentSize() {
+        int pageSize = BufferPool.getPageSize();
+        return (long) Math.max(1, MAP_SEGMENT_SIZE / pageSize) * pageSize;
+    }
+
+    /**
+     * Maps whatever part of the file lies past the currently mapped end.
+     * Only the last, partially filled segment is ever replaced.
+     */
+    private synchronized void remap() throws IOException {
+        FileChannel fc = this.getChannel();
+        long size = fc.size();
+        size -= size % BufferPool.getPageSize();
+        long segmentSize = segmentSize();
+        if (!this.segments.isEmpty() && this.mappedEnd % segmentSize != 0) {
+            // Drop the partial segment; it is remapped at its full new size.
+            this.segments.remove(this.segments.size() - 1);
+            this.mappedEnd -= this.mappedEnd % segmentSize;
+        }
+        while (this.mappedEnd < size) {
+            long len = Math.min(segmentSize, size - this.mappedEnd);
+            this.segments.add(fc.map(FileChannel.MapMode.READ_ONLY, this.mappedEnd, len));
+            this.mappedEnd += len;
+        }
+    }
+
+    /**
+     * Reads buf.length bytes of the file starting at offset, bypassing the
+     * BufferPool.  Bytes past the end of the file are left untouched.
+     */
+    void readBytes(byte[] buf, long offset) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf);
+        FileChannel fc = this.getChannel();
+        while (bb.hasRemaining()) {
+            if (fc.read(bb, offset + bb.position()) < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return the map of pages of this file that have empty slots.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return this.fsm;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
 		// Calculate the offset of the file.
-    	int pageNo = pid.pageNumber();
-    	int offset = BufferPool.getPageSize() * pageNo;
+    	long offset = (long) BufferPool.getPageSize() * pid.pageNumber();
+    	if (this.mmap) {
+    		try {
+    			synchronized (this.views) {
+    				ByteBuffer mapped = this.mappedPage(offset);
+    				if (mapped != null) {
+    					HeapPage page = new HeapPage((HeapPageId) pid, mapped);
+    					this.addView(page);
+    					return page;
+    				}
+    			}
+    		} catch (IOException e) {
+    			e.printStackTrace();
+    		}
+    		// Past the end of the file: fall through to an empty page.
+    	}
     	byte[] data = new byte[BufferPool.getPageSize()]; // Set up the buffer.
-    	RandomAccessFile raf = null;
     	try {
-			raf = new RandomAccessFile(this.file, "r");
-			// Move the file pointer to the offset we calculated.
-			raf.seek((long) offset); 
-			raf.read(data, 0, BufferPool.getPageSize());
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
+			// Past the end of the file the page stays zero (i.e. empty).
+    		this.readBytes(data, offset);
 		} catch (IOException e) {
-			e.printStackTrace();	
+			e.printStackTrace();
 		}
         try {
 			return new HeapPage((HeapPageId) pid, data);
 		} catch (IOException e) {
 			e.printStackTrace();
 			return null;
-		} finally {
-			try {
-				raf.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
 		}
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        int pageNo = page.getId().pageNumber();
-        int offset = pageNo * BufferPool.getPageSize();
-        byte[] data = page.getPageData();
-        RandomAccessFile raf = null;
-        try{
-            raf = new RandomAccessFile(this.file, "rw");
-            raf.seek((long)offset);
-            raf.write(data,0,BufferPool.getPageSize());
+        long offset = (long) page.getId().pageNumber() * BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.wrap(page.getPageData(), 0, BufferPool.getPageSize());
+        this.write(buf, offset);
+        // Runhang: Notice, we should not catch IOException!
+    }
+
+    // Writes whole pages at offset.  In mmap mode the pages read through the
+    // mapping over the pages written are detached from it first.
+    private void write(ByteBuffer buf, long offset) throws IOException {
+        FileChannel fc = this.getChannel();
+        if (!this.mmap) {
+            while (buf.hasRemaining()) {
+                fc.write(buf, offset + buf.position());
+            }
+            return;
         }
-        catch  (FileNotFoundException e)
-        {
-            e.printStackTrace();
+        int pageSize = BufferPool.getPageSize();
+        synchronized (this.views) {
+            this.expungeViews();
+            for (long o = offset; o < offset + buf.remaining(); o += pageSize) {
+                ArrayList<MappedView> vs = this.views.remove((int) (o / pageSize));
+                for (int i = 0; vs != null && i < vs.size(); i++) {
+                    HeapPage p = vs.get(i).get();
+                    if (p != null) {
+                        p.detach();
+                    }
+                }
+            }
+            while (buf.hasRemaining()) {
+                fc.write(buf, offset + buf.position());
+            }
         }
-        finally
-        {
-            raf.close();
+    }
+
+    // A page read through the mapping, forgotten once it is collected.
+    private static class MappedView extends WeakReference<HeapPage> {
+        final int pageNo;
+
+        MappedView(HeapPage page, ReferenceQueue<HeapPage> queue) {
+            super(page, queue);
+            this.pageNo = page.getId().pageNumber();
+        }
+    }
+
+    // Remembers a page read through the mapping.  Caller holds views.
+    private void addView(HeapPage page) {
+        this.expungeViews();
+        Integer pageNo = page.getId().pageNumber();
+        ArrayList<MappedView> vs = this.views.get(pageNo);
+        if (vs == null) {
+            vs = new ArrayList<MappedView>(1);
+            this.views.put(pageNo, vs);
+        }
+        vs.add(new MappedView(page, this.collected));
+    }
+
+    // Forgets the pages read through the mapping that have been collected.
+    // Caller holds views.
+    private void expungeViews() {
+        Object ref;
+        while ((ref = this.collected.poll()) != null) {
+            MappedView v = (MappedView) ref;
+            ArrayList<MappedView> vs = this.views.get(v.pageNo);
+            if (vs != null && vs.remove(v) && vs.isEmpty()) {
+                this.views.remove(v.pageNo);
+            }
         }
-        // Runhang: Notice, we should not catch IOException!
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Returns the number of pages in this HeapFile, including pages
+     * allocated at its end that have not been written out yet.
      */
     public int numPages() {
-        return (int) (this.file.length() / BufferPool.getPageSize());
+        int onDisk = (int) (this.file.length() / BufferPool.getPageSize());
+        synchronized (this.extendLock) {
+            return Math.max(onDisk, this.reservedPages);
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        // some code goes here
-        for (int i = 0; i < this.numPages(); i++) {
-        	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(this.getId(), i), null);
-        	try {
-        		page.insertTuple(t);
-        		ArrayList<Page> retali = new ArrayList<Page>();
-        		retali.add(page);
-        		return retali;
-        	} catch (DbException e) {
+        // Ask the free space map for a page instead of trying every page.
+        int pageNo;
+        while ((pageNo = this.fsm.findFreePage()) >= 0) {
+        	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(this.getId(), pageNo), Permissions.READ_WRITE);
+        	if (page.getNumEmptySlots() == 0) {
+        		// Stale entry; the page is full after all.
+        		this.fsm.setFree(pageNo, false);
         		continue;
         	}
+        	page.insertTuple(t); // Also updates the free space map.
+        	ArrayList<Page> retali = new ArrayList<Page>();
+        	retali.add(page);
+        	return retali;
         }
         
 		// Need a new page.
-        byte[] data = new byte[BufferPool.getPageSize()];
-        for (int i = 0; i < BufferPool.getPageSize(); i++) {
-        	data[i] = 0;
-        }
-        
-        HeapPage newPage = new HeapPage(new HeapPageId(this.getId(), this.numPages()), data);
-        this.writePage(newPage);
+        this.fsm.setFree(this.allocatePage(), true);
         return insertTuple(tid, t); 
-        // not necessary for lab1
+    }
+
+    /**
+     * Reserves the page past the end of the file.  Nothing is written: the
+     * page stays empty on disk until the BufferPool writes it out, and
+     * reading it before then yields an empty page.  The page number is
+     * chosen under a lock of this file, so that two transactions extending
+     * it at once get different pages.
+     *
+     * @return the number of the new page.
+     */
+    private int allocatePage() {
+        synchronized (this.extendLock) {
+            int pageNo = this.numPages();
+            this.reservedPages = pageNo + 1;
+            return pageNo;
+        }
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
-        // some code goes here
-    	for (int i = 0; i < this.maxPageNo; i++) {
-        	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(this.getId(), i), null);
-        	try {
-        		page.deleteTuple(t);
-        		ArrayList<Page> retali = new ArrayList<Page>();
-        		retali.add(page);
-        		return retali;
-        	} catch (DbException e) {
-        		continue;
-        	}
+        // The RecordId tells us which page holds the tuple.
+    	RecordId rid = t.getRecordId();
+    	if (rid == null || rid.getPageId().getTableId() != this.getId()
+    			|| rid.getPageId().pageNumber() >= this.numPages()) {
+    		throw new DbException("HeapFile: tuple is not stored in this file");
+    	}
+    	HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+    	page.deleteTuple(t);
+    	ArrayList<Page> retali = new ArrayList<Page>();
+    	retali.add(page);
+    	return retali;
+    }
+
+    /**
+     * Number of new pages insertTuples fills in memory before logging them
+     * and writing them out.
+     */
+    public static final int APPEND_BATCH_PAGES = 64;
+
+    // see DbFile.java for javadocs
+    public int insertTuples(TransactionId tid, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        int count = 0;
+        // Fill the free slots of existing pages through the BufferPool first.
+        while (this.fsm.findFreePage() >= 0 && tuples.hasNext()) {
+            Database.getBufferPool().insertTuple(tid, this.getId(), tuples.next());
+            count++;
+        }
+        // Then fill new pages a whole page at a time, APPEND_BATCH_PAGES of
+        // them per batch.  Each page is allocated at the end of the file,
+        // locked and filled in memory.  The BufferPool logs the batch and
+        // forces the log once, then each run of consecutive pages in it is
+        // written with one write.  The pages never go through the pool; on
+        // abort the log rolls them back.
+        while (tuples.hasNext()) {
+            ArrayList<HeapPage> batch = new ArrayList<HeapPage>(APPEND_BATCH_PAGES);
+            while (tuples.hasNext() && batch.size() < APPEND_BATCH_PAGES) {
+                HeapPageId pid = new HeapPageId(this.getId(), this.allocatePage());
+                Database.getBufferPool().lockNewPage(tid, pid);
+                HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+                count += page.insertTuples(tuples);
+                batch.add(page);
+            }
+            Database.getBufferPool().logNewPages(tid, batch);
+            // Another transaction may have allocated pages in between.
+            int start = 0;
+            for (int i = 1; i <= batch.size(); i++) {
+                if (i == batch.size() || batch.get(i).getId().pageNumber()
+                        != batch.get(i - 1).getId().pageNumber() + 1) {
+                    this.writePages(batch.subList(start, i));
+                    start = i;
+                }
+            }
+        }
+        return count;
+    }
+
+    // Writes pages with consecutive numbers with one positional write, then
+    // drops any empty copy of them the BufferPool read in before.
+    private void writePages(List<HeapPage> pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(pages.size() * pageSize);
+        for (HeapPage p : pages) {
+            buf.put(p.getPageData(), 0, pageSize);
+        }
+        buf.flip();
+        this.write(buf, (long) pages.get(0).getId().pageNumber() * pageSize);
+        for (HeapPage p : pages) {
+            Database.getBufferPool().discardPage(p.getId());
         }
-        throw new DbException("HeapFile: fail to insert");
-        // not necessary for lab1
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that pass a
+     * predicate, holding only some of their fields.  The predicate is tested
+     * on the bytes of each page, so tuples that do not pass are never
+     * decoded, and only the given fields of those that do are.
+     * 
+     * @param tid
+     *            The transaction the iterator runs as a part of
+     * @param pred
+     *            The predicate, over the schema of this file, or null
+     * @param fields
+     *            The fields of this file the returned tuples hold, in order,
+     *            or null for all
+     */
+    public DbFileIterator iterator(TransactionId tid, final PredicateEvaluator pred,
+            final int[] fields) {
+        final TupleDesc outTd = fields == null ? this.td : TupleDesc.project(this.td, fields);
 		// Implement the iterator as an anonymous class to avoid additional files.
         return new DbFileIterator() {
 
@@ -196,8 +497,8 @@ public class HeapFile implements DbFile {
 				// Initialize the state.
 				int tableId = HeapFile.this.getId();
 				this.currentPageId = new HeapPageId(tableId, this.currentPageNo);
-				this.currentPage = Database.getBufferPool().getPage(tid, this.currentPageId, null);
-				this.tuples = ((HeapPage) this.currentPage).iterator();
+				this.currentPage = Database.getBufferPool().getPage(tid, this.currentPageId, Permissions.READ_ONLY);
+				this.tuples = ((HeapPage) this.currentPage).iterator(pred, fields, outTd);
 			}
 
 			@Override
@@ -210,14 +511,14 @@ public class HeapFile implements DbFile {
 						// If tuples has more items, return true.
 						return true;
 					} else {
-						if (this.currentPageNo < HeapFile.this.maxPageNo) {
+						if (this.currentPageNo < HeapFile.this.numPages() - 1) {
 							// If current held tuple is full, check if current page is the last page.
 							// If not, move to next page and recursively call this function.
 							int tableId = HeapFile.this.getId();
 							this.currentPageNo++;
 							this.currentPageId = new HeapPageId(tableId, this.currentPageNo);
-							this.currentPage = Database.getBufferPool().getPage(tid, this.currentPageId, null);
-							this.tuples = ((HeapPage) this.currentPage).iterator();
+							this.currentPage = Database.getBufferPool().getPage(tid, this.currentPageId, Permissions.READ_ONLY);
+							this.tuples = ((HeapPage) this.currentPage).iterator(pred, fields, outTd);
 							return this.hasNext();
 						}
 					}
@@ -242,8 +543,8 @@ public class HeapFile implements DbFile {
 				int tableId = HeapFile.this.getId();
 				this.currentPageNo = 0;
 				this.currentPageId = new HeapPageId(tableId, this.currentPageNo);
-				this.currentPage = Database.getBufferPool().getPage(tid, this.currentPageId, null);
-				this.tuples = ((HeapPage) this.currentPage).iterator();
+				this.currentPage = Database.getBufferPool().getPage(tid, this.currentPageId, Permissions.READ_ONLY);
+				this.tuples = ((HeapPage) this.currentPage).iterator(pred, fields, outTd);
 			}
 
 			@Override
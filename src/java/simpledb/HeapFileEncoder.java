@@ -2,6 +2,12 @@ package simpledb;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -77,6 +83,19 @@ public class HeapFileEncoder {
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
+    * <p>
+    * The input is streamed: it is cut into chunks of about
+    * {@link #CHUNK_BYTES} bytes at line boundaries, the chunks are parsed
+    * and encoded in parallel on a fork-join pool, and the encoded records
+    * are packed into pages and written in input order.  At most
+    * {@link #MAX_CHUNKS_PER_THREAD} chunks per thread are in memory at once,
+    * so memory use does not depend on the size of the input.  It does grow
+    * with the number of processors: up to processors *
+    * MAX_CHUNKS_PER_THREAD chunks are held together with their encoded
+    * records, which can be much larger than the input.  A short string
+    * field is padded to {@link Type#STRING_LEN} bytes plus its length, so a
+    * chunk of short strings can encode to some 60 times its size.  The input
+    * is read as single-byte characters; blank lines and '\r' are ignored.
     *
     * @see HeapPage
     * @see HeapFile
@@ -90,6 +109,19 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              CHUNK_BYTES, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Like {@link #convert(File, File, int, int, Type[], char)}, with the
+   * input cut into chunks of about chunkBytes bytes and encoded on the
+   * given number of threads.  For tests.
+   */
+  static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 int chunkBytes, int threads)
+      throws IOException {
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -102,125 +134,220 @@ public class HeapFileEncoder {
     int nheaderbytes = (nrecords / 8);
     if (nheaderbytes * 8 < nrecords)
         nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
+
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    LinkedList<Future<EncodedChunk>> inFlight = new LinkedList<Future<EncodedChunk>>();
+    PageWriter writer = new PageWriter(outFile, npagebytes, nrecbytes, nrecords, nheaderbytes);
+    InputStream is = new FileInputStream(inFile);
+    try {
+        byte[] carry = new byte[0]; // Partial last line of the previous chunk.
+        boolean eof = false;
+        while (!eof) {
+            byte[] chunk = new byte[Math.max(chunkBytes, carry.length * 2)];
+            System.arraycopy(carry, 0, chunk, 0, carry.length);
+            int len = carry.length;
+            while (len < chunk.length) {
+                int n = is.read(chunk, len, chunk.length - len);
+                if (n < 0) {
+                    eof = true;
+                    break;
                 }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
+                len += n;
             }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
+
+            // Hand over everything up to the last complete line; at the end
+            // of the input the last line needs no terminator.
+            int end = len;
+            if (!eof) {
+                while (end > 0 && chunk[end - 1] != '\n')
+                    end--;
             }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
+            carry = new byte[len - end];
+            System.arraycopy(chunk, end, carry, 0, carry.length);
+            if (end == 0)
+                continue; // A line longer than the chunk; read more of it.
+
+            inFlight.add(pool.submit(new ChunkEncoder(chunk, end, nrecbytes, typeAr, fieldSeparator)));
+            if (inFlight.size() >= threads * MAX_CHUNKS_PER_THREAD)
+                writer.write(await(inFlight.removeFirst()));
         }
+        while (!inFlight.isEmpty())
+            writer.write(await(inFlight.removeFirst()));
+        writer.finish();
+    } finally {
+        for (Future<EncodedChunk> f : inFlight)
+            f.cancel(true);
+        pool.shutdown();
+        is.close();
+        writer.close();
     }
-    br.close();
-    os.close();
+  }
+
+  /** Approximate number of input bytes parsed by one task. */
+  public static final int CHUNK_BYTES = 1 << 22;
+
+  /** Number of chunks per worker thread that may be in memory at once. */
+  public static final int MAX_CHUNKS_PER_THREAD = 2;
+
+  private static EncodedChunk await(Future<EncodedChunk> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          throw new IOException("interrupted while encoding: " + e);
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException)
+              throw (IOException) e.getCause();
+          throw new IOException("failed to encode input: " + e.getCause());
+      }
+  }
+
+  /** The records of one chunk, serialized back to back. */
+  private static class EncodedChunk {
+      final byte[] records;
+      final int count;
+
+      EncodedChunk(byte[] records, int count) {
+          this.records = records;
+          this.count = count;
+      }
+  }
+
+  /** Parses the lines of one chunk into fixed-size records. */
+  private static class ChunkEncoder implements Callable<EncodedChunk> {
+      private final byte[] in;
+      private final int len;
+      private final int nrecbytes;
+      private final Type[] typeAr;
+      private final char fieldSeparator;
+
+      ChunkEncoder(byte[] in, int len, int nrecbytes, Type[] typeAr, char fieldSeparator) {
+          this.in = in;
+          this.len = len;
+          this.nrecbytes = nrecbytes;
+          this.typeAr = typeAr;
+          this.fieldSeparator = fieldSeparator;
+      }
+
+      public EncodedChunk call() throws IOException {
+          ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+          DataOutputStream out = new DataOutputStream(baos);
+          int count = 0;
+          int lineStart = 0;
+          while (lineStart < len) {
+              int lineEnd = lineStart;
+              while (lineEnd < len && in[lineEnd] != '\n')
+                  lineEnd++;
+              if (encodeLine(lineStart, lineEnd, out))
+                  count++;
+              lineStart = lineEnd + 1;
+          }
+          out.flush();
+          return new EncodedChunk(baos.toByteArray(), count);
+      }
+
+      // Returns false for a blank line, which produces no record.
+      private boolean encodeLine(int start, int end, DataOutputStream out) throws IOException {
+          StringBuilder field = new StringBuilder();
+          int fieldNo = 0;
+          boolean blank = true;
+          for (int i = start; i <= end; i++) {
+              char c = i < end ? (char) (in[i] & 0xff) : '\n';
+              if (c == '\r')
+                  continue;
+              if (c != '\n')
+                  blank = false;
+              if (c != fieldSeparator && c != '\n') {
+                  field.append(c);
+                  continue;
+              }
+              if (c == '\n' && blank)
+                  return false;
+              if (fieldNo >= typeAr.length)
+                  throw new IOException("Too many fields in line: " + line(start, end));
+              encodeField(typeAr[fieldNo++], field.toString(), out);
+              field.setLength(0);
+          }
+          if (fieldNo != typeAr.length)
+              throw new IOException("Too few fields in line: " + line(start, end));
+          return true;
+      }
+
+      private String line(int start, int end) {
+          return new String(in, start, end - start).trim();
+      }
+
+      private void encodeField(Type type, String s, DataOutputStream out) throws IOException {
+          if (type == Type.INT_TYPE) {
+              int v = 0;
+              try {
+                  v = Integer.parseInt(s.trim());
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + s);
+              }
+              out.writeInt(v);
+          } else if (type == Type.STRING_TYPE) {
+              s = s.trim();
+              int overflow = Type.STRING_LEN - s.length();
+              if (overflow < 0) {
+                  String news = s.substring(0,Type.STRING_LEN);
+                  s  = news;
+              }
+              out.writeInt(s.length());
+              out.writeBytes(s);
+              while (overflow-- > 0)
+                  out.write((byte)0);
+          }
+      }
+  }
+
+  /** Packs records into pages and writes them in order. */
+  private static class PageWriter {
+      private final OutputStream os;
+      private final int npagebytes, nrecbytes, nrecords, nheaderbytes;
+      private byte[] page;
+      private int recordcount = 0;
+      private int npages = 0;
+
+      PageWriter(File outFile, int npagebytes, int nrecbytes, int nrecords, int nheaderbytes)
+              throws IOException {
+          this.os = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 20);
+          this.npagebytes = npagebytes;
+          this.nrecbytes = nrecbytes;
+          this.nrecords = nrecords;
+          this.nheaderbytes = nheaderbytes;
+          this.page = new byte[npagebytes];
+      }
+
+      void write(EncodedChunk chunk) throws IOException {
+          for (int r = 0; r < chunk.count; r++) {
+              // in the header, write a 1 for bits that correspond to records
+              // we've written and 0 for empty slots.
+              page[recordcount / 8] |= (byte) (1 << (recordcount % 8));
+              System.arraycopy(chunk.records, r * nrecbytes, page,
+                      nheaderbytes + recordcount * nrecbytes, nrecbytes);
+              if (++recordcount >= nrecords)
+                  flushPage();
+          }
+      }
+
+      // when we're done, also flush the page to disk, but only if it has
+      // records on it.  however, if this file is empty, do flush an empty
+      // page to disk.
+      void finish() throws IOException {
+          if (recordcount > 0 || npages == 0)
+              flushPage();
+          os.flush();
+      }
+
+      void close() throws IOException {
+          os.close();
+      }
+
+      private void flushPage() throws IOException {
+          os.write(page);
+          Arrays.fill(page, (byte) 0);
+          recordcount = 0;
+          npages++;
+      }
   }
 }
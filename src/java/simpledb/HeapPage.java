@@ -3,6 +3,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -17,9 +18,15 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
+    final Tuple tuples[]; // Tuples inserted since the page was read; null elsewhere.
     final int numSlots;
 
+    // The page as it was read.  Never written to: used slots whose entry in
+    // tuples[] is null are decoded from here on demand.  Replaced by a copy
+    // with the same contents when detach() is called.
+    volatile ByteBuffer data;
+    final int fieldOffsets[]; // Offset of each field within a tuple.
+
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -43,37 +50,50 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from a buffer holding the page in the on-disk format
+     * described in {@link #HeapPage(HeapPageId, byte[])}, starting at
+     * position 0 of the buffer.
+     * <p>
+     * The page keeps the buffer (or the array passed to the other
+     * constructor) and decodes tuples from it lazily, so nothing may modify
+     * it afterwards.  The page itself never writes to it.  A view of a
+     * memory-mapped file is allowed only if whoever writes that page of the
+     * file calls {@link #detach} first.
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
         tid = null;
         dirty = false;
-        
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
-        // allocate and read the header slots of this page
+        if (data.limit() < BufferPool.getPageSize())
+            throw new IOException("HeapPage: short page data");
+
+        // allocate and read the header slots of this page; the records
+        // themselves are only decoded when they are asked for.
         header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
+            header[i] = data.get(i);
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch(NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        this.data = data;
+        fieldOffsets = new int[td.numFields()];
+        for (int j=0; j<fieldOffsets.length; j++)
+            fieldOffsets[j] = td.getFieldOffset(j);
 
-        setBeforeImage();
+        // The before image is taken lazily, right before the first change.
+        oldData = null;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
-
+        return numSlots(td);
     }
 
     /**
@@ -81,8 +101,51 @@ public class HeapPage implements Page {
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
     private int getHeaderSize() {        
-        return (int) Math.ceil( (double) this.getNumTuples() / 8);
-                 
+        return headerSize(td);
+    }
+
+    /**
+     * @return the number of tuple slots on a page of a table with schema td.
+     */
+    static int numSlots(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /**
+     * @return the number of header bytes on a page of a table with schema td.
+     */
+    static int headerSize(TupleDesc td) {
+        return (int) Math.ceil( (double) numSlots(td) / 8);
+    }
+
+    /**
+     * @return true if the page header has at least one of its first
+     *         numSlots bits clear, i.e. the page has an empty slot.
+     */
+    static boolean hasEmptySlot(byte[] header, int numSlots) {
+        for (int i = 0; i < numSlots; i++) {
+            if ((header[i / 8] & (1 << (i % 8))) == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tell the free space map of the table, if it has one, whether this page
+     * still has an empty slot.  Called after every change to the page, and
+     * by the BufferPool when it sets a page back to its before image.
+     */
+    void updateFreeSpaceMap() {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).getFreeSpaceMap().setFree(pid.pageNumber(), getNumEmptySlots() > 0);
+        }
     }
     
     /** Return a view of this page before it was modified
@@ -94,6 +157,11 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
+            if (oldDataRef == null)
+            {
+                // Not modified since it was read: the page is its own before image.
+                oldDataRef = getPageData();
+            }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
@@ -110,6 +178,34 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * Capture the before image if it has not been taken yet.  Must be called
+     * before any change to the contents of this page.
+     */
+    private void ensureBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+    }
+
+    /**
+     * Gives this page its own copy of the bytes it decodes tuples from, if
+     * it still reads them from a view of a memory-mapped file.  The file
+     * calls this before it writes the page over.
+     */
+    void detach() {
+        ByteBuffer d = this.data;
+        if (!d.isDirect())
+            return;
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        d = d.duplicate();
+        d.clear();
+        d.get(copy);
+        this.data = ByteBuffer.wrap(copy);
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -117,40 +213,182 @@ public class HeapPage implements Page {
     	return this.pid;
     }
 
+    // Offset of the first byte of slot slotId in the page.
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * Suck up the tuple in slot slotId.
+     * @return the tuple, or null if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    Tuple getTuple(int slotId) throws NoSuchElementException {
+        // if associated bit is not set, return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
             return null;
         }
+        if (tuples[slotId] != null) {
+            return tuples[slotId];
+        }
 
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        int offset = slotOffset(slotId);
+        ByteBuffer data = this.data;
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                t.readField(j, data, offset + fieldOffsets[j]);
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+        return t;
+    }
 
+    /**
+     * Suck up some of the fields of the tuple in slot slotId.
+     *
+     * @param fields
+     *            the fields of the tuple to read, in order, or null for all
+     * @param outTd
+     *            the schema of those fields
+     * @return a tuple of schema outTd, or null if the slot is empty.
+     */
+    Tuple getTuple(int slotId, int[] fields, TupleDesc outTd)
+            throws NoSuchElementException {
+        if (fields == null || !isSlotUsed(slotId)) {
+            return getTuple(slotId);
+        }
+        Tuple t = new Tuple(outTd);
+        t.setRecordId(new RecordId(pid, slotId));
+        if (tuples[slotId] != null) {
+            for (int k = 0; k < fields.length; k++) {
+                if (outTd.getFieldType(k) == Type.INT_TYPE)
+                    t.setInt(k, tuples[slotId].getInt(fields[k]));
+                else
+                    t.setString(k, tuples[slotId].getString(fields[k]));
+            }
+            return t;
+        }
+        int offset = slotOffset(slotId);
+        ByteBuffer data = this.data;
+        try {
+            for (int k = 0; k < fields.length; k++) {
+                t.readField(k, data, offset + fieldOffsets[fields[k]]);
+            }
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
         return t;
     }
 
+    /**
+     * @return true if the tuple in used slot slotId passes pred, which is
+     *         tested on the page bytes unless the tuple was inserted since
+     *         the page was read; a null pred passes every tuple.
+     */
+    boolean passes(int slotId, PredicateEvaluator pred) {
+        if (pred == null)
+            return true;
+        if (tuples[slotId] != null)
+            return pred.eval(tuples[slotId]);
+        return pred.eval(data, slotOffset(slotId), fieldOffsets);
+    }
+
+    /**
+     * Decodes the string field stored at offset off of a page.  Strings are
+     * stored as their length followed by one byte per char.
+     */
+    static String readString(ByteBuffer data, int off) {
+        int len = Math.max(0, Math.min(Type.STRING_LEN, data.getInt(off)));
+        char[] cs = new char[len];
+        for (int k = 0; k < len; k++)
+            cs[k] = (char) (data.get(off + 4 + k) & 0xff);
+        return new String(cs);
+    }
+
+    /**
+     * Appends the tuples in the used slots from slot from onwards to a batch
+     * of the same schema, until the batch is full, decoding the fields
+     * straight into its columns.
+     *
+     * @return the slot to continue from; numSlots once the page is done.
+     */
+    int fillBatch(TupleBatch batch, int from) {
+        return fillBatch(batch, from, null, null);
+    }
+
+    /**
+     * Appends some of the fields of the tuples in the used slots from slot
+     * from onwards that pass a predicate to a batch, until the batch is full.
+     * The predicate is tested on the page bytes, and only the fields of the
+     * tuples that pass are decoded.
+     *
+     * @param pred
+     *            the predicate, over the schema of this page, or null
+     * @param fields
+     *            the fields that make up the rows of the batch, in order, or
+     *            null for all
+     * @return the slot to continue from; numSlots once the page is done.
+     */
+    int fillBatch(TupleBatch batch, int from, PredicateEvaluator pred, int[] fields) {
+        int n = batch.ints.length;
+        ByteBuffer data = this.data;
+        int s = from;
+        for (; s < numSlots && !batch.isFull(); s++) {
+            if (!isSlotUsed(s) || !passes(s, pred))
+                continue;
+            int row = batch.addRow();
+            if (tuples[s] != null) {
+                for (int k = 0; k < n; k++) {
+                    int j = fields == null ? k : fields[k];
+                    if (batch.ints[k] != null)
+                        batch.ints[k][row] = tuples[s].getInt(j);
+                    else
+                        batch.strings[k][row] = tuples[s].getString(j);
+                }
+                continue;
+            }
+            int offset = slotOffset(s);
+            for (int k = 0; k < n; k++) {
+                int off = offset + fieldOffsets[fields == null ? k : fields[k]];
+                if (batch.ints[k] != null)
+                    batch.ints[k][row] = data.getInt(off);
+                else
+                    batch.strings[k][row] = readString(data, off);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Decode a single field of the tuple in a used slot, without building
+     * the rest of the tuple.
+     *
+     * @param slotId the slot of the tuple; must be in use.
+     * @param fieldNo the index of the field in the TupleDesc of the page.
+     * @throws NoSuchElementException if the slot is empty or the field
+     *         cannot be parsed.
+     */
+    public Field getField(int slotId, int fieldNo) throws NoSuchElementException {
+        if (!isSlotUsed(slotId)) {
+            throw new NoSuchElementException("HeapPage: slot " + slotId + " is empty");
+        }
+        if (tuples[slotId] != null) {
+            return tuples[slotId].getField(fieldNo);
+        }
+        try {
+            return td.getFieldType(fieldNo).parse(data, slotOffset(slotId) + fieldOffsets[fieldNo]);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -178,17 +416,29 @@ public class HeapPage implements Page {
         }
 
         // create the tuples
+        ByteBuffer raw = data.duplicate();
+        byte[] slot = new byte[td.getSize()];
+        byte[] emptySlot = new byte[slot.length];
         for (int i=0; i<tuples.length; i++) {
 
             // empty slot
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                try {
+                    dos.write(emptySlot);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
 
+            // non-empty slot that still holds the bytes it was read with
+            if (tuples[i] == null) {
+                raw.position(slotOffset(i));
+                raw.get(slot);
+                try {
+                    dos.write(slot);
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
                 continue;
             }
@@ -223,6 +473,107 @@ public class HeapPage implements Page {
         return baos.toByteArray();
     }
 
+    /**
+     * Encodes the changes from a before image of this page to this page,
+     * slot by slot, for a physiological log record.  For each slot that
+     * changed, the delta holds its number (a short), a byte whose bit 0 says
+     * whether the slot was used before and bit 1 whether it is used now, and
+     * the tuple bytes of the slot before and now, where used.  Inserting,
+     * deleting or updating a tuple thus costs a few bytes more than the
+     * tuple, instead of two page images.
+     *
+     * @param before the before image of this page
+     * @return the encoded changes, empty if there are none, or null if they
+     *         would be no smaller than the two page images
+     */
+    public byte[] getDelta(HeapPage before) {
+        byte[] old = before.getPageData();
+        byte[] now = getPageData();
+        int size = td.getSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int i=0; i<numSlots; i++) {
+                boolean wasUsed = isSlotUsed(old, i);
+                boolean isUsed = isSlotUsed(now, i);
+                int off = header.length + i * size;
+                if (wasUsed == isUsed && (!isUsed || equalRange(old, now, off, size)))
+                    continue;
+                dos.writeShort(i);
+                dos.writeByte((wasUsed ? 1 : 0) | (isUsed ? 2 : 0));
+                if (wasUsed)
+                    dos.write(old, off, size);
+                if (isUsed)
+                    dos.write(now, off, size);
+                if (dos.size() >= 2 * old.length)
+                    return null;
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // cannot happen on a ByteArrayOutputStream
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    /**
+     * Applies changes encoded by {@link #getDelta} to this page.  With redo,
+     * each changed slot is set to its state after the changes, otherwise to
+     * its state before them.  Slots are set rather than inserted into or
+     * deleted from, so applying a delta to a page that already reflects it
+     * is harmless.
+     *
+     * @throws IOException if the delta is malformed
+     */
+    public void applyDelta(byte[] delta, boolean redo) throws IOException {
+        int size = td.getSize();
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        try {
+            while (in.hasRemaining()) {
+                int i = in.getShort() & 0xffff;
+                int flags = in.get();
+                boolean wasUsed = (flags & 1) != 0;
+                boolean isUsed = (flags & 2) != 0;
+                if (i >= numSlots)
+                    throw new IOException("HeapPage: bad slot " + i + " in delta");
+                int before = in.position();
+                int after = before + (wasUsed ? size : 0);
+                in.position(after + (isUsed ? size : 0));
+                ensureBeforeImage();
+                if (redo ? isUsed : wasUsed) {
+                    Tuple t = new Tuple(td);
+                    t.setRecordId(new RecordId(pid, i));
+                    for (int j=0; j<td.numFields(); j++)
+                        t.readField(j, in, (redo ? after : before) + fieldOffsets[j]);
+                    tuples[i] = t;
+                    markSlotUsed(i, true);
+                } else {
+                    tuples[i] = null;
+                    markSlotUsed(i, false);
+                }
+            }
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException("HeapPage: truncated delta");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("HeapPage: truncated delta");
+        } catch (java.text.ParseException e) {
+            throw new IOException("HeapPage: bad tuple in delta");
+        }
+        updateFreeSpaceMap();
+    }
+
+    // Whether slot i is used in page data with a header laid out like ours.
+    private static boolean isSlotUsed(byte[] data, int i) {
+        return (data[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private static boolean equalRange(byte[] a, byte[] b, int off, int len) {
+        for (int k = off; k < off + len; k++)
+            if (a[k] != b[k])
+                return false;
+        return true;
+    }
+
     /**
      * Static method to generate a byte array corresponding to an empty
      * HeapPage.
@@ -247,12 +598,16 @@ public class HeapPage implements Page {
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-    	for (int i = 0; i < this.tuples.length; i++) {
-    		if (this.tuples[i] != null && this.tuples[i].equals(t)) {
+    	RecordId rid = t.getRecordId();
+    	if (rid != null && this.pid.equals(rid.getPageId())) {
+    		int i = rid.tupleno();
+    		if (i >= 0 && i < this.numSlots && this.isSlotUsed(i)) {
+    			ensureBeforeImage();
     			this.tuples[i] = null;
     			this.markDirty(true, null);
     			this.markSlotUsed(i, false);
     			t.setRecordId(null);
+    			updateFreeSpaceMap();
     			return;
     		}
     	}
@@ -277,6 +632,7 @@ public class HeapPage implements Page {
     	
     	for (int i = 0; i < this.numSlots; i++) {
     		if (!isSlotUsed(i)) {
+    			ensureBeforeImage();
     			t.setRecordId(new RecordId(this.pid, i));
     			this.tuples[i] = t;
     			this.markDirty(true, tid);
@@ -284,6 +640,35 @@ public class HeapPage implements Page {
     			break;
     		}
     	}
+    	updateFreeSpaceMap();
+    }
+
+    /**
+     * Adds tuples of an iterator to the empty slots of the page, in slot
+     * order, until the page is full or the iterator is exhausted.  Each
+     * tuple is updated to reflect that it is now stored on this page.
+     * @return the number of tuples added.
+     * @throws DbException if a tuple does not match the schema of the page.
+     */
+    int insertTuples(DbIterator it) throws DbException, TransactionAbortedException {
+    	int count = 0;
+    	for (int i = 0; i < this.numSlots && it.hasNext(); i++) {
+    		if (isSlotUsed(i))
+    			continue;
+    		Tuple t = it.next();
+    		if (!this.td.equals(t.getTupleDesc()))
+    			throw new DbException("HeapPage: insert error");
+    		ensureBeforeImage();
+    		t.setRecordId(new RecordId(this.pid, i));
+    		this.tuples[i] = t;
+    		this.markSlotUsed(i, true);
+    		count++;
+    	}
+    	if (count > 0) {
+    		this.markDirty(true, tid);
+    		updateFreeSpaceMap();
+    	}
+    	return count;
     }
 
     /**
@@ -366,16 +751,34 @@ public class HeapPage implements Page {
      * (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-		// Anonymous iterator.
+        return iterator(null, null, null);
+    }
+
+    /**
+     * @param pred
+     *            the predicate tuples must pass, over the schema of this
+     *            page, or null
+     * @param fields
+     *            the fields of the tuples to return, in order, or null for
+     *            all
+     * @param outTd
+     *            the schema of those fields
+     * @return an iterator over the tuples on this page that pass pred, each
+     *         holding only the given fields; tuples that do not pass are
+     *         never decoded.
+     */
+    Iterator<Tuple> iterator(final PredicateEvaluator pred, final int[] fields,
+            final TupleDesc outTd) {
+		// Anonymous iterator; tuples are decoded as it reaches them.
         return new Iterator<Tuple>() {
 
-        	private int lastPtr = -1;
         	private int ptr = 0;
         	
 			@Override
 			public boolean hasNext() {
 				for (;this.ptr < HeapPage.this.numSlots; this.ptr++) {
-					if (HeapPage.this.tuples[this.ptr] != null) {
+					if (HeapPage.this.isSlotUsed(this.ptr)
+							&& HeapPage.this.passes(this.ptr, pred)) {
 						return true;
 					}
 				}
@@ -384,25 +787,17 @@ public class HeapPage implements Page {
 
 			@Override
 			public Tuple next() {
-				this.lastPtr = this.ptr;
-				for (;this.ptr < HeapPage.this.numSlots; this.ptr++) {
-					if (HeapPage.this.tuples[this.ptr] != null) {
-						return HeapPage.this.tuples[this.ptr++];
-					}
+				if (!this.hasNext()) {
+					throw new NoSuchElementException();
 				}
-				return null;
+				return HeapPage.this.getTuple(this.ptr++, fields, outTd);
 			}
 
 			@Override
 			public void remove() {
-				if (this.lastPtr >= 0) {
-					HeapPage.this.tuples[this.lastPtr] = null;
-				}
-				
+				throw new UnsupportedOperationException("HeapPage: iterator is read-only");
 			}
         	
         };
     }
-
 }
-
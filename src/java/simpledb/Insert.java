@@ -1,7 +1,6 @@
 package simpledb;
 
 import java.io.IOException;
-import java.util.NoSuchElementException;
 
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
@@ -75,7 +74,9 @@ public class Insert extends Operator {
     /**
      * Inserts tuples read from child into the tableid specified by the
      * constructor. It returns a one field tuple containing the number of
-     * inserted records. Inserts should be passed through BufferPool. An
+     * inserted records. Inserts should be passed through BufferPool, which
+     * lets the table fill new pages a page at a time once its pages are
+     * full. An
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
@@ -83,22 +84,16 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        while (this.child.hasNext()) {
-        	try {
-				Database.getBufferPool().insertTuple(this.t, this.tid, this.child.next());
-				this.count++;
-			} catch (NoSuchElementException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-        	
+        // Hand the whole child to the table, so that it can fill new pages
+        // a page at a time once its existing pages are full.
+        try {
+        	this.count += Database.getBufferPool().insertTuples(this.t, this.tid, this.child);
+        } catch (IOException e) {
+        	e.printStackTrace();
         }
         
         if (this.valid == true) {
@@ -4,11 +4,18 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loops join: the tuples of a block of outer pages are
+ * buffered in memory, and the inner relation is scanned once per block
+ * rather than once per outer tuple.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Number of outer pages buffered per block unless told otherwise. */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -25,16 +32,35 @@ public class Join extends Operator {
     JoinPredicate joinPredicate;
     DbIterator child1;
     DbIterator child2;
-    Tuple left;
     Tuple right;
     DbIterator[] children;
+    int blockPages;
+    
+    // The current block of outer tuples, and the position within it that
+    // the current inner tuple is matched against.
+    transient ArrayList<Tuple> block;
+    transient int blockPos;
+    transient boolean innerFresh;
     
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+    	this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor with an explicit block size.
+     * 
+     * @param blockPages
+     *            The number of pages of outer tuples to buffer per scan of
+     *            the inner relation
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
         // some code goes here
+    	if (blockPages < 1)
+    		throw new IllegalArgumentException("blockPages must be positive");
     	this.joinPredicate = p;
     	this.child1 = child1;
     	this.child2 = child2;
-    	this.left = null;
+    	this.blockPages = blockPages;
     	this.right = null;
     	
     	this.children = new DbIterator[2];
@@ -47,6 +73,18 @@ public class Join extends Operator {
         return this.joinPredicate;
     }
 
+    public int getBlockPages() {
+        return this.blockPages;
+    }
+
+    /**
+     * @return the number of outer tuples in a block of the given number of
+     *         pages of tuples of the given schema.
+     */
+    static int blockTuples(int blockPages, TupleDesc td) {
+        return blockPages * HeapPage.numSlots(td);
+    }
+
     /**
      * @return
      *       the field name of join field1. Should be quantified by
@@ -82,6 +120,10 @@ public class Join extends Operator {
     	super.open();
     	this.child1.open();
     	this.child2.open();
+    	this.block = new ArrayList<Tuple>();
+    	this.blockPos = 0;
+    	this.innerFresh = true;
+    	this.right = null;
     }
 
     public void close() {
@@ -89,13 +131,17 @@ public class Join extends Operator {
     	super.close();
     	this.child1.close();
     	this.child2.close();
+    	this.block = null;
+    	this.right = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
     	this.child1.rewind();
     	this.child2.rewind();
-    	this.left = null;
+    	this.block.clear();
+    	this.blockPos = 0;
+    	this.innerFresh = true;
     	this.right = null;
     }
 
@@ -119,36 +165,55 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-    	
-    	// Iteration.
-    	do {
-    	if (!this.child2.hasNext()) {
-    		if (!this.child1.hasNext()) {
-    			return null;
-    		} else {
-    			this.left = child1.next();
-    			this.child2.rewind();
-    			this.right = child2.next();
-    		}
-    	} else {
-    		if (this.left == null) { // Initial case.
-    			if (this.child1.hasNext()) {
-    				this.left = this.child1.next();
-    			} else {
-    				return null;
+    	int f1 = this.joinPredicate.getField1();
+    	int f2 = this.joinPredicate.getField2();
+    	Predicate.Op op = this.joinPredicate.getOperator();
+    	while (true) {
+    		if (this.right != null) {
+    			Field rf = this.right.getField(f2);
+    			while (this.blockPos < this.block.size()) {
+    				Tuple left = this.block.get(this.blockPos++);
+    				if (left.getField(f1).compare(op, rf))
+    					return merge(left, this.right);
     			}
     		}
-    		this.right = child2.next();
+    		// This inner tuple has met the whole block; move to the next one.
+    		this.blockPos = 0;
+    		if (!this.block.isEmpty() && this.child2.hasNext()) {
+    			this.right = this.child2.next();
+    			continue;
+    		}
+    		// The inner relation is exhausted for this block; read the next
+    		// block of outer tuples and start a new scan of the inner one.
+    		this.right = null;
+    		if (!nextBlock())
+    			return null;
     	}
-    	} while (!this.left.getField(this.joinPredicate.getField1()).compare(this.joinPredicate.operator, this.right.getField(this.joinPredicate.getField2())));
-    	
+    }
+
+    // Fills the block with the next outer tuples and rewinds the inner
+    // relation. Returns false when the outer relation is exhausted.
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+    	this.block.clear();
+    	int max = blockTuples(this.blockPages, this.child1.getTupleDesc());
+    	while (this.block.size() < max && this.child1.hasNext())
+    		this.block.add(this.child1.next());
+    	if (this.block.isEmpty())
+    		return false;
+    	if (!this.innerFresh)
+    		this.child2.rewind();
+    	this.innerFresh = false;
+    	return true;
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
     	Tuple retval = new Tuple(this.getTupleDesc());
     	int newTupleFieldPtr = 0;
-    	for (int i = 0; i < this.left.getTupleDesc().numFields(); i++, newTupleFieldPtr++) {
-    		retval.setField(newTupleFieldPtr, this.left.getField(i));
+    	for (int i = 0; i < left.getTupleDesc().numFields(); i++, newTupleFieldPtr++) {
+    		retval.setField(newTupleFieldPtr, left.getField(i));
     	}
-    	for (int i = 0; i < this.right.getTupleDesc().numFields(); i++, newTupleFieldPtr++) {
-    		retval.setField(newTupleFieldPtr, this.right.getField(i));
+    	for (int i = 0; i < right.getTupleDesc().numFields(); i++, newTupleFieldPtr++) {
+    		retval.setField(newTupleFieldPtr, right.getField(i));
     	}
         return retval;
     }
@@ -68,7 +68,10 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.sortMerge)
+            j = new SortMergeJoin(p,plan1,plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
@@ -108,10 +111,68 @@ public class JoinOptimizer {
             return card1 + cost1 + cost2;
         } else {
             // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
-            return (double) (cost1 + card1 * cost2 + card1 * card2);
+            return Math.min(estimateNestedLoopJoinCost(j, card1, card2, cost1, cost2),
+                    estimateSortMergeJoinCost(j, card1, card2, cost1, cost2));
+        }
+    }
+
+    /**
+     * Estimate the cost of a join run as a Join. Join is a block nested-loops
+     * join: the inner side is scanned once per block of outer tuples, and
+     * every pair is compared.
+     * 
+     * @see #estimateJoinCost
+     */
+    public double estimateNestedLoopJoinCost(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        double blocks = Math.ceil((double) card1 / outerBlockTuples(j));
+        return cost1 + blocks * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * Estimate the cost of a join run as a SortMergeJoin: both sides are
+     * scanned once and sorted, and then merged, which costs one comparison
+     * per input tuple and one per output tuple. Only range predicates are
+     * considered for a SortMergeJoin; for them every output tuple would
+     * otherwise cost a nested-loops comparison of its own. Returns
+     * infinity for other predicates.
+     * 
+     * @see #estimateJoinCost
+     */
+    public double estimateSortMergeJoinCost(LogicalJoinNode j, int card1,
+            int card2, double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || !isRangeJoin(j.p))
+            return Double.POSITIVE_INFINITY;
+        int out = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias,
+                j.f1PureName, j.f2PureName, card1, card2, false, false, null,
+                null);
+        return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1
+                + card2 + out;
+    }
+
+    private static boolean isRangeJoin(Predicate.Op op) {
+        return op != Predicate.Op.EQUALS && SortMergeJoin.supports(op);
+    }
+
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * Estimate how many outer tuples Join buffers per scan of the inner
+     * relation. The outer tuples are assumed to be as wide as those of the
+     * left-hand base table; if that table is unknown, one tuple per block is
+     * assumed, i.e. a plain nested-loops join.
+     */
+    private int outerBlockTuples(LogicalJoinNode j) {
+        Integer tableId = p == null ? null : p.getTableId(j.t1Alias);
+        if (tableId == null)
+            return 1;
+        try {
+            TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+            return Join.blockTuples(Join.DEFAULT_BLOCK_PAGES, td);
+        } catch (NoSuchElementException e) {
+            return 1;
         }
     }
 
@@ -244,6 +305,12 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
+        // Nothing to order (e.g. a single-table query).  The PlanCache has
+        // no entry for the empty set, so falling through would return null
+        // and physicalPlan would fail on a plain SELECT ... ORDER BY.
+        if (joins.isEmpty())
+            return joins;
+
         // First, initialize a PlanCache
         PlanCache pc = new PlanCache();
 
@@ -407,6 +474,8 @@ public class JoinOptimizer {
 
         // case where prevbest is left
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        boolean sortMerge = estimateSortMergeJoinCost(j, t1card, t2card,
+                t1cost, t2cost) <= cost1;
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
@@ -414,6 +483,8 @@ public class JoinOptimizer {
             boolean tmp;
             j = j2;
             cost1 = cost2;
+            sortMerge = estimateSortMergeJoinCost(j2, t2card, t1card, t2cost,
+                    t1cost) <= cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
@@ -427,7 +498,8 @@ public class JoinOptimizer {
                 rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        // j may be shared with other subplans, so mark a copy
+        cc.plan.addElement(sortMerge ? j.asSortMerge() : j); // prevbest is left -- add new join to end
         return cc;
     }
 
@@ -0,0 +1,242 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * LockManager grants page-level locks to transactions for the BufferPool.
+ * A page can be locked in shared mode by any number of transactions, or in
+ * exclusive mode by one; a transaction that holds the only shared lock on a
+ * page can upgrade it to an exclusive one.
+ * <p>
+ * The lock table is split into stripes by the hash of the PageId, each with
+ * its own monitor, so that transactions locking different pages do not
+ * contend.  A transaction that has to wait records the transactions it waits
+ * for in a waits-for graph; if that closes a cycle, it is aborted with a
+ * TransactionAbortedException instead of waiting.
+ */
+public class LockManager {
+
+    /** Number of stripes of the lock table. */
+    public static final int NUM_STRIPES = 64;
+
+    // The lock on one page.
+    private static class PageLock {
+        final HashSet<TransactionId> shared = new HashSet<TransactionId>();
+        TransactionId exclusive; // The holder of the exclusive lock, or null.
+
+        boolean isFree() {
+            return exclusive == null && shared.isEmpty();
+        }
+
+        boolean isExclusive(TransactionId tid) {
+            return exclusive != null && exclusive.equals(tid);
+        }
+
+        boolean canGrant(TransactionId tid, boolean write) {
+            if (exclusive != null)
+                return exclusive.equals(tid);
+            if (!write)
+                return true;
+            return shared.isEmpty() || (shared.size() == 1 && shared.contains(tid));
+        }
+
+        // The transactions tid has to wait for.
+        Set<TransactionId> blockers(TransactionId tid) {
+            HashSet<TransactionId> b = new HashSet<TransactionId>(shared);
+            if (exclusive != null)
+                b.add(exclusive);
+            b.remove(tid);
+            return b;
+        }
+    }
+
+    // A stripe of the lock table; its monitor guards its locks.
+    private static class Stripe {
+        final HashMap<PageId, PageLock> locks = new HashMap<PageId, PageLock>();
+    }
+
+    private final Stripe[] stripes;
+
+    // The pages each transaction holds a lock on.
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> held;
+
+    // The waits-for graph: the transactions each waiting transaction waits
+    // for.  Guarded by its own monitor, which may be taken while holding a
+    // stripe's, never the other way around.
+    private final HashMap<TransactionId, Set<TransactionId>> waitsFor;
+
+    public LockManager() {
+        this.stripes = new Stripe[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; i++)
+            this.stripes[i] = new Stripe();
+        this.held = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        this.waitsFor = new HashMap<TransactionId, Set<TransactionId>>();
+    }
+
+    private Stripe stripe(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return this.stripes[(h & 0x7fffffff) % NUM_STRIPES];
+    }
+
+    /**
+     * Acquires a lock on a page, blocking until it can be granted.  Asking
+     * for a lock the transaction already holds, or a shared lock on a page it
+     * holds exclusively, returns at once.
+     *
+     * @param tid the transaction asking for the lock
+     * @param pid the page to lock
+     * @param write true for an exclusive lock, false for a shared one
+     * @throws TransactionAbortedException if waiting for the lock would
+     *         deadlock, or the thread is interrupted while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, boolean write)
+            throws TransactionAbortedException {
+        Stripe s = stripe(pid);
+        synchronized (s) {
+            PageLock l = s.locks.get(pid);
+            if (l == null) {
+                l = new PageLock();
+                s.locks.put(pid, l);
+            }
+            boolean waited = false;
+            while (!l.canGrant(tid, write)) {
+                waited = true;
+                synchronized (this.waitsFor) {
+                    this.waitsFor.put(tid, l.blockers(tid));
+                    if (reaches(tid, tid)) {
+                        this.waitsFor.remove(tid);
+                        throw new TransactionAbortedException();
+                    }
+                }
+                try {
+                    s.wait();
+                } catch (InterruptedException e) {
+                    synchronized (this.waitsFor) {
+                        this.waitsFor.remove(tid);
+                    }
+                    throw new TransactionAbortedException();
+                }
+                // The lock may have been freed and dropped while waiting.
+                PageLock now = s.locks.get(pid);
+                if (now == null) {
+                    s.locks.put(pid, l);
+                } else {
+                    l = now;
+                }
+            }
+            if (waited) {
+                synchronized (this.waitsFor) {
+                    this.waitsFor.remove(tid);
+                }
+            }
+            if (write) {
+                l.shared.remove(tid);
+                l.exclusive = tid;
+            } else if (l.exclusive == null) {
+                l.shared.add(tid);
+            }
+        }
+        Set<PageId> pages = this.held.get(tid);
+        if (pages == null) {
+            pages = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            Set<PageId> had = this.held.putIfAbsent(tid, pages);
+            if (had != null)
+                pages = had;
+        }
+        pages.add(pid);
+    }
+
+    // Whether to is reachable from the transactions from waits for.  Caller
+    // holds the monitor of waitsFor.
+    private boolean reaches(TransactionId from, TransactionId to) {
+        HashSet<TransactionId> seen = new HashSet<TransactionId>();
+        ArrayList<TransactionId> stack = new ArrayList<TransactionId>();
+        stack.add(from);
+        while (!stack.isEmpty()) {
+            Set<TransactionId> next = this.waitsFor.get(stack.remove(stack.size() - 1));
+            if (next == null)
+                continue;
+            for (TransactionId t : next) {
+                if (t.equals(to))
+                    return true;
+                if (seen.add(t))
+                    stack.add(t);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Releases the lock a transaction holds on a page, if any, and wakes up
+     * the transactions waiting for it.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pages = this.held.get(tid);
+        if (pages != null)
+            pages.remove(pid);
+        unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        Stripe s = stripe(pid);
+        synchronized (s) {
+            PageLock l = s.locks.get(pid);
+            if (l == null)
+                return;
+            if (l.isExclusive(tid))
+                l.exclusive = null;
+            l.shared.remove(tid);
+            if (l.isFree())
+                s.locks.remove(pid);
+            s.notifyAll();
+        }
+    }
+
+    /**
+     * Releases all the locks a transaction holds.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pages = this.held.remove(tid);
+        if (pages == null)
+            return;
+        for (PageId pid : pages)
+            unlock(tid, pid);
+    }
+
+    /**
+     * @return true if the transaction holds a lock on the page, in either
+     *         mode.
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Stripe s = stripe(pid);
+        synchronized (s) {
+            PageLock l = s.locks.get(pid);
+            return l != null && (l.isExclusive(tid) || l.shared.contains(tid));
+        }
+    }
+
+    /**
+     * @return true if the transaction holds an exclusive lock on the page.
+     */
+    public boolean holdsExclusive(TransactionId tid, PageId pid) {
+        Stripe s = stripe(pid);
+        synchronized (s) {
+            PageLock l = s.locks.get(pid);
+            return l != null && l.isExclusive(tid);
+        }
+    }
+
+    /**
+     * @return the pages the transaction holds a lock on; empty if none.
+     */
+    public Set<PageId> pagesLocked(TransactionId tid) {
+        Set<PageId> pages = this.held.get(tid);
+        return pages == null ? new HashSet<PageId>() : new HashSet<PageId>(pages);
+    }
+}
@@ -2,6 +2,8 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -32,6 +34,20 @@ must not be declared synchronized and must begin with a block like:
        }
     }
 </pre>
+
+<u> Group commit: </u>
+<p>
+
+A commit record has to be on disk before the commit returns, but
+a committer only forces the log itself when it is alone: no force is in
+progress and no other thread has waited for the log lately.  Otherwise
+committers append their record and wait for a single forcer thread,
+which forces the log once for all the records appended since its last
+force and then releases every committer those records belong to.
+Neither takes the monitor of the LogFile while forcing, only to read how
+far the log goes, so committers keep appending while a force is in
+progress and are picked up by the next one.  A thread that already holds
+the monitor of the LogFile forces the log itself.
 */
 
 /**
@@ -51,8 +67,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT, and DELTA
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +77,13 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> DELTA records describe the update of a HeapPage slot by slot:
+the table id and page number of the page as two integers, then an
+integer length and that many bytes of changes, built by
+HeapPage.getDelta() and applied by HeapPage.applyDelta().  An update is
+logged as a DELTA record unless the page is not a HeapPage, or the
+changes are no smaller than the two images of an UPDATE record.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -82,6 +105,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int DELTA_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
@@ -91,6 +115,22 @@ public class LogFile {
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
+    /** Time the forcer thread waits for work before exiting, in ms. */
+    static final long FORCER_IDLE_MS = 1000;
+
+    // Group commit state, protected by forceLock.  Records are counted by
+    // totalRecords: every record up to durableRecords is on disk, and the
+    // forcer has been asked to force up to forceRequested.  forcing is set
+    // while a thread forces the log outside the monitor of this.  forceLock
+    // may be taken while holding the monitor of this, never the other way
+    // around.
+    private final Object forceLock = new Object();
+    private int durableRecords = 0;
+    private int forceRequested = 0;
+    private boolean forcing = false;
+    private Thread forcer = null;
+    private IOException forceError = null;
+
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
     /** Constructor.
@@ -140,7 +180,9 @@ public class LogFile {
     }
     
     /** Write an abort record to the log for the specified tid, force
-        the log to disk, and perform a rollback
+        the log to disk, and perform a rollback.  A transaction that
+        never logged anything has nothing to roll back, and writes no
+        abort record.
         @param tid The aborting transaction.
     */
     public void logAbort(TransactionId tid) throws IOException {
@@ -150,6 +192,8 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
 
             synchronized(this) {
+                if (!tidToFirstLogRecord.containsKey(tid.getId()))
+                    return;
                 preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
@@ -158,9 +202,7 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
+                appendRecord(ABORT_RECORD, tid.getId());
                 currentOffset = raf.getFilePointer();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
@@ -169,25 +211,34 @@ public class LogFile {
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and wait until the log is on disk.  The log is forced by the
+        forcer thread, together with the commit records of any other
+        transactions committing meanwhile.  A transaction that never
+        logged anything has nothing to make durable, and writes no
+        commit record.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        int record;
+        synchronized (this) {
+            if (!tidToFirstLogRecord.containsKey(tid.getId()))
+                return;
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+
+            appendRecord(COMMIT_RECORD, tid.getId());
+            currentOffset = raf.getFilePointer();
+            tidToFirstLogRecord.remove(tid.getId());
+            record = totalRecords;
+        }
+        waitForDurable(record);
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  The
+        update of a HeapPage is written as a DELTA record of the slots
+        that changed instead, and not written at all if none did.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -197,8 +248,18 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
+        byte[] delta = null;
+        if (before instanceof HeapPage && after instanceof HeapPage) {
+            delta = ((HeapPage) after).getDelta((HeapPage) before);
+            if (delta != null && delta.length == 0)
+                return;
+        }
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        // An update may come before any BEGIN record, e.g. from a
+        // transaction run directly against the BufferPool.
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
         /* update record conists of
 
            record type
@@ -207,18 +268,31 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                delta != null ? delta.length + 64 : 2 * BufferPool.getPageSize() + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        if (delta != null) {
+            out.writeInt(DELTA_RECORD);
+            out.writeLong(tid.getId());
+            out.writeInt(after.getId().getTableId());
+            out.writeInt(after.getId().pageNumber());
+            out.writeInt(delta.length);
+            out.write(delta);
+        } else {
+            out.writeInt(UPDATE_RECORD);
+            out.writeLong(tid.getId());
+
+            writePageData(out,before);
+            writePageData(out,after);
+        }
+        out.writeLong(currentOffset);
+        raf.write(bytes.toByteArray());
         currentOffset = raf.getFilePointer();
 
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
+    void writePageData(DataOutput raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
 
@@ -246,6 +320,18 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
+    // Appends an ABORT, COMMIT or BEGIN record in a single write: a
+    // RandomAccessFile writes each byte of an int or a long separately.
+    // Caller holds the monitor.
+    private void appendRecord(int type, long tid) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(INT_SIZE + 2 * LONG_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(type);
+        out.writeLong(tid);
+        out.writeLong(currentOffset);
+        raf.write(bytes.toByteArray());
+    }
+
     Page readPageData(RandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
@@ -265,17 +351,18 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // The page class may have other two-argument constructors.
+            Constructor<?> pageConst = pageClass.getConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
+            raf.readFully(pageData); //read before image
 
             Object[] pageArgs = new Object[2];
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -290,11 +377,42 @@ public class LogFile {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         }
         return newPage;
 
     }
 
+    // Skips the list of active transactions of a CHECKPOINT record.
+    void skipCheckpointData(RandomAccessFile raf) throws IOException {
+        int numXactions = raf.readInt();
+        raf.seek(raf.getFilePointer() + numXactions * 2 * LONG_SIZE);
+    }
+
+    // Skips the data of an UPDATE or DELTA record.
+    void skipUpdateData(RandomAccessFile raf, int type) throws IOException {
+        if (type == UPDATE_RECORD) {
+            skipPageData(raf);
+            skipPageData(raf);
+        } else {
+            raf.seek(raf.getFilePointer() + 2 * INT_SIZE);
+            int length = raf.readInt();
+            raf.seek(raf.getFilePointer() + length);
+        }
+    }
+
+    // Skips the page data written by writePageData.
+    void skipPageData(RandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        int numIdArgs = raf.readInt();
+        raf.seek(raf.getFilePointer() + numIdArgs * INT_SIZE);
+        int pageSize = raf.readInt();
+        raf.seek(raf.getFilePointer() + pageSize);
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -307,9 +425,7 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
+        appendRecord(BEGIN_RECORD, tid.getId());
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
         currentOffset = raf.getFilePointer();
 
@@ -399,6 +515,7 @@ public class LogFile {
         //have to rewrite log records since offsets are different after truncation
         while (true) {
             try {
+                long oldStart = raf.getFilePointer();
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
                 long newStart = logNew.getFilePointer();
@@ -416,6 +533,14 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case DELTA_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    byte[] delta = new byte[raf.readInt()];
+                    raf.readFully(delta);
+                    logNew.writeInt(delta.length);
+                    logNew.write(delta);
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -430,6 +555,10 @@ public class LogFile {
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
                 }
+                // The first record of a transaction may be an update.
+                Long first = tidToFirstLogRecord.get(record_tid);
+                if (first != null && first == oldStart)
+                    tidToFirstLogRecord.put(record_tid, newStart);
 
                 //all xactions finish with a pointer
                 logNew.writeLong(newStart);
@@ -442,6 +571,10 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        // Everything appended so far is in the new log; force it before it
+        // replaces the old one, so that the forcer need not.
+        logNew.getChannel().force(true);
+        logNew.close();
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
@@ -450,6 +583,7 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        markDurable(totalRecords);
         //print();
     }
 
@@ -458,8 +592,16 @@ public class LogFile {
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
+        <p>
+        The updates of the transaction are undone in reverse log order,
+        starting from the pages as the BufferPool has them, which holds
+        the committed updates of other transactions that were not
+        written out; the pages are then written to disk, and dropped
+        from the BufferPool.
 
         @param tid The transaction to rollback
+        @throws NoSuchElementException if the transaction has no log
+        records
     */
     public void rollback(TransactionId tid)
         throws NoSuchElementException, IOException {
@@ -467,7 +609,116 @@ public class LogFile {
             synchronized(this) {
                 preAppend();
                 // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+                HashSet<Long> tids = new HashSet<Long>();
+                tids.add(tid.getId());
+                raf.seek(first);
+                ArrayList<Change> changes = readChanges(currentOffset, tids);
+                raf.seek(currentOffset);
+                HashMap<PageId,Page> pages = new HashMap<PageId,Page>();
+                for (int i = changes.size() - 1; i >= 0; i--)
+                    apply(changes.get(i), false, pages);
+                installPages(pages);
+            }
+        }
+    }
+
+    // An update read back from the log: a page image of an UPDATE record,
+    // or the changes of a DELTA record.
+    private static class Change {
+        final PageId pid;
+        final Page image;
+        final byte[] delta;
+
+        Change(Page image) {
+            this.pid = image.getId();
+            this.image = image;
+            this.delta = null;
+        }
+
+        Change(PageId pid, byte[] delta) {
+            this.pid = pid;
+            this.image = null;
+            this.delta = delta;
+        }
+    }
+
+    // Reads the data of an UPDATE or DELTA record; of an UPDATE record,
+    // keeps the after image for redo and the before image otherwise.
+    private Change readChange(int type, boolean redo) throws IOException {
+        if (type == UPDATE_RECORD) {
+            if (redo) {
+                skipPageData(raf);
+                return new Change(readPageData(raf));
             }
+            Change c = new Change(readPageData(raf));
+            skipPageData(raf);
+            return c;
+        }
+        HeapPageId pid = new HeapPageId(raf.readInt(), raf.readInt());
+        byte[] delta = new byte[raf.readInt()];
+        raf.readFully(delta);
+        return new Change(pid, delta);
+    }
+
+    // Reads the updates of the given transactions from the current position
+    // up to end, in log order, for undo.  Caller holds the monitor.
+    private ArrayList<Change> readChanges(long end, Set<Long> tids)
+        throws IOException {
+        ArrayList<Change> changes = new ArrayList<Change>();
+        while (raf.getFilePointer() < end) {
+            int type = raf.readInt();
+            long record_tid = raf.readLong();
+            switch (type) {
+            case UPDATE_RECORD:
+            case DELTA_RECORD:
+                if (tids.contains(record_tid))
+                    changes.add(readChange(type, false));
+                else
+                    skipUpdateData(raf, type);
+                break;
+            case CHECKPOINT_RECORD:
+                skipCheckpointData(raf);
+                break;
+            }
+            raf.readLong();
+        }
+        return changes;
+    }
+
+    // Redoes or undoes an update on the pages being recovered.  A delta is
+    // applied in place, to a copy of the page as the BufferPool has it the
+    // first time the page is met.
+    private void apply(Change c, boolean redo, Map<PageId,Page> pages)
+        throws IOException {
+        if (c.image != null) {
+            pages.put(c.pid, c.image);
+            return;
+        }
+        Page p = pages.get(c.pid);
+        if (p == null) {
+            try {
+                p = Database.getBufferPool().getPage(null, c.pid, null);
+            } catch (DbException e) {
+                throw new IOException("cannot read page " + c.pid + ": " + e.getMessage());
+            } catch (TransactionAbortedException e) {
+                throw new IOException("cannot read page " + c.pid);
+            }
+            p = new HeapPage((HeapPageId) c.pid, p.getPageData());
+            pages.put(c.pid, p);
+        }
+        ((HeapPage) p).applyDelta(c.delta, redo);
+    }
+
+    // Writes pages to their files, and drops them from the BufferPool so
+    // that it does not keep a stale copy.
+    private void installPages(Map<PageId,Page> pages) throws IOException {
+        for (Page p : pages.values()) {
+            PageId pid = p.getId();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(p);
+            Database.getBufferPool().discardPage(pid);
         }
     }
 
@@ -488,12 +739,136 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Recovery starts at the last checkpoint, when every page was
+        on disk as logged so far.  An analysis pass finds the
+        transactions that committed, and the losers: those that were
+        active at the checkpoint or began after it, and neither
+        committed nor aborted.  The updates of committed transactions
+        are then redone in log order, and those of the losers undone in
+        reverse order, back to their first records.  A loser holds the
+        locks on the pages it updated until it ends, so nothing logged
+        after it touches them.  Both UPDATE and DELTA records set pages
+        or slots to a logged state, so redoing one that is already on
+        disk is harmless.  The
+        pages are written to disk and dropped from the BufferPool, and
+        an ABORT record is logged for each loser, so that a later
+        recovery does not undo it again.  A record torn by the crash
+        at the end of the log is discarded.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = raf.getFilePointer();
+                    return;
+                }
+
+                // analysis: the losers and their first records
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                HashMap<Long,Long> losers = new HashMap<Long,Long>();
+                HashSet<Long> committed = new HashSet<Long>();
+                long start = LONG_SIZE;
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    raf.seek(cpLoc);
+                    if (raf.readInt() != CHECKPOINT_RECORD)
+                        throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
+                    raf.readLong();
+                    int numOutstanding = raf.readInt();
+                    for (int i = 0; i < numOutstanding; i++) {
+                        long tid = raf.readLong();
+                        losers.put(tid, raf.readLong());
+                    }
+                    start = cpLoc;
+                }
+                raf.seek(start);
+                long end = start;
+                try {
+                    while (true) {
+                        long recordStart = raf.getFilePointer();
+                        int type = raf.readInt();
+                        long record_tid = raf.readLong();
+                        if (type == UPDATE_RECORD || type == DELTA_RECORD) {
+                            skipUpdateData(raf, type);
+                        } else if (type == CHECKPOINT_RECORD) {
+                            skipCheckpointData(raf);
+                        } else if (type < ABORT_RECORD || type > DELTA_RECORD) {
+                            throw new EOFException();
+                        }
+                        // every record ends with its own offset
+                        if (raf.readLong() != recordStart)
+                            throw new EOFException();
+                        end = raf.getFilePointer();
+
+                        switch (type) {
+                        case BEGIN_RECORD:
+                            losers.put(record_tid, recordStart);
+                            break;
+                        case UPDATE_RECORD:
+                        case DELTA_RECORD:
+                            if (!losers.containsKey(record_tid) && !committed.contains(record_tid))
+                                losers.put(record_tid, recordStart);
+                            break;
+                        case COMMIT_RECORD:
+                            losers.remove(record_tid);
+                            committed.add(record_tid);
+                            break;
+                        case ABORT_RECORD:
+                            losers.remove(record_tid);
+                            break;
+                        }
+                    }
+                } catch (EOFException e) {
+                    // the end of the log, or a torn record at its end
+                }
+                if (end < raf.length())
+                    raf.setLength(end);
+
+                // redo: the updates of committed transactions
+                HashMap<PageId,Page> pages = new HashMap<PageId,Page>();
+                raf.seek(start);
+                while (raf.getFilePointer() < end) {
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                    case DELTA_RECORD:
+                        if (committed.contains(record_tid))
+                            apply(readChange(type, true), true, pages);
+                        else
+                            skipUpdateData(raf, type);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        skipCheckpointData(raf);
+                        break;
+                    }
+                    raf.readLong();
+                }
+
+                // undo: the updates of losers, which may have begun before
+                // the checkpoint
+                if (!losers.isEmpty()) {
+                    raf.seek(Collections.min(losers.values()));
+                    ArrayList<Change> changes = readChanges(end, losers.keySet());
+                    for (int i = changes.size() - 1; i >= 0; i--)
+                        apply(changes.get(i), false, pages);
+                }
+                installPages(pages);
+
+                raf.seek(end);
+                currentOffset = end;
+                tidToFirstLogRecord.clear();
+                for (Long tid : losers.keySet()) {
+                    totalRecords++;
+                    appendRecord(ABORT_RECORD, tid);
+                    currentOffset = raf.getFilePointer();
+                }
+                force();
             }
          }
     }
@@ -501,10 +876,222 @@ public class LogFile {
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
         // some code goes here
+        synchronized (this) {
+            long saved = raf.getFilePointer();
+            try {
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                System.out.println("0: checkpoint at " + (cpLoc == NO_CHECKPOINT_ID ? "none" : "" + cpLoc));
+                while (true) {
+                    long recordStart = raf.getFilePointer();
+                    int type = raf.readInt();
+                    long record_tid = raf.readLong();
+                    StringBuilder line = new StringBuilder(recordStart + ": ");
+                    switch (type) {
+                    case ABORT_RECORD:
+                        line.append("ABORT ").append(record_tid);
+                        break;
+                    case COMMIT_RECORD:
+                        line.append("COMMIT ").append(record_tid);
+                        break;
+                    case BEGIN_RECORD:
+                        line.append("BEGIN ").append(record_tid);
+                        break;
+                    case UPDATE_RECORD:
+                        Page before = readPageData(raf);
+                        readPageData(raf);
+                        line.append("UPDATE ").append(record_tid).append(" page ")
+                            .append(before.getId().getTableId()).append("/")
+                            .append(before.getId().pageNumber());
+                        break;
+                    case DELTA_RECORD:
+                        int tableId = raf.readInt();
+                        int pageNo = raf.readInt();
+                        int length = raf.readInt();
+                        raf.seek(raf.getFilePointer() + length);
+                        line.append("DELTA ").append(record_tid).append(" page ")
+                            .append(tableId).append("/").append(pageNo)
+                            .append(", ").append(length).append(" bytes");
+                        break;
+                    case CHECKPOINT_RECORD:
+                        line.append("CHECKPOINT, active:");
+                        int numXactions = raf.readInt();
+                        while (numXactions-- > 0) {
+                            long xid = raf.readLong();
+                            long xoffset = raf.readLong();
+                            line.append(" ").append(xid).append("@").append(xoffset);
+                        }
+                        break;
+                    default:
+                        line.append("unknown record type ").append(type);
+                        System.out.println(line);
+                        return;
+                    }
+                    line.append(" (start ").append(raf.readLong()).append(")");
+                    System.out.println(line);
+                }
+            } catch (EOFException e) {
+                // end of the log
+            } finally {
+                raf.seek(saved);
+            }
+        }
     }
 
+    /** Force the log to disk in the calling thread. */
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        markDurable(totalRecords);
+    }
+
+    /** Wait until every record appended so far is on disk.  Unlike
+        force(), this leaves the force to the forcer thread, so that
+        callers forcing the log at the same time share one force.
+    */
+    public void groupForce() throws IOException {
+        int record;
+        synchronized (this) {
+            record = totalRecords;
+        }
+        waitForDurable(record);
+    }
+
+    // Waits until the records up to the given one are on disk.  With no
+    // force in progress and no forcer thread, i.e. no other thread has
+    // waited for the log lately, the calling thread forces the log itself,
+    // which saves a lone committer the handoff to the forcer and back.
+    // Under load the forcer batches the records of the waiting threads.
+    private void waitForDurable(int record) throws IOException {
+        if (Thread.holdsLock(this)) {
+            // The forcer would wait for our monitor.
+            force();
+            return;
+        }
+        while (true) {
+            synchronized (forceLock) {
+                if (durableRecords >= record)
+                    return;
+                if (forcing || forcer != null) {
+                    awaitForcer(record);
+                    return;
+                }
+                forcing = true;
+            }
+            try {
+                if (forceChannel())
+                    return;
+            } finally {
+                synchronized (forceLock) {
+                    forcing = false;
+                    forceLock.notifyAll();
+                }
+            }
+        }
+    }
+
+    // Hands the records up to the given one to the forcer thread, starting
+    // it if needed, and waits until they are on disk.  Caller holds
+    // forceLock.
+    private void awaitForcer(int record) throws IOException {
+        if (record > forceRequested) {
+            forceRequested = record;
+            forceError = null;
+            forceLock.notifyAll();
+        }
+        if (forcer == null) {
+            forcer = new Thread("LogFile forcer") {
+                public void run() {
+                    runForcer();
+                }
+            };
+            forcer.setDaemon(true);
+            forcer.start();
+        }
+        while (durableRecords < record) {
+            if (forceError != null)
+                throw forceError;
+            try {
+                forceLock.wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("interrupted waiting for the log");
+            }
+        }
+    }
+
+    // Records that the records up to the given one are on disk, and wakes
+    // up the threads waiting for them.
+    private void markDurable(int record) {
+        synchronized (forceLock) {
+            if (record > durableRecords)
+                durableRecords = record;
+            forceError = null;
+            forceLock.notifyAll();
+        }
+    }
+
+    // Forces every record appended so far, without the monitor of this.
+    // Caller has set forcing.  Returns false if the log was truncated
+    // meanwhile, which forced it; the caller tries again.
+    private boolean forceChannel() throws IOException {
+        int record;
+        FileChannel channel;
+        synchronized (this) {
+            record = totalRecords;
+            channel = raf.getChannel();
+        }
+        try {
+            channel.force(true);
+        } catch (ClosedChannelException e) {
+            return false;
+        }
+        markDurable(record);
+        return true;
+    }
+
+    // Body of the forcer thread: forces the log whenever some thread waits
+    // for records not on disk yet, and exits once no one has for a while.
+    private void runForcer() {
+        while (true) {
+            synchronized (forceLock) {
+                if (forceRequested <= durableRecords) {
+                    try {
+                        forceLock.wait(FORCER_IDLE_MS);
+                    } catch (InterruptedException e) {
+                        // exit below, unless there is work
+                    }
+                    if (forceRequested <= durableRecords) {
+                        forcer = null;
+                        return;
+                    }
+                }
+                if (forcing) {
+                    // Another thread is forcing; its force may cover the
+                    // requests, and the next one picks up the rest.
+                    try {
+                        forceLock.wait();
+                    } catch (InterruptedException e) {
+                        // look again
+                    }
+                    continue;
+                }
+                forcing = true;
+            }
+            try {
+                forceChannel();
+            } catch (IOException e) {
+                synchronized (forceLock) {
+                    // Fail the waiting threads rather than retry forever.
+                    forceError = e;
+                    forceRequested = durableRecords;
+                    forceLock.notifyAll();
+                }
+            } finally {
+                synchronized (forceLock) {
+                    forcing = false;
+                    forceLock.notifyAll();
+                }
+            }
+        }
     }
 
 }
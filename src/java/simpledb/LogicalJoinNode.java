@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Set by the JoinOptimizer when a SortMergeJoin is expected to be
+     * cheaper than a Join for this join. */
+    public boolean sortMerge;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +67,13 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a copy of this join that is to be run as a SortMergeJoin. */
+    public LogicalJoinNode asSortMerge() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName, p);
+        j2.sortMerge = true;
+        return j2;
+    }
+    
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
@@ -2,6 +2,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -29,12 +30,12 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAscs = new Vector<Boolean>();
     private String query;
 //    private Query owner;
 
@@ -186,34 +187,67 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
-        afield=disambiguateName(afield);
+        addAggregate(op, afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupByField(gfield);
+    }
+
+    /** Add an aggregate over the field to the query.  All aggregates of a
+        query are computed in one pass, grouped by the fields added with
+        {@link #addGroupByField}.  Adding the same aggregate twice has no
+        effect.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield) throws ParsingException {
+        afield=disambiguateName(afield);
         hasAgg = true;
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.addElement(op);
+            aggFields.addElement(afield);
+        }
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a field to the GROUP BY key of the query's aggregates.
+        Adding the same field twice has no effect.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupByField(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    /** Returns the position of an aggregate among those added with
+        {@link #addAggregate}, or -1 if it was not added. */
+    private int aggregateIndex(String op, String afield) throws ParsingException {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (getAggOp(aggOps.elementAt(i)) == getAggOp(op) && aggFields.elementAt(i).equals(afield))
+                return i;
+        }
+        return -1;
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields are
+        ordered on in the order they are added; each one only orders tuples equal on the
+        fields added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
-        hasOrderBy = true;
+        oByFields.addElement(field);
+        oByAscs.addElement(asc);
     }
 
     /** Given a name of a field, try to figure out what table it belongs to by looking
@@ -271,6 +305,54 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Returns the position in the GROUP BY list of field id of td, or -1
+        if it is not grouped on. */
+    private int groupByIndex(TupleDesc td, int id) throws ParsingException {
+        for (int k = 0; k < groupByFields.size(); k++) {
+            try {
+                if (td.fieldNameToIndex(groupByFields.elementAt(k)) == id)
+                    return k;
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field " +  groupByFields.elementAt(k) + " in GROUP BY statement");
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the position in td, the output of the plan before ORDER BY,
+        of an ORDER BY field.  After an aggregate, that is a grouped field or
+        else the first aggregate over the field. */
+    private int orderByIndex(TupleDesc td, String field) throws ParsingException {
+        try {
+            return td.fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            int agg = hasAgg ? aggFields.indexOf(field) : -1;
+            if (agg < 0)
+                throw new ParsingException("Unknown field " + field + " in ORDER BY statement");
+            return groupByFields.size() + agg;
+        }
+    }
+
+    /** Returns the qualified names of the fields that the joins, select list,
+        aggregates and ORDER BY of this plan refer to, or null if the select
+        list refers to all fields. */
+    private HashSet<String> usedFieldNames() {
+        HashSet<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.endsWith(".*"))
+                return null;
+            used.add(si.fname);
+        }
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        used.addAll(aggFields);
+        used.addAll(groupByFields);
+        used.addAll(oByFields);
+        return used;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -317,8 +399,11 @@ public class LogicalPlan {
         }
 
         // ----------------------------------
-        // iterate over filters
+        // iterate over filters; the filters on each table are pushed down
+        // into its scan, which applies the most selective predicates first
         // ----------------------------------
+        HashMap<String,Vector<Predicate>> tablePreds = new HashMap<String,Vector<Predicate>>();
+        HashMap<String,Vector<Double>> tablePredSels = new HashMap<String,Vector<Double>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -353,10 +438,6 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
 
-            // add subPlan, filter table name and new filter into subPlan hashtable
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
-
-
             // get table stats of the current table
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -367,8 +448,51 @@ public class LogicalPlan {
             // add tablename, selectivity into hashmap
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            // add the predicate to those of the table, by selectivity
+            Vector<Predicate> preds = tablePreds.get(lf.tableAlias);
+            Vector<Double> sels = tablePredSels.get(lf.tableAlias);
+            if (preds == null) {
+                preds = new Vector<Predicate>();
+                sels = new Vector<Double>();
+                tablePreds.put(lf.tableAlias, preds);
+                tablePredSels.put(lf.tableAlias, sels);
+            }
+            int at = sels.size();
+            while (at > 0 && sels.get(at - 1) > sel)
+                at--;
+            preds.add(at, p);
+            sels.add(at, sel);
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // replace the scan of each table by one returning only the tuples
+        // that pass its predicates, holding only the fields the rest of the
+        // plan refers to
+        HashSet<String> usedFields = usedFieldNames();
+        for (LogicalScanNode table : tables) {
+            Vector<Predicate> preds = tablePreds.get(table.alias);
+            Predicate[] ps = preds == null ? new Predicate[0]
+                    : preds.toArray(new Predicate[preds.size()]);
+            int[] fields = null;
+            if (usedFields != null) {
+                TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+                ArrayList<Integer> used = new ArrayList<Integer>();
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (usedFields.contains(table.alias + "." + td.getFieldName(i)))
+                        used.add(i);
+                }
+                if (used.isEmpty())
+                    used.add(0); // tuples need at least one field
+                if (used.size() < td.numFields()) {
+                    fields = new int[used.size()];
+                    for (int i = 0; i < fields.length; i++)
+                        fields[i] = used.get(i);
+                }
+            }
+            if (ps.length > 0 || fields != null)
+                subplanMap.put(table.alias, new SeqScan(t, table.t, table.alias, ps, fields));
+        }
         
 
         // ----------------------------------
@@ -448,7 +572,6 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -457,20 +580,26 @@ public class LogicalPlan {
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
+                int agg = aggregateIndex(si.aggOp, si.fname);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the query");
+                }
+                outFields.add(groupByFields.size() + agg);
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
-                        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
-                    }
-                    outFields.add(0);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                    }
+                    int k = groupByIndex(td, id);
+                    if (k < 0) {
+                        throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
+                    outFields.add(k);
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
                     TupleDesc td = node.getTupleDesc();
@@ -496,10 +625,16 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(aggFields.elementAt(i));
+                    aops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.elementAt(i));
+                aggNode = new Aggregate(node, afields, aops, gfields);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
@@ -508,8 +643,14 @@ public class LogicalPlan {
             node = aggNode;
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (!oByFields.isEmpty()) {
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndexes.length; i++) {
+                oByIndexes[i] = orderByIndex(node.getTupleDesc(), oByFields.elementAt(i));
+                asc[i] = oByAscs.elementAt(i);
+            }
+            node = new OrderBy(oByIndexes, asc, node, OrderBy.NO_LIMIT);
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Least-recently-used replacement.  Pages are kept in an access-ordered
+ * LinkedHashMap, so both a hit (move to the tail) and an eviction (remove
+ * the head) take constant time.
+ *
+ * @Threadsafe
+ */
+public class LruReplacementPolicy implements ReplacementPolicy {
+
+    // Access-ordered: the head is the least recently used page.
+    private final LinkedHashMap<PageId, Boolean> order;
+
+    /**
+     * @param numPages the number of pages of the BufferPool this policy
+     *        serves; only used to size the internal table.
+     */
+    public LruReplacementPolicy(int numPages) {
+        this.order = new LinkedHashMap<PageId, Boolean>(
+                Math.max(16, (int) (numPages / 0.75f) + 1), 0.75f, true);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        this.order.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        // get() on an access-ordered map moves the entry to the tail.
+        this.order.get(pid);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        this.order.remove(pid);
+    }
+
+    public synchronized void pageReinstated(PageId pid) {
+        // The page was the least recently used one; it becomes the most
+        // recently used, as it is pinned and so in use right now.
+        this.order.put(pid, Boolean.TRUE);
+    }
+
+    public synchronized PageId evict() {
+        Iterator<PageId> it = this.order.keySet().iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        PageId victim = it.next();
+        it.remove();
+        return victim;
+    }
+}
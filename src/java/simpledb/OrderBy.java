@@ -1,9 +1,17 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It is an external merge sort with a memory budget tied to the size of the
+ * buffer pool.  If the child does not fit in the budget, the child is cut
+ * into sorted runs that are written to temporary {@link SpillFile}s, and the
+ * runs are merged with a priority queue, in several passes if there are more
+ * runs than pages in the budget.  With a limit, only the first tuples of the
+ * ordering are kept, in a bounded heap.
  */
 public class OrderBy extends Operator {
 
@@ -11,10 +19,17 @@ public class OrderBy extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    private int orderByField;
-    private String orderByFieldName;
+    private int[] orderByFields;
+    private boolean[] asc;
     private Iterator<Tuple> it;
-    private boolean asc;
+    private int limit;
+    private Comparator<Tuple> comparator;
+
+    /** Value of limit meaning that all tuples are returned. */
+    public static final int NO_LIMIT = -1;
+
+    transient private ArrayList<SpillFile> runs; // Sorted runs, or null if in memory.
+    transient private RunMerger merger; // Merges the final runs.
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,50 +42,229 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, NO_LIMIT);
+    }
+
+    /**
+     * Creates a new OrderBy node that returns only the first tuples of the
+     * ordering.
+     * 
+     * @param limit
+     *            the number of tuples to return, or NO_LIMIT.
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int limit) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, limit);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: on the first
+     * one, then on the second one among tuples equal on the first, and so on.
+     * 
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each of those fields, true if its order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param limit
+     *            the number of tuples to return, or NO_LIMIT.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, DbIterator child,
+            int limit) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException(
+                    "need one direction for each of at least one field");
+        if (limit < 0 && limit != NO_LIMIT)
+            throw new IllegalArgumentException("negative limit " + limit);
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.limit = limit;
+        this.comparator = TupleComparator.create(td, this.orderByFields,
+                this.asc);
     }
     
+    /** @return true if the order on the first field is ascending. */
     public boolean isASC()
     {
-	return this.asc;
+	return this.asc[0];
     }
     
+    /** @return the first (most significant) field of the ordering. */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
     
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+	return td.getFieldName(this.orderByFields[0]);
+    }
+
+    /** @return the fields of the ordering, most significant first. */
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
+    }
+
+    /** @return for each field of the ordering, true if it is ascending. */
+    public boolean[] getAscending()
+    {
+        return this.asc.clone();
+    }
+
+    /** @return the number of tuples returned, or NO_LIMIT. */
+    public int getLimit()
+    {
+        return this.limit;
     }
     
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /**
+     * Number of tuples the sort may hold in memory: half of the buffer pool,
+     * in pages of child tuples.
+     */
+    private int memoryBudget() {
+        return budgetPages() * HeapPage.numSlots(td);
+    }
+
+    private static int budgetPages() {
+        return Math.max(1, Database.getBufferPool().getNumPages() / 2);
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        deleteRuns();
+        childTups = new ArrayList<Tuple>();
+        if (limit != NO_LIMIT && limit <= memoryBudget()) {
+            topN();
+        } else {
+            try {
+                sort();
+            } catch (IOException e) {
+                deleteRuns();
+                throw new DbException("OrderBy: cannot spill: " + e);
+            }
+        }
+        rewind();
         super.open();
     }
 
+    // Keeps the first limit tuples in a heap whose root is the last of them.
+    private void topN() throws DbException, TransactionAbortedException {
+        PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(
+                Math.max(1, limit), Collections.reverseOrder(comparator));
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(t);
+            } else if (limit > 0 && comparator.compare(t, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(t);
+            }
+        }
+        childTups.addAll(heap);
+        Collections.sort(childTups, comparator);
+    }
+
+    // Loads the child into memory, or cuts it into sorted runs and merges
+    // them down to at most one budget's worth of runs.
+    private void sort() throws DbException, TransactionAbortedException,
+            IOException {
+        int budget = memoryBudget();
+        while (child.hasNext()) {
+            if (childTups.size() == budget) {
+                if (runs == null)
+                    runs = new ArrayList<SpillFile>();
+                runs.add(writeRun(childTups));
+                childTups.clear();
+            }
+            childTups.add(child.next());
+        }
+        if (runs == null) {
+            Collections.sort(childTups, comparator);
+            if (limit != NO_LIMIT && childTups.size() > limit)
+                childTups.subList(limit, childTups.size()).clear();
+            return;
+        }
+        if (!childTups.isEmpty())
+            runs.add(writeRun(childTups));
+        childTups = new ArrayList<Tuple>();
+
+        int fanIn = Math.max(2, budgetPages());
+        while (runs.size() > fanIn) {
+            ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<SpillFile> group = runs.subList(i,
+                        Math.min(runs.size(), i + fanIn));
+                merged.add(mergeRuns(group));
+                for (SpillFile f : group)
+                    f.delete();
+            }
+            runs = merged;
+        }
+    }
+
+    private SpillFile writeRun(ArrayList<Tuple> tups) throws IOException {
+        Collections.sort(tups, comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : tups)
+            run.add(t);
+        return run;
+    }
+
+    private SpillFile mergeRuns(List<SpillFile> group) throws IOException,
+            DbException, TransactionAbortedException {
+        SpillFile out = new SpillFile(td);
+        RunMerger m = new RunMerger(group, comparator);
+        try {
+            m.open();
+            while (m.hasNext())
+                out.add(m.next());
+        } finally {
+            m.close();
+        }
+        return out;
+    }
+
+    private void deleteRuns() {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if (runs != null) {
+            for (SpillFile f : runs)
+                f.delete();
+            runs = null;
+        }
+    }
+
     public void close() {
         super.close();
         it = null;
+        deleteRuns();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs == null) {
+            it = childTups.iterator();
+            return;
+        }
+        if (merger != null)
+            merger.close();
+        try {
+            merger = new RunMerger(runs, comparator);
+        } catch (IOException e) {
+            throw new DbException("OrderBy: cannot read runs: " + e);
+        }
+        merger.open();
+        it = null;
     }
 
     /**
@@ -82,7 +276,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
+        if (merger != null) {
+            return merger.hasNext() ? merger.next() : null;
+        } else if (it != null && it.hasNext()) {
             return it.next();
         } else
             return null;
@@ -98,26 +294,68 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
+    /**
+     * k-way merge of sorted runs: a priority queue holds the next tuple of
+     * each run.  Ties go to the earlier run, so the merge is stable.  An
+     * optional limit stops it early.
+     */
+    private class RunMerger {
+        private final DbIterator[] readers;
+        private final PriorityQueue<Integer> heads;
+        private final Tuple[] head;
+        private int returned;
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+        RunMerger(List<SpillFile> group, final Comparator<Tuple> cmp)
+                throws IOException {
+            readers = new DbIterator[group.size()];
+            for (int i = 0; i < readers.length; i++)
+                readers[i] = group.get(i).iterator();
+            head = new Tuple[readers.length];
+            heads = new PriorityQueue<Integer>(Math.max(1, readers.length),
+                    new Comparator<Integer>() {
+                        public int compare(Integer a, Integer b) {
+                            int c = cmp.compare(head[a], head[b]);
+                            return c != 0 ? c : a - b;
+                        }
+                    });
+        }
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
+        void open() throws DbException, TransactionAbortedException {
+            returned = 0;
+            for (int i = 0; i < readers.length; i++) {
+                readers[i].open();
+                advance(i);
+            }
+        }
+
+        private void advance(int i) throws DbException,
+                TransactionAbortedException {
+            if (readers[i].hasNext()) {
+                head[i] = readers[i].next();
+                heads.add(i);
+            } else {
+                head[i] = null;
+            }
+        }
+
+        boolean hasNext() {
+            return !heads.isEmpty() && (limit == NO_LIMIT || returned < limit);
+        }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            int i = heads.poll();
+            Tuple t = head[i];
+            advance(i);
+            returned++;
+            return t;
+        }
+
+        void close() {
+            for (DbIterator r : readers)
+                r.close();
+        }
     }
-    
+
 }
@@ -0,0 +1,349 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * PredicateEvaluator evaluates a predicate, or a conjunction of predicates,
+ * compiled for the TupleDesc of the tuples it is applied to.  Comparing an
+ * int field to an int constant compiles to a class per operator that
+ * compares the primitive values, with no Field objects and no switch over
+ * {@link Predicate.Op} per tuple; any other predicate falls back to
+ * {@link Field#compare}.  Evaluators also filter the selection of a
+ * {@link TupleBatch} in one loop over its column, and test tuples still
+ * encoded in a {@link HeapPage}, so that a scan only decodes those that pass.
+ */
+public abstract class PredicateEvaluator implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** @return true if t passes the predicate. */
+    public abstract boolean eval(Tuple t);
+
+    /**
+     * Tests a tuple in the on-disk format of {@link HeapPage}, reading only
+     * the fields the predicate is on.
+     *
+     * @param data
+     *            the page
+     * @param offset
+     *            the offset of the tuple in the page
+     * @param fieldOffsets
+     *            the offset of each field within a tuple
+     * @return true if the tuple passes the predicate
+     */
+    abstract boolean eval(ByteBuffer data, int offset, int[] fieldOffsets);
+
+    /**
+     * Drops the rows of a batch that do not pass the predicate from its
+     * selection.
+     */
+    public void filter(TupleBatch b) {
+        b.numSelected = filter(b, b.sel, b.numSelected);
+    }
+
+    /**
+     * Keeps the first n rows of sel that pass the predicate, in order, at the
+     * front of sel.
+     *
+     * @return the number of rows kept
+     */
+    abstract int filter(TupleBatch b, int[] sel, int n);
+
+    /**
+     * Compiles a predicate over tuples of the given TupleDesc.
+     */
+    public static PredicateEvaluator compile(Predicate p, TupleDesc td) {
+        int field = p.getField();
+        Field operand = p.getOperand();
+        if (td.getFieldType(field) == Type.INT_TYPE && operand instanceof IntField) {
+            int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+                return new IntEquals(field, v);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, v);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, v);
+            case GREATER_THAN_OR_EQ:
+                if (v == Integer.MIN_VALUE)
+                    return new True();
+                return new IntGreaterThan(field, v - 1);
+            case LESS_THAN:
+                return new IntLessThan(field, v);
+            case LESS_THAN_OR_EQ:
+                if (v == Integer.MAX_VALUE)
+                    return new True();
+                return new IntLessThan(field, v + 1);
+            default:
+                break;
+            }
+        }
+        if (td.getFieldType(field) == Type.STRING_TYPE
+                && operand instanceof StringField && p.getOp() == Predicate.Op.EQUALS) {
+            return new StringEquals(field, ((StringField) operand).getValue());
+        }
+        return new FieldCompare(p, td.getFieldType(field));
+    }
+
+    /**
+     * Compiles the conjunction of predicates over tuples of the given
+     * TupleDesc; a tuple passes if it passes all of them, which are tried in
+     * order.
+     */
+    public static PredicateEvaluator compile(Predicate[] ps, TupleDesc td) {
+        if (ps.length == 1)
+            return compile(ps[0], td);
+        PredicateEvaluator[] es = new PredicateEvaluator[ps.length];
+        for (int i = 0; i < ps.length; i++)
+            es[i] = compile(ps[i], td);
+        if (es.length == 2)
+            return new And2(es[0], es[1]);
+        return new And(es);
+    }
+
+    // field >= MIN_VALUE or field <= MAX_VALUE.
+    private static class True extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+
+        public boolean eval(Tuple t) {
+            return true;
+        }
+
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            return true;
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            return n;
+        }
+    }
+
+    private static class IntEquals extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+        private final int field, v;
+
+        IntEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean eval(Tuple t) {
+            return t.getInt(field) == v;
+        }
+
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            return data.getInt(offset + fieldOffsets[field]) == v;
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            int[] col = b.ints[field];
+            int m = 0;
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] == v) sel[m++] = sel[k];
+            return m;
+        }
+    }
+
+    private static class IntNotEquals extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+        private final int field, v;
+
+        IntNotEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean eval(Tuple t) {
+            return t.getInt(field) != v;
+        }
+
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            return data.getInt(offset + fieldOffsets[field]) != v;
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            int[] col = b.ints[field];
+            int m = 0;
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] != v) sel[m++] = sel[k];
+            return m;
+        }
+    }
+
+    // field > v; >= is compiled as > v - 1.
+    private static class IntGreaterThan extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+        private final int field, v;
+
+        IntGreaterThan(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean eval(Tuple t) {
+            return t.getInt(field) > v;
+        }
+
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            return data.getInt(offset + fieldOffsets[field]) > v;
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            int[] col = b.ints[field];
+            int m = 0;
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] > v) sel[m++] = sel[k];
+            return m;
+        }
+    }
+
+    // field < v; <= is compiled as < v + 1.
+    private static class IntLessThan extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+        private final int field, v;
+
+        IntLessThan(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean eval(Tuple t) {
+            return t.getInt(field) < v;
+        }
+
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            return data.getInt(offset + fieldOffsets[field]) < v;
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            int[] col = b.ints[field];
+            int m = 0;
+            for (int k = 0; k < n; k++)
+                if (col[sel[k]] < v) sel[m++] = sel[k];
+            return m;
+        }
+    }
+
+    private static class StringEquals extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+        private final int field;
+        private final String v;
+
+        StringEquals(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean eval(Tuple t) {
+            return v.equals(t.getString(field));
+        }
+
+        // Compares the stored bytes with the chars of v, which are stored one
+        // byte per char.
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            int off = offset + fieldOffsets[field];
+            int len = Math.max(0, Math.min(Type.STRING_LEN, data.getInt(off)));
+            if (len != v.length())
+                return false;
+            for (int k = 0; k < len; k++) {
+                if ((data.get(off + 4 + k) & 0xff) != v.charAt(k))
+                    return false;
+            }
+            return true;
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            String[] col = b.strings[field];
+            int m = 0;
+            for (int k = 0; k < n; k++)
+                if (v.equals(col[sel[k]])) sel[m++] = sel[k];
+            return m;
+        }
+    }
+
+    private static class FieldCompare extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+        private final Predicate p;
+        private final Type type; // Of the field.
+
+        FieldCompare(Predicate p, Type type) {
+            this.p = p;
+            this.type = type;
+        }
+
+        public boolean eval(Tuple t) {
+            return p.filter(t);
+        }
+
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            int off = offset + fieldOffsets[p.getField()];
+            Field f;
+            if (type == Type.INT_TYPE)
+                f = new IntField(data.getInt(off));
+            else
+                f = new StringField(HeapPage.readString(data, off), Type.STRING_LEN);
+            return f.compare(p.getOp(), p.getOperand());
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            int m = 0;
+            for (int k = 0; k < n; k++)
+                if (b.getField(p.getField(), sel[k]).compare(p.getOp(), p.getOperand()))
+                    sel[m++] = sel[k];
+            return m;
+        }
+    }
+
+    private static class And2 extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+        private final PredicateEvaluator e1, e2;
+
+        And2(PredicateEvaluator e1, PredicateEvaluator e2) {
+            this.e1 = e1;
+            this.e2 = e2;
+        }
+
+        public boolean eval(Tuple t) {
+            return e1.eval(t) && e2.eval(t);
+        }
+
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            return e1.eval(data, offset, fieldOffsets)
+                    && e2.eval(data, offset, fieldOffsets);
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            return e2.filter(b, sel, e1.filter(b, sel, n));
+        }
+    }
+
+    private static class And extends PredicateEvaluator {
+        private static final long serialVersionUID = 1L;
+        private final PredicateEvaluator[] es;
+
+        And(PredicateEvaluator[] es) {
+            this.es = es;
+        }
+
+        public boolean eval(Tuple t) {
+            for (PredicateEvaluator e : es)
+                if (!e.eval(t))
+                    return false;
+            return true;
+        }
+
+        boolean eval(ByteBuffer data, int offset, int[] fieldOffsets) {
+            for (PredicateEvaluator e : es)
+                if (!e.eval(data, offset, fieldOffsets))
+                    return false;
+            return true;
+        }
+
+        int filter(TupleBatch b, int[] sel, int n) {
+            for (PredicateEvaluator e : es)
+                n = e.filter(b, sel, n);
+            return n;
+        }
+    }
+}
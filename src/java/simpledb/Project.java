@@ -3,14 +3,17 @@ package simpledb;
 import java.util.*;
 
 /**
- * Project is an operator that implements a relational projection.
+ * Project is an operator that implements a relational projection. Read a
+ * batch at a time, it hands out views of the batches of its child that
+ * share their columns.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    transient private BatchIterator batches; // The child, read in batches.
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -49,6 +52,7 @@ public class Project extends Operator {
             TransactionAbortedException {
         child.open();
         super.open();
+        batches = BatchAdapter.of(child);
     }
 
     public void close() {
@@ -80,6 +84,20 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the next batch of the child, restricted to the projected
+     * fields; the columns are shared, not copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch b = batches.nextBatch();
+        if (b == null)
+            return null;
+        int[] fields = new int[outFieldIds.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = outFieldIds.get(i);
+        return b.project(fields, td);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
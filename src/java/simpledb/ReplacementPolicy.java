@@ -0,0 +1,66 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool gives up when it is
+ * full.  The BufferPool reports every page it caches, every cache hit and
+ * every page it drops; the policy only keeps the bookkeeping needed to pick
+ * a victim.
+ * <p>
+ * Implementations should keep all of these calls O(1) (amortized for
+ * {@link #evict}) so that the cost of a cache hit does not grow with the
+ * size of the pool.
+ * <p>
+ * The BufferPool holds no lock of its own when it calls {@link #pageHit},
+ * so every hit of every thread reaches the policy concurrently.  A policy
+ * that synchronizes pageHit serializes all hits on its monitor;
+ * {@link ClockReplacementPolicy} handles hits without a lock, while
+ * {@link LruReplacementPolicy} and {@link TwoQueueReplacementPolicy} must
+ * reorder their queues and take their monitor.
+ *
+ * @see BufferPool
+ * @Threadsafe
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when a page has been read into the pool.
+     *
+     * @param pid the id of the newly cached page
+     */
+    public void pageAdded(PageId pid);
+
+    /**
+     * Called when a page that is already in the pool is requested again.
+     * May be called concurrently with any other method.
+     *
+     * @param pid the id of the requested page
+     */
+    public void pageHit(PageId pid);
+
+    /**
+     * Called when a page leaves the pool for any reason other than
+     * {@link #evict} (e.g. BufferPool.discardPage).  Unknown pages are
+     * ignored.
+     *
+     * @param pid the id of the removed page
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Choose a victim page and stop tracking it.
+     *
+     * @return the id of the page that should be evicted, or null if the
+     *         policy does not track any page.
+     */
+    public PageId evict();
+
+    /**
+     * Called when the BufferPool could not drop a page that {@link #evict}
+     * chose (e.g. because it is pinned), so the page stays in the pool.
+     * Tracks it again as it was before it was chosen; unlike
+     * {@link #pageAdded}, this does not count as a new reference.
+     *
+     * @param pid the id of a page evict() returned
+     */
+    public void pageReinstated(PageId pid);
+}
@@ -5,14 +5,29 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk).  It can also be read a batch at a time, in which case the tuples of
+ * a HeapFile are decoded straight from its pages into the batch columns.
+ * <p>
+ * Predicates and a projection list can be pushed down into a scan: it then
+ * returns only the tuples that pass all of the predicates, holding only the
+ * listed fields.  Over a HeapFile the predicates are tested on the page
+ * bytes, so tuples that do not pass are never built.
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements DbIterator, BatchIterator {
 
     private static final long serialVersionUID = 1L;
+    private TransactionId tid; // Locks are taken on behalf of it.
     private int tableId;
     private String tableAlias;
     private DbFileIterator iterator;
+    private Predicate[] predicates; // Over the fields of the table; may be empty.
+    private int[] fields; // Fields of the table returned, or null for all.
+    private PredicateEvaluator evaluator; // The predicates compiled, or null.
+
+    // Batch reading: the next page and slot, and the batch handed out.
+    transient private int batchPage;
+    transient private int batchSlot;
+    transient private TupleBatch batch;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -31,10 +46,49 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+    	this(tid, tableid, tableAlias, new Predicate[0], null);
+    }
+
+    /**
+     * Creates a sequential scan over the specified table that returns some of
+     * the fields of the tuples that pass all of the given predicates.
+     * 
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, as in the other constructor.
+     * @param predicates
+     *            the predicates tuples must pass; their fields are those of
+     *            the table, whatever the projection list.
+     * @param fields
+     *            the fields of the table that make up the returned tuples, in
+     *            order, or null for all of them.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[] predicates, int[] fields) {
 		// Initialization.
+    	this.tid = tid;
     	this.tableId = tableid;
     	this.tableAlias = tableAlias;
-    	this.iterator = Database.getCatalog().getDatabaseFile(this.tableId).iterator(null);
+    	this.predicates = predicates;
+    	this.fields = fields;
+    	this.iterator = scanIterator();
+    }
+
+    // Compiles the predicates for the table and returns an iterator over the
+    // tuples that pass them.
+    private DbFileIterator scanIterator() {
+    	DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+    	this.evaluator = this.predicates.length == 0 ? null
+    			: PredicateEvaluator.compile(this.predicates, file.getTupleDesc());
+    	if (file instanceof HeapFile) {
+    		return ((HeapFile) file).iterator(this.tid, this.evaluator, this.fields);
+    	}
+    	return new PushdownIterator(file.iterator(this.tid), this.evaluator, this.fields,
+    			this.fields == null ? file.getTupleDesc()
+    					: TupleDesc.project(file.getTupleDesc(), this.fields));
     }
 
     /**
@@ -54,6 +108,22 @@ public class SeqScan implements DbIterator {
         return this.tableAlias;
     }
 
+    /**
+     * @return the predicates pushed down into this scan, over the fields of
+     *         the table; empty if there are none.
+     */
+    public Predicate[] getPredicates() {
+        return this.predicates;
+    }
+
+    /**
+     * @return the fields of the table this scan returns, in order, or null
+     *         if it returns all of them.
+     */
+    public int[] getFields() {
+        return this.fields;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -69,7 +139,7 @@ public class SeqScan implements DbIterator {
     public void reset(int tableid, String tableAlias) {
     	this.tableId = tableid;
     	this.tableAlias = tableAlias;
-    	this.iterator = Database.getCatalog().getDatabaseFile(this.tableId).iterator(null);
+    	this.iterator = scanIterator();
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -80,6 +150,8 @@ public class SeqScan implements DbIterator {
 		// Since the functionality has been implemented in HeapFile.iterator() method, 
 		// simply call the related method of the iterator is enough.
     	this.iterator.open();
+    	this.batchPage = 0;
+    	this.batchSlot = 0;
     }
 
     /**
@@ -93,6 +165,9 @@ public class SeqScan implements DbIterator {
      */
     public TupleDesc getTupleDesc() {
     	TupleDesc original_td = Database.getCatalog().getTupleDesc(this.tableId);
+    	if (this.fields != null) {
+    		original_td = TupleDesc.project(original_td, this.fields);
+    	}
     	Type[] typeAr = new Type[original_td.numFields()];
     	String[] fieldAr = new String[original_td.numFields()];
     	
@@ -115,12 +190,110 @@ public class SeqScan implements DbIterator {
         return this.iterator.next();
     }
 
+    /**
+     * Returns the next batch of tuples. Tuples of a HeapFile that pass the
+     * predicates are decoded from its pages straight into the batch; those
+     * of other files are read through the file iterator.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    	if (this.batch == null) {
+    		this.batch = new TupleBatch(getTupleDesc());
+    	}
+    	this.batch.clear();
+    	DbFile file = Database.getCatalog().getDatabaseFile(this.tableId);
+    	if (!(file instanceof HeapFile)) {
+    		while (!this.batch.isFull() && hasNext()) {
+    			this.batch.add(next());
+    		}
+    		return this.batch.numSelected() == 0 ? null : this.batch;
+    	}
+    	int numPages = ((HeapFile) file).numPages();
+    	while (!this.batch.isFull() && this.batchPage < numPages) {
+    		HeapPage page = (HeapPage) Database.getBufferPool().getPage(this.tid,
+    				new HeapPageId(this.tableId, this.batchPage), Permissions.READ_ONLY);
+    		this.batchSlot = page.fillBatch(this.batch, this.batchSlot,
+    				this.evaluator, this.fields);
+    		if (this.batchSlot == page.numSlots) {
+    			this.batchPage++;
+    			this.batchSlot = 0;
+    		}
+    	}
+    	return this.batch.numSelected() == 0 ? null : this.batch;
+    }
+
     public void close() {
         this.iterator.close();
+        this.batch = null;
+        this.batchPage = 0;
+        this.batchSlot = 0;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         this.iterator.rewind();
+        this.batchPage = 0;
+        this.batchSlot = 0;
+    }
+
+    /**
+     * Applies pushed-down predicates and projection to the iterator of a
+     * file other than a HeapFile, a tuple at a time.
+     */
+    private static class PushdownIterator implements DbFileIterator {
+
+        private final DbFileIterator child;
+        private final PredicateEvaluator evaluator;
+        private final int[] fields;
+        private final TupleDesc td;
+        private Tuple next; // The next tuple to return, or null.
+
+        PushdownIterator(DbFileIterator child, PredicateEvaluator evaluator,
+                int[] fields, TupleDesc td) {
+            this.child = child;
+            this.evaluator = evaluator;
+            this.fields = fields;
+            this.td = td;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            this.child.open();
+            this.next = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (this.next == null && this.child.hasNext()) {
+                Tuple t = this.child.next();
+                if (this.evaluator != null && !this.evaluator.eval(t))
+                    continue;
+                if (this.fields != null) {
+                    Tuple p = new Tuple(this.td);
+                    for (int k = 0; k < this.fields.length; k++)
+                        p.setField(k, t.getField(this.fields[k]));
+                    p.setRecordId(t.getRecordId());
+                    t = p;
+                }
+                this.next = t;
+            }
+            return this.next != null;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = this.next;
+            this.next = null;
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            this.child.rewind();
+            this.next = null;
+        }
+
+        public void close() {
+            this.child.close();
+            this.next = null;
+        }
     }
 }
@@ -0,0 +1,351 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements a join on an equality or range
+ * predicate (=, &lt;, &lt;=, &gt;, &gt;=) by merging its inputs in join key
+ * order.  An input that is already sorted ascending on its join field (an
+ * {@link OrderBy} on that field) is used as is; any other input is sorted
+ * first.  The outer (child1) tuples are streamed past the sorted inner
+ * (child2) ones: since the outer keys only grow, the run of inner tuples with
+ * the outer key only moves forward.
+ * <p>
+ * The sorted inner is kept in memory if it fits in half of the buffer pool,
+ * as for {@link HashEquiJoin}.  Otherwise it is written to a
+ * {@link SpillFile}, and only the current run of equal inner keys is kept in
+ * memory, if it fits; the inner tuples that match a range predicate are read
+ * back from the spill file from the position where they start.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private TupleDesc comboTD;
+
+    transient private DbIterator outer; // child1 in join key order.
+    transient private DbIterator sorted2; // child2 in join key order.
+    transient private int budget; // Inner tuples that may be held in memory.
+    transient private ArrayList<Tuple> inner; // All of sorted2, if it fits.
+    transient private SpillFile spill; // All of sorted2 otherwise.
+    transient private int size; // Number of inner tuples.
+    transient private DbIterator scan; // Inner tuples from upper on.
+    transient private Tuple head; // The inner tuple at upper, or null.
+    transient private Field runKey; // The key of the current run, or null.
+    transient private ArrayList<Tuple> run; // Inner tuples in [lower, upper).
+    transient private boolean runFits; // Whether run holds all of them.
+    transient private int lower; // First inner tuple with key >= outer key.
+    transient private int upper; // First inner tuple with key > outer key.
+    transient private Tuple t1; // The current outer tuple.
+    transient private DbIterator matches; // Inner tuples to match with t1.
+    transient private int remaining; // Number of them not returned yet.
+
+    /**
+     * Constructor. Accepts to children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *             if the predicate is not an equality or range predicate
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("SortMergeJoin cannot join on "
+                    + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a SortMergeJoin can evaluate a join predicate with the
+     *         given operator.
+     */
+    public static boolean supports(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name()
+    {
+	return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name()
+    {
+	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * @return true if the tuples of the iterator come out in ascending order
+     *         of the given field.
+     */
+    static boolean isSortedOn(DbIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        return false;
+    }
+
+    private static DbIterator sortedOn(DbIterator it, int field) {
+        return isSortedOn(it, field) ? it : new OrderBy(field, true, it);
+    }
+
+    /**
+     * Number of inner tuples the join may hold in memory: half of the
+     * buffer pool, in pages of child2 tuples.
+     */
+    private int memoryBudget() {
+        int pages = Math.max(1, Database.getBufferPool().getNumPages() / 2);
+        return pages * HeapPage.numSlots(child2.getTupleDesc());
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer = sortedOn(child1, pred.getField1());
+        sorted2 = sortedOn(child2, pred.getField2());
+        outer.open();
+        sorted2.open();
+        super.open();
+
+        budget = memoryBudget();
+        inner = new ArrayList<Tuple>();
+        run = new ArrayList<Tuple>();
+        size = 0;
+        try {
+            while (sorted2.hasNext()) {
+                Tuple t = sorted2.next();
+                if (inner != null && inner.size() == budget) {
+                    spill = new SpillFile(child2.getTupleDesc());
+                    for (Tuple s : inner)
+                        spill.add(s);
+                    inner = null;
+                }
+                if (inner != null)
+                    inner.add(t);
+                else
+                    spill.add(t);
+                size++;
+            }
+        } catch (IOException e) {
+            deleteSpill();
+            throw new DbException("SortMergeJoin: cannot spill: " + e);
+        }
+        start();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        closeCursors();
+        lower = 0;
+        upper = 0;
+        runKey = null;
+        run.clear();
+        runFits = true;
+        t1 = null;
+        remaining = 0;
+        scan = innerFrom(0);
+        head = scan.hasNext() ? scan.next() : null;
+    }
+
+    // Opens an iterator over the sorted inner tuples from the from-th one on.
+    private DbIterator innerFrom(int from) throws DbException,
+            TransactionAbortedException {
+        DbIterator it;
+        if (inner != null) {
+            it = new TupleIterator(child2.getTupleDesc(), inner.subList(from, size));
+        } else {
+            try {
+                it = spill.iterator(from);
+            } catch (IOException e) {
+                throw new DbException("SortMergeJoin: cannot read spill file: " + e);
+            }
+        }
+        it.open();
+        return it;
+    }
+
+    private void closeCursors() {
+        if (scan != null)
+            scan.close();
+        if (matches != null)
+            matches.close();
+        scan = null;
+        matches = null;
+    }
+
+    private void deleteSpill() {
+        if (spill != null)
+            spill.delete();
+        spill = null;
+    }
+
+    public void close() {
+        super.close();
+        closeCursors();
+        deleteSpill();
+        close(outer, child1);
+        close(sorted2, child2);
+        outer = null;
+        sorted2 = null;
+        inner = null;
+        run = null;
+        head = null;
+        t1 = null;
+    }
+
+    // OrderBy does not close its child, so close both when sorting.
+    private static void close(DbIterator sorted, DbIterator child) {
+        if (sorted != null && sorted != child)
+            sorted.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        start();
+    }
+
+    private Field innerKey(Tuple t) {
+        return t.getField(pred.getField2());
+    }
+
+    // Moves [lower, upper) to the run of inner tuples with the given key,
+    // which is no smaller than the key of the current run.
+    private void seek(Field key) throws DbException, TransactionAbortedException {
+        if (runKey != null && runKey.compare(Predicate.Op.EQUALS, key))
+            return;
+        lower = upper;
+        run.clear();
+        runFits = true;
+        while (head != null && innerKey(head).compare(Predicate.Op.LESS_THAN, key)) {
+            advance();
+            lower++;
+        }
+        while (head != null && innerKey(head).compare(Predicate.Op.EQUALS, key)) {
+            if (runFits && run.size() < budget) {
+                run.add(head);
+            } else {
+                runFits = false;
+                run.clear();
+            }
+            advance();
+        }
+        runKey = key;
+    }
+
+    private void advance() throws DbException, TransactionAbortedException {
+        head = scan.hasNext() ? scan.next() : null;
+        upper++;
+    }
+
+    // Starts matching t1 with the inner tuples in [from, to).
+    private void match(int from, int to) throws DbException,
+            TransactionAbortedException {
+        if (matches != null)
+            matches.close();
+        if (from == lower && to == upper && runFits) {
+            matches = new TupleIterator(child2.getTupleDesc(), run);
+            matches.open();
+        } else {
+            matches = innerFrom(from);
+        }
+        remaining = to - from;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     * <p>
+     * Note that the tuples returned from this particular implementation of Join
+     * are simply the concatenation of joining tuples from the left and right
+     * relation. Tuples come out in ascending order of the outer join field.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (t1 != null && remaining > 0) {
+                remaining--;
+                return merge(t1, matches.next());
+            }
+            if (!outer.hasNext()) {
+                return null;
+            }
+            t1 = outer.next();
+            // Inner keys in [lower, upper) are equal to the outer key.
+            seek(t1.getField(pred.getField1()));
+
+            switch (pred.getOperator()) {
+            case EQUALS:
+                match(lower, upper);
+                break;
+            case LESS_THAN:
+                match(upper, size);
+                break;
+            case LESS_THAN_OR_EQ:
+                match(lower, size);
+                break;
+            case GREATER_THAN:
+                match(0, lower);
+                break;
+            case GREATER_THAN_OR_EQ:
+                match(0, upper);
+                break;
+            default:
+                throw new DbException("unsupported join operator "
+                        + pred.getOperator());
+            }
+        }
+    }
+
+    private Tuple merge(Tuple left, Tuple right) {
+        int td1n = left.getTupleDesc().numFields();
+        int td2n = right.getTupleDesc().numFields();
+
+        // set fields in combined tuple
+        Tuple t = new Tuple(comboTD);
+        for (int i = 0; i < td1n; i++)
+            t.setField(i, left.getField(i));
+        for (int i = 0; i < td2n; i++)
+            t.setField(td1n + i, right.getField(i));
+        return t;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
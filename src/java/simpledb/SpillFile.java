@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary, append-only file of tuples used by operators
+ * that run out of memory (e.g. HashEquiJoin partitions).  Tuples are packed
+ * into pages in the HeapPage on-disk format -- a slot bitmap followed by
+ * fixed-size slots -- and written sequentially; they are read back
+ * sequentially through {@link #iterator}.  Spill files never go through the
+ * BufferPool or the Catalog.
+ * <p>
+ * A SpillFile is first written with {@link #add}, then read with any number
+ * of iterators; it is removed from disk by {@link #delete}.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final int pageSize, numSlots, headerSize, tupleSize;
+
+    private OutputStream out; // Null once the file has been finished.
+    private final byte[] page; // The page being filled.
+    private int slot; // Next free slot of that page.
+    private int count; // Number of tuples added.
+    private final ByteArrayOutputStream tupleBytes;
+    private final DataOutputStream tupleOut;
+
+    /**
+     * Creates an empty spill file for tuples of the given schema.
+     *
+     * @throws IOException if the temporary file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("simpledb-spill", ".dat");
+        this.file.deleteOnExit();
+        this.pageSize = BufferPool.getPageSize();
+        this.numSlots = HeapPage.numSlots(td);
+        this.headerSize = HeapPage.headerSize(td);
+        this.tupleSize = td.getSize();
+        this.out = new BufferedOutputStream(new FileOutputStream(this.file), 4 * this.pageSize);
+        this.page = new byte[this.pageSize];
+        this.slot = 0;
+        this.count = 0;
+        this.tupleBytes = new ByteArrayOutputStream(this.tupleSize);
+        this.tupleOut = new DataOutputStream(this.tupleBytes);
+    }
+
+    /** @return the schema of the tuples in this file. */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return the number of tuples added to this file. */
+    public int size() {
+        return this.count;
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws IllegalStateException if the file is already being read
+     */
+    public void add(Tuple t) throws IOException {
+        if (this.out == null) {
+            throw new IllegalStateException("SpillFile: cannot add after reading");
+        }
+        this.tupleBytes.reset();
+        for (int j = 0; j < this.td.numFields(); j++) {
+            t.getField(j).serialize(this.tupleOut);
+        }
+        this.tupleOut.flush();
+        System.arraycopy(this.tupleBytes.toByteArray(), 0, this.page,
+                this.headerSize + this.slot * this.tupleSize, this.tupleSize);
+        this.page[this.slot / 8] |= (byte) (1 << (this.slot % 8));
+        this.count++;
+        if (++this.slot == this.numSlots) {
+            writePage();
+        }
+    }
+
+    // Writes the page being filled and starts a new one.
+    private void writePage() throws IOException {
+        this.out.write(this.page);
+        java.util.Arrays.fill(this.page, (byte) 0);
+        this.slot = 0;
+    }
+
+    // Writes the last, partial page and closes the output.
+    private void finish() throws IOException {
+        if (this.out != null) {
+            if (this.slot > 0) {
+                writePage();
+            }
+            this.out.close();
+            this.out = null;
+        }
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file, in the order they
+     * were added.  After the first call no more tuples can be added.
+     */
+    public DbIterator iterator() throws IOException {
+        return iterator(0);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file from the from-th one
+     * on, in the order they were added.  Every page but the last is full, so
+     * it starts reading at the page that holds that tuple.  After the first
+     * call no more tuples can be added.
+     */
+    public DbIterator iterator(int from) throws IOException {
+        if (from < 0 || from > this.count) {
+            throw new IllegalArgumentException("SpillFile: no tuple " + from);
+        }
+        finish();
+        return new Reader(from);
+    }
+
+    /** Removes the file from disk. */
+    public void delete() {
+        try {
+            if (this.out != null) {
+                this.out.close();
+                this.out = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.file.delete();
+    }
+
+    /** Sequential reader over the pages of the file. */
+    private class Reader implements DbIterator {
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private final byte[] data = new byte[pageSize];
+        private final ByteBuffer buf = ByteBuffer.wrap(this.data);
+        private int slot; // Next slot of the current page to look at.
+        private int remaining; // Tuples not yet returned.
+        private final int from; // The first tuple to return.
+
+        Reader(int from) {
+            this.from = from;
+        }
+
+        public void open() throws DbException {
+            this.slot = numSlots; // Forces reading the first page.
+            this.remaining = count - this.from;
+            try {
+                FileInputStream fin = new FileInputStream(file);
+                fin.getChannel().position((long) (this.from / numSlots) * pageSize);
+                this.in = new DataInputStream(new BufferedInputStream(fin, 4 * pageSize));
+                if (this.remaining > 0 && this.from % numSlots > 0) {
+                    this.in.readFully(this.data);
+                    this.slot = this.from % numSlots;
+                }
+            } catch (IOException e) {
+                throw new DbException("SpillFile: cannot open " + file + ": " + e);
+            }
+        }
+
+        public boolean hasNext() {
+            if (this.in == null) {
+                throw new IllegalStateException("SpillFile reader not open");
+            }
+            return this.remaining > 0;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                while (true) {
+                    if (this.slot == numSlots) {
+                        this.in.readFully(this.data);
+                        this.slot = 0;
+                    }
+                    int s = this.slot++;
+                    if ((this.data[s / 8] & (1 << (s % 8))) != 0) {
+                        this.remaining--;
+                        return decode(headerSize + s * tupleSize);
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("SpillFile: cannot read " + file + ": " + e);
+            }
+        }
+
+        private Tuple decode(int offset) throws DbException {
+            Tuple t = new Tuple(td);
+            try {
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.readField(j, this.buf, offset);
+                    offset += td.getFieldType(j).getLen();
+                }
+            } catch (java.text.ParseException e) {
+                throw new DbException("SpillFile: corrupt tuple in " + file);
+            }
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (this.in != null) {
+                try {
+                    this.in.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                this.in = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the pages of a BufferPool between several replacement policies,
+ * by the hash of their PageId, so that threads evicting pages at the same
+ * time mostly search different stripes instead of waiting for one policy.
+ * Each stripe is a policy of its own, synchronized (if at all) on its own
+ * monitor; this class takes no lock.  An eviction starts at the next stripe
+ * in turn and moves on to the others only if that one tracks no page.
+ * <p>
+ * A victim is the page its stripe's policy would choose, not always the one
+ * a single policy over the whole pool would choose.  With pages spread
+ * evenly over the stripes and evictions spread evenly over them in turn,
+ * the two differ little.
+ *
+ * @Threadsafe
+ */
+public class StripedReplacementPolicy implements ReplacementPolicy {
+
+    /** Fewest pages per stripe {@link #clock} gives a stripe. */
+    public static final int MIN_STRIPE_PAGES = 16;
+
+    private final ReplacementPolicy[] stripes;
+    private final AtomicInteger next; // The stripe the next eviction starts at.
+
+    /**
+     * @param stripes the policy of each stripe; none may be shared with
+     *        another BufferPool or StripedReplacementPolicy.
+     */
+    public StripedReplacementPolicy(ReplacementPolicy[] stripes) {
+        if (stripes.length == 0)
+            throw new IllegalArgumentException("need at least one stripe");
+        this.stripes = stripes.clone();
+        this.next = new AtomicInteger(0);
+    }
+
+    /**
+     * Creates CLOCK stripes for a BufferPool of numPages pages: two per
+     * processor, but none smaller than {@link #MIN_STRIPE_PAGES} pages, so
+     * that a small pool has a single stripe.
+     *
+     * @param numPages the number of pages of the BufferPool this policy serves.
+     */
+    public static StripedReplacementPolicy clock(int numPages) {
+        int n = Math.max(1, Math.min(numPages / MIN_STRIPE_PAGES,
+                2 * Runtime.getRuntime().availableProcessors()));
+        ReplacementPolicy[] stripes = new ReplacementPolicy[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new ClockReplacementPolicy((numPages + n - 1) / n);
+        }
+        return new StripedReplacementPolicy(stripes);
+    }
+
+    /** @return the number of stripes. */
+    public int numStripes() {
+        return this.stripes.length;
+    }
+
+    // The stripe of a page.  HeapPageId keeps the page number in the low
+    // bits, so consecutive pages of a table go to consecutive stripes.
+    private ReplacementPolicy stripeOf(PageId pid) {
+        int h = pid.hashCode();
+        h ^= (h >>> 16);
+        return this.stripes[(h & 0x7fffffff) % this.stripes.length];
+    }
+
+    public void pageAdded(PageId pid) {
+        stripeOf(pid).pageAdded(pid);
+    }
+
+    public void pageHit(PageId pid) {
+        stripeOf(pid).pageHit(pid);
+    }
+
+    public void pageRemoved(PageId pid) {
+        stripeOf(pid).pageRemoved(pid);
+    }
+
+    public void pageReinstated(PageId pid) {
+        stripeOf(pid).pageReinstated(pid);
+    }
+
+    public PageId evict() {
+        int n = this.stripes.length;
+        int start = (this.next.getAndIncrement() & 0x7fffffff) % n;
+        for (int i = 0; i < n; i++) {
+            PageId victim = this.stripes[(start + i) % n].evict();
+            if (victim != null) {
+                return victim;
+            }
+        }
+        return null;
+    }
+}
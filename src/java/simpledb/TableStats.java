@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -121,48 +122,53 @@ public class TableStats {
     	// Specifically, use Aggregators to get the MIN and MAX value of the integer column.
     	
     	int arity = this.td.numFields();
+    	
+    	// The MIN and MAX of every integer column, all computed in one scan.
+    	ArrayList<Integer> intCols = new ArrayList<Integer>();
     	for (int i = 0; i < arity; i++) {
     		if (this.td.getFieldType(i) == Type.INT_TYPE) {
-    			// We need to get the minimum and the maximum values for the column.
-    			Aggregate minAggr = new Aggregate(ss, i, -1, Aggregator.Op.MIN);
-    			int min = 0;
-    			try {
-					minAggr.open();
-					if (minAggr.hasNext()) {
-						Tuple t = minAggr.next();
-						min = ((IntField) t.getField(0)).getValue();
-					}
-					minAggr.close();
-				} catch (NoSuchElementException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (DbException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (TransactionAbortedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-    			
-    			Aggregate maxAggr = new Aggregate(ss, i, -1, Aggregator.Op.MAX);
-    			int max = 0;
-    			try {
-					maxAggr.open();
-					if (maxAggr.hasNext()) {
-						Tuple t = maxAggr.next();
-						max = ((IntField) t.getField(0)).getValue();
-					}
-					maxAggr.close();
-				} catch (NoSuchElementException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (DbException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				} catch (TransactionAbortedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
+    			intCols.add(i);
+    		}
+    	}
+    	int[] mins = new int[arity];
+    	int[] maxs = new int[arity];
+    	if (!intCols.isEmpty()) {
+    		int n = intCols.size();
+    		int[] afields = new int[2 * n];
+    		Aggregator.Op[] aops = new Aggregator.Op[2 * n];
+    		for (int k = 0; k < n; k++) {
+    			afields[2 * k] = intCols.get(k);
+    			aops[2 * k] = Aggregator.Op.MIN;
+    			afields[2 * k + 1] = intCols.get(k);
+    			aops[2 * k + 1] = Aggregator.Op.MAX;
+    		}
+    		Aggregate minMaxAggr = new Aggregate(ss, afields, aops, new int[0]);
+    		try {
+    			minMaxAggr.open();
+    			if (minMaxAggr.hasNext()) {
+    				Tuple t = minMaxAggr.next();
+    				for (int k = 0; k < n; k++) {
+    					mins[intCols.get(k)] = ((IntField) t.getField(2 * k)).getValue();
+    					maxs[intCols.get(k)] = ((IntField) t.getField(2 * k + 1)).getValue();
+    				}
+    			}
+    			minMaxAggr.close();
+    		} catch (NoSuchElementException e) {
+    			// TODO Auto-generated catch block
+    			e.printStackTrace();
+    		} catch (DbException e) {
+    			// TODO Auto-generated catch block
+    			e.printStackTrace();
+    		} catch (TransactionAbortedException e) {
+    			// TODO Auto-generated catch block
+    			e.printStackTrace();
+    		}
+    	}
+    	
+    	for (int i = 0; i < arity; i++) {
+    		if (this.td.getFieldType(i) == Type.INT_TYPE) {
+    			int min = mins[i];
+    			int max = maxs[i];
     			
     			// SeqScan the file and feed the histogram.
     			int buckets = NUM_HIST_BINS;
@@ -171,7 +177,7 @@ public class TableStats {
     			try {
 					ss.open();
 					while (ss.hasNext()) {
-						hist.addValue(((IntField) ss.next().getField(i)).getValue());
+						hist.addValue(ss.next().getInt(i));
 					}
 					ss.close();
 				} catch (DbException e) {
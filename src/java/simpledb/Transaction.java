@@ -43,20 +43,10 @@ public class Transaction {
     public void transactionComplete(boolean abort) throws IOException {
 
         if (started) {
-            //write commit / abort records
-            if (abort) {
-                Database.getLogFile().logAbort(tid); //does rollback too
-            } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
-                Database.getLogFile().logCommit(tid);
-            }
-
-            try {
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            // writes commit / abort records: on commit, logs the dirty
+            // pages and the commit record (the pages are not written out);
+            // on abort, rolls back.  Then releases locks
+            Database.getBufferPool().transactionComplete(tid, !abort);
 
             //setting this here means we could possibly write multiple abort records -- OK?
             started = false;
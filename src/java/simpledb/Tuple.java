@@ -2,23 +2,38 @@
 package simpledb;
 
 import java.io.Serializable;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.Vector;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The values are not kept as Field objects but in a flat layout given by
+ * the TupleDesc: int fields in an int array, and string fields in a byte
+ * array of {@link Type#STRING_LEN} bytes each, with their lengths in the int
+ * array.  Like a page on disk, a string keeps one byte per character.
+ * {@link #getInt} reads a value without allocating; {@link #getField}
+ * wraps the value in a new Field.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
     // Private members.
     
     private TupleDesc schema;
-    private Vector<Field> fields;
+    private int[] slots; // schema.slots()
+    // The int fields, then the string lengths, then one bit per field that
+    // is set.
+    private int[] ints;
+    private byte[] bytes; // The string fields; null if there are none.
     private RecordId rid;
     
     /**
@@ -30,17 +45,34 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
     	if (td != null) {
-    		this.schema = td;
-    		this.fields = new Vector<Field>();
-    		for (int i = 0; i < td.numFields(); i++) {
-    			this.fields.add(null);
-    		}
+    		allocate(td);
     		this.rid = null;
     	} else {
     		throw new IllegalArgumentException("In Tuple(TupleDesc td), td must not be null.");
     	}
     }
 
+    private void allocate(TupleDesc td) {
+    	this.schema = td;
+    	this.slots = td.slots();
+    	int strings = td.numStringFields();
+    	this.ints = new int[td.numIntFields() + strings + ((td.numFields() + 31) >>> 5)];
+    	this.bytes = strings == 0 ? null : new byte[strings * Type.STRING_LEN];
+    }
+
+    // Index of the word holding the set bit of field i.
+    private int setWord(int i) {
+    	return this.schema.numIntFields() + this.schema.numStringFields() + (i >>> 5);
+    }
+
+    private boolean isSet(int i) {
+    	return (this.ints[setWord(i)] & (1 << i)) != 0;
+    }
+
+    private void markSet(int i) {
+    	this.ints[setWord(i)] |= 1 << i;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -72,10 +104,98 @@ public class Tuple implements Serializable {
      * @param i
      *            index of the field to change. It must be a valid index.
      * @param f
-     *            new value for the field.
+     *            new value for the field, of the type of the field, or null
+     *            to unset it.
+     * @throws IllegalArgumentException
+     *             if f is not of the type of field i
      */
     public void setField(int i, Field f) {
-    	this.fields.set(i, f);
+    	if (f == null) {
+    		this.ints[setWord(i)] &= ~(1 << i);
+    	} else if (f instanceof IntField) {
+    		setInt(i, ((IntField) f).getValue());
+    	} else if (f instanceof StringField) {
+    		setString(i, ((StringField) f).getValue());
+    	} else {
+    		throw new IllegalArgumentException("unsupported field " + f.getClass().getName());
+    	}
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be an int
+     * field.
+     */
+    public void setInt(int i, int v) {
+    	int s = this.slots[i];
+    	if (s < 0)
+    		throw new IllegalArgumentException("field " + i + " is not an int field");
+    	this.ints[s] = v;
+    	markSet(i);
+    }
+
+    /**
+     * Change the value of the ith field of this tuple, which must be a string
+     * field. The string is cut to {@link Type#STRING_LEN} characters.
+     */
+    public void setString(int i, String v) {
+    	int s = this.slots[i];
+    	if (s >= 0)
+    		throw new IllegalArgumentException("field " + i + " is not a string field");
+    	int k = ~s;
+    	int len = Math.min(v.length(), Type.STRING_LEN);
+    	int off = k * Type.STRING_LEN;
+    	for (int j = 0; j < len; j++)
+    		this.bytes[off + j] = (byte) v.charAt(j);
+    	this.ints[this.schema.numIntFields() + k] = len;
+    	markSet(i);
+    }
+
+    /**
+     * Set the ith field of this tuple to the field serialized at an offset of
+     * a buffer, as written by {@link Field#serialize}, without building a
+     * Field.
+     */
+    void readField(int i, ByteBuffer buf, int offset) throws ParseException {
+    	int s = this.slots[i];
+    	if (s >= 0) {
+    		this.ints[s] = buf.getInt(offset);
+    	} else {
+    		int k = ~s;
+    		int len = buf.getInt(offset);
+    		if (len < 0 || len > Type.STRING_LEN)
+    			throw new ParseException("couldn't parse", offset);
+    		int off = k * Type.STRING_LEN;
+    		for (int j = 0; j < len; j++)
+    			this.bytes[off + j] = buf.get(offset + 4 + j);
+    		this.ints[this.schema.numIntFields() + k] = len;
+    	}
+    	markSet(i);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an int field; 0 if it
+     *         has not been set.
+     */
+    public int getInt(int i) {
+    	int s = this.slots[i];
+    	if (s < 0)
+    		throw new IllegalArgumentException("field " + i + " is not an int field");
+    	return this.ints[s];
+    }
+
+    /**
+     * @return the value of the ith field, which must be a string field, or
+     *         null if it has not been set.
+     */
+    public String getString(int i) {
+    	int s = this.slots[i];
+    	if (s >= 0)
+    		throw new IllegalArgumentException("field " + i + " is not a string field");
+    	if (!isSet(i))
+    		return null;
+    	int k = ~s;
+    	return new String(this.bytes, k * Type.STRING_LEN,
+    			this.ints[this.schema.numIntFields() + k], LATIN1);
     }
 
     /**
@@ -85,7 +205,12 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
-        return this.fields.get(i);
+    	if (!isSet(i))
+    		return null;
+    	int s = this.slots[i];
+    	if (s >= 0)
+    		return new IntField(this.ints[s]);
+    	return new StringField(getString(i), Type.STRING_LEN);
     }
 
     /**
@@ -98,9 +223,17 @@ public class Tuple implements Serializable {
      */
     public String toString() {
     	StringBuffer sb = new StringBuffer("");
-        for (int i = 0; i < this.fields.size(); i++) {
-        	sb.append(this.fields.get(i).toString());
-        	if (i == this.fields.size() - 1) {
+    	int n = this.slots.length;
+        for (int i = 0; i < n; i++) {
+        	int s = this.slots[i];
+        	if (!isSet(i)) {
+        		sb.append("null");
+        	} else if (s >= 0) {
+        		sb.append(this.ints[s]);
+        	} else {
+        		sb.append(getString(i));
+        	}
+        	if (i == n - 1) {
         		sb.append('\n');
         	} else {
         		sb.append('\t');
@@ -115,7 +248,11 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-        return this.fields.iterator();
+    	ArrayList<Field> fields = new ArrayList<Field>(this.slots.length);
+    	for (int i = 0; i < this.slots.length; i++) {
+    		fields.add(getField(i));
+    	}
+        return fields.iterator();
     }
     
     /**
@@ -123,7 +260,6 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
-    	this.schema = td;
-    	this.fields = new Vector<Field>(td.numFields());
+    	allocate(td);
     }
 }
@@ -0,0 +1,182 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of a TupleDesc column by
+ * column: each int field is a primitive int array and each string field an
+ * array of Strings, indexed by row.  A selection vector lists the rows that
+ * are part of the batch, in order; operators such as Filter drop rows by
+ * shrinking the selection instead of copying the columns.
+ * <p>
+ * Batches are handed out by {@link BatchIterator#nextBatch} and are only
+ * valid until the next call to it, since operators reuse their batches.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows a batch holds unless asked otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    final TupleDesc td;
+    final int capacity;
+    final int[][] ints; // Column of each int field, or null.
+    final String[][] strings; // Column of each string field, or null.
+    int size; // Rows filled.
+    final int[] sel; // Selected rows, in order.
+    int numSelected;
+
+    /**
+     * Creates an empty batch of {@link #DEFAULT_CAPACITY} rows.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td
+     *            the schema of the rows
+     * @param capacity
+     *            the number of rows the batch can hold
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.strings = new String[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                this.ints[i] = new int[capacity];
+            else
+                this.strings[i] = new String[capacity];
+        }
+        this.sel = new int[capacity];
+    }
+
+    // A batch sharing the columns and selection of another one.
+    private TupleBatch(TupleDesc td, int[][] ints, String[][] strings,
+            TupleBatch of) {
+        this.td = td;
+        this.capacity = of.capacity;
+        this.ints = ints;
+        this.strings = strings;
+        this.size = of.size;
+        this.sel = of.sel;
+        this.numSelected = of.numSelected;
+    }
+
+    /** @return the schema of the rows. */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return the number of rows filled, selected or not. */
+    public int size() {
+        return this.size;
+    }
+
+    /** @return true if no more rows can be added. */
+    public boolean isFull() {
+        return this.size == this.capacity;
+    }
+
+    /** @return the number of selected rows. */
+    public int numSelected() {
+        return this.numSelected;
+    }
+
+    /** @return the row of the kth selected row. */
+    public int selected(int k) {
+        return this.sel[k];
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        this.size = 0;
+        this.numSelected = 0;
+    }
+
+    /**
+     * Appends an empty row and selects it; its fields must then be set
+     * through the columns.
+     *
+     * @return the new row
+     */
+    int addRow() {
+        int row = this.size++;
+        this.sel[this.numSelected++] = row;
+        return row;
+    }
+
+    /** Appends the fields of a tuple of the same schema as a selected row. */
+    public void add(Tuple t) {
+        int row = addRow();
+        for (int i = 0; i < this.ints.length; i++) {
+            if (this.ints[i] != null)
+                this.ints[i][row] = t.getInt(i);
+            else
+                this.strings[i][row] = t.getString(i);
+        }
+    }
+
+    /** @return the column of int field i, indexed by row. */
+    public int[] intColumn(int i) {
+        if (this.ints[i] == null)
+            throw new IllegalArgumentException("field " + i + " is not an int field");
+        return this.ints[i];
+    }
+
+    /** @return the column of string field i, indexed by row. */
+    public String[] stringColumn(int i) {
+        if (this.strings[i] == null)
+            throw new IllegalArgumentException("field " + i + " is not a string field");
+        return this.strings[i];
+    }
+
+    /** @return field i of a row, as a Field. */
+    public Field getField(int i, int row) {
+        if (this.ints[i] != null)
+            return new IntField(this.ints[i][row]);
+        return new StringField(this.strings[i][row], Type.STRING_LEN);
+    }
+
+    /** Copies the fields of a row into fields from, from + 1, ... of t. */
+    void copyRow(int row, Tuple t, int from) {
+        for (int i = 0; i < this.ints.length; i++) {
+            if (this.ints[i] != null)
+                t.setInt(from + i, this.ints[i][row]);
+            else if (this.strings[i][row] != null)
+                t.setString(from + i, this.strings[i][row]);
+        }
+    }
+
+    /** @return a new tuple holding a row. */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(this.td);
+        copyRow(row, t, 0);
+        return t;
+    }
+
+    /**
+     * Returns a batch of some of the fields of this one, sharing its columns
+     * and selection.
+     *
+     * @param fields
+     *            the fields of this batch that make up the new one, in order
+     * @param td
+     *            the schema of the new batch
+     */
+    public TupleBatch project(int[] fields, TupleDesc td) {
+        int[][] pints = new int[fields.length][];
+        String[][] pstrings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            pints[i] = this.ints[fields[i]];
+            pstrings[i] = this.strings[fields[i]];
+        }
+        return new TupleBatch(td, pints, pstrings, this);
+    }
+}
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Builds the comparator of a sort once, from the types of its key fields.
+ * Each key is compared by a class specialized for its type and direction
+ * that reads the int or String value of the fields directly, rather than
+ * going through {@link Field#compare}.
+ */
+abstract class TupleComparator implements Comparator<Tuple> {
+
+    /**
+     * @return a comparator ordering tuples of the given schema on the given
+     *         fields, most significant first.
+     */
+    static Comparator<Tuple> create(TupleDesc td, int[] fields, boolean[] asc) {
+        TupleComparator[] keys = new TupleComparator[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            keys[i] = forKey(td.getFieldType(fields[i]), fields[i], asc[i]);
+        if (keys.length == 1)
+            return keys[0];
+        if (keys.length == 2)
+            return new TwoKeys(keys[0], keys[1]);
+        return new ManyKeys(keys);
+    }
+
+    private static TupleComparator forKey(Type type, int field, boolean asc) {
+        switch (type) {
+        case INT_TYPE:
+            return asc ? new IntAsc(field) : new IntDesc(field);
+        case STRING_TYPE:
+            return asc ? new StringAsc(field) : new StringDesc(field);
+        default:
+            throw new IllegalArgumentException("cannot sort on " + type);
+        }
+    }
+
+    final int field;
+
+    TupleComparator(int field) {
+        this.field = field;
+    }
+
+    static int intOf(Tuple t, int field) {
+        return t.getInt(field);
+    }
+
+    static String stringOf(Tuple t, int field) {
+        return t.getString(field);
+    }
+
+    static final class IntAsc extends TupleComparator {
+        IntAsc(int field) { super(field); }
+        public int compare(Tuple o1, Tuple o2) {
+            int a = intOf(o1, field), b = intOf(o2, field);
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+
+    static final class IntDesc extends TupleComparator {
+        IntDesc(int field) { super(field); }
+        public int compare(Tuple o1, Tuple o2) {
+            int a = intOf(o1, field), b = intOf(o2, field);
+            return a > b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+
+    static final class StringAsc extends TupleComparator {
+        StringAsc(int field) { super(field); }
+        public int compare(Tuple o1, Tuple o2) {
+            return stringOf(o1, field).compareTo(stringOf(o2, field));
+        }
+    }
+
+    static final class StringDesc extends TupleComparator {
+        StringDesc(int field) { super(field); }
+        public int compare(Tuple o1, Tuple o2) {
+            return stringOf(o2, field).compareTo(stringOf(o1, field));
+        }
+    }
+
+    static final class TwoKeys implements Comparator<Tuple> {
+        private final TupleComparator first, second;
+
+        TwoKeys(TupleComparator first, TupleComparator second) {
+            this.first = first;
+            this.second = second;
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            int c = first.compare(o1, o2);
+            return c != 0 ? c : second.compare(o1, o2);
+        }
+    }
+
+    static final class ManyKeys implements Comparator<Tuple> {
+        private final TupleComparator[] keys;
+
+        ManyKeys(TupleComparator[] keys) {
+            this.keys = keys;
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            for (TupleComparator k : keys) {
+                int c = k.compare(o1, o2);
+                if (c != 0)
+                    return c;
+            }
+            return 0;
+        }
+    }
+}
@@ -38,6 +38,12 @@ public class TupleDesc implements Serializable {
 
  	// The container for holding items.   
     private Vector<TDItem> items;
+
+    // Layout of the fields in a Tuple of this TupleDesc: the slot of an int
+    // field in the int array of the tuple, or ~k for the kth string field.
+    private int[] slots;
+    private int numInts;
+    private int numStrings;
     
     /**
      * @return
@@ -67,6 +73,7 @@ public class TupleDesc implements Serializable {
     	for (int i = 0; i < typeAr.length; i++) {
     		this.items.add(new TDItem(typeAr[i], fieldAr[i]));
     	}
+    	layout(typeAr);
     }
 
     /**
@@ -83,6 +90,37 @@ public class TupleDesc implements Serializable {
     	for (int i = 0; i < typeAr.length; i++) {
     		this.items.add(new TDItem(typeAr[i], null));
     	}
+    	layout(typeAr);
+    }
+
+    private void layout(Type[] typeAr) {
+    	this.slots = new int[typeAr.length];
+    	for (int i = 0; i < typeAr.length; i++) {
+    		if (typeAr[i] == Type.INT_TYPE) {
+    			this.slots[i] = this.numInts++;
+    		} else {
+    			this.slots[i] = ~this.numStrings++;
+    		}
+    	}
+    }
+
+    /**
+     * @return the slot of each field in a {@link Tuple} of this TupleDesc:
+     *         the index of an int field among the int fields, or ~k for the
+     *         kth string field. Must not be modified.
+     */
+    int[] slots() {
+    	return this.slots;
+    }
+
+    /** @return the number of int fields. */
+    int numIntFields() {
+    	return this.numInts;
+    }
+
+    /** @return the number of string fields. */
+    int numStringFields() {
+    	return this.numStrings;
     }
 
     /**
@@ -170,6 +208,25 @@ public class TupleDesc implements Serializable {
         return accumulator;
     }
     
+    /**
+     * @return The offset (in bytes) of the ith field from the start of a
+     *         serialized tuple of this TupleDesc.
+     * @param i
+     *            index of the field. It must be a valid index.
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getFieldOffset(int i) throws NoSuchElementException {
+        if (i < 0 || i >= this.items.size()) {
+        	throw new NoSuchElementException();
+        }
+    	int accumulator = 0;
+    	for (int j = 0; j < i; j++) {
+    		accumulator += this.items.get(j).fieldType.getLen();
+    	}
+        return accumulator;
+    }
+
     /**
      * Merge two TupleDescs into one, with td1.numFields + td2.numFields fields,
      * with the first td1.numFields coming from td1 and the remaining from td2.
@@ -201,6 +258,27 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(typeAr, fieldAr);
     }
 
+    /**
+     * Returns a TupleDesc of some of the fields of td.
+     * 
+     * @param td
+     *            The TupleDesc to take fields from
+     * @param fields
+     *            The fields of td that make up the new TupleDesc, in order
+     * @return the new TupleDesc
+     */
+    public static TupleDesc project(TupleDesc td, int[] fields) {
+    	Type[] typeAr = new Type[fields.length];
+    	String[] fieldAr = new String[fields.length];
+    	
+    	for (int i = 0; i < fields.length; i++) {
+    		typeAr[i] = td.getFieldType(fields[i]);
+    		fieldAr[i] = td.getFieldName(fields[i]);
+    	}
+    	
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they are the same size and if the n-th
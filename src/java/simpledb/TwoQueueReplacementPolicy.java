@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+
+/**
+ * Scan-resistant 2Q replacement (Johnson and Shasha, VLDB '94).
+ * <p>
+ * A page read for the first time goes into a small FIFO probation queue
+ * (A1in).  When it is evicted from there its id is remembered in a ghost
+ * queue (A1out) that holds no data.  A page is admitted to the main LRU
+ * queue (Am) only when it is requested a second time, either while still
+ * in A1in or while its id is in A1out.  A SeqScan requests each page once
+ * per pass, so a pass over a large table only cycles through A1in and never
+ * pushes frequently used pages out of Am.
+ *
+ * @Threadsafe
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    /** Default share of the pool used as the probation queue. */
+    public static final double DEFAULT_IN_FRACTION = 0.25;
+    /** Default size of the ghost queue, relative to the pool size. */
+    public static final double DEFAULT_OUT_FRACTION = 0.5;
+
+    private final int maxIn; // Target size of A1in.
+    private final int maxOut; // Max number of ids remembered in A1out.
+
+    private final LinkedHashSet<PageId> in; // A1in, FIFO of resident pages.
+    private final LinkedHashSet<PageId> out; // A1out, FIFO of ghost ids.
+    private final LinkedHashMap<PageId, Boolean> main; // Am, access-ordered.
+
+    /**
+     * Creates a 2Q policy using the default queue sizes.
+     *
+     * @param numPages the number of pages of the BufferPool this policy serves.
+     */
+    public TwoQueueReplacementPolicy(int numPages) {
+        this(numPages, DEFAULT_IN_FRACTION, DEFAULT_OUT_FRACTION);
+    }
+
+    /**
+     * @param numPages the number of pages of the BufferPool this policy serves.
+     * @param inFraction share of the pool reserved for first-time pages.
+     * @param outFraction number of evicted ids to remember, as a share of
+     *        the pool size.
+     */
+    public TwoQueueReplacementPolicy(int numPages, double inFraction, double outFraction) {
+        this.maxIn = Math.max(1, (int) (numPages * inFraction));
+        this.maxOut = Math.max(1, (int) (numPages * outFraction));
+        this.in = new LinkedHashSet<PageId>();
+        this.out = new LinkedHashSet<PageId>();
+        this.main = new LinkedHashMap<PageId, Boolean>(16, 0.75f, true);
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (this.main.containsKey(pid) || this.in.contains(pid)) {
+            return;
+        }
+        if (this.out.remove(pid)) {
+            // Seen recently enough to count as a re-reference.
+            this.main.put(pid, Boolean.TRUE);
+        } else {
+            this.in.add(pid);
+        }
+    }
+
+    public synchronized void pageHit(PageId pid) {
+        if (this.in.remove(pid)) {
+            this.main.put(pid, Boolean.TRUE);
+        } else {
+            this.main.get(pid);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (!this.in.remove(pid)) {
+            this.main.remove(pid);
+        }
+        this.out.remove(pid);
+    }
+
+    /**
+     * Puts a page back into the queue it was evicted from.  A page evicted
+     * from A1in is the one whose id is in A1out; it goes back to A1in, so
+     * that being passed over does not count as a second reference.  One
+     * evicted from Am goes back to Am.
+     */
+    public synchronized void pageReinstated(PageId pid) {
+        if (this.main.containsKey(pid) || this.in.contains(pid)) {
+            return;
+        }
+        if (this.out.remove(pid)) {
+            this.in.add(pid);
+        } else {
+            this.main.put(pid, Boolean.TRUE);
+        }
+    }
+
+    public synchronized PageId evict() {
+        if (!this.in.isEmpty() && (this.in.size() >= this.maxIn || this.main.isEmpty())) {
+            PageId victim = removeFirst(this.in);
+            this.out.add(victim);
+            if (this.out.size() > this.maxOut) {
+                removeFirst(this.out);
+            }
+            return victim;
+        }
+        if (this.main.isEmpty()) {
+            return null;
+        }
+        return removeFirst(this.main.keySet());
+    }
+
+    private static PageId removeFirst(Iterable<PageId> queue) {
+        Iterator<PageId> it = queue.iterator();
+        PageId first = it.next();
+        it.remove();
+        return first;
+    }
+}
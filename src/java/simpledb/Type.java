@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,11 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +48,16 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) throws ParseException {
+            int strLen = buf.getInt(offset);
+            if (strLen < 0 || strLen > STRING_LEN) {
+                throw new ParseException("couldn't parse", offset);
+            }
+            // One byte per char, as HeapPage and Tuple decode it.
+            return new StringField(HeapPage.readString(buf, offset), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +76,15 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the specified buffer, starting at an absolute offset.  The
+   *   position of the buffer is not changed.
+   * @param buf The buffer to read from
+   * @param offset The offset of the first byte of the field in buf
+   * @throws ParseException if the bytes at offset are not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf, int offset) throws ParseException;
+
 }
@@ -5,10 +5,16 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +182,144 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates at once
+   */
+  @Test public void multipleAggregates() throws Exception {
+    Aggregate op = new Aggregate(scan1, new int[] { 1, 1, 1, 1 },
+        new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+            Aggregator.Op.SUM, Aggregator.Op.COUNT },
+        new int[] { 0 });
+    assertEquals(5, op.getTupleDesc().numFields());
+    String max = Aggregate.nameOfAggregatorOp(Aggregator.Op.MAX) + "("
+        + scan1.getTupleDesc().getFieldName(1) + ")";
+    assertEquals(max, op.getTupleDesc().getFieldName(2));
+    assertEquals(2, op.getTupleDesc().fieldNameToIndex(max));
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(5,
+        new int[] { 1, 2, 6, 12, 3,
+                    3, 2, 6, 12, 3,
+                    5, 7, 7, 7, 1 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Result tuples carry the TupleDesc of the Aggregate, field names
+   * included, also for groups that were spilled to disk
+   */
+  @Test public void resultTupleDesc() throws Exception {
+    Database.resetBufferPool(2); // spill most of the groups
+    int[] values = new int[2 * 2000];
+    for (int i = 0; i < 2000; i++) {
+      values[2 * i] = i;
+      values[2 * i + 1] = i % 7;
+    }
+    Aggregate op = new Aggregate(TestUtil.createTupleList(width1, values),
+        new int[] { 1, 1 }, new Aggregator.Op[] { Aggregator.Op.SUM,
+            Aggregator.Op.COUNT }, new int[] { 0 });
+    TupleDesc td = op.getTupleDesc();
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      TupleDesc actual = op.next().getTupleDesc();
+      for (int i = 0; i < td.numFields(); i++)
+        assertEquals(td.getFieldName(i), actual.getFieldName(i));
+      n++;
+    }
+    assertEquals(2000, n);
+  }
+
+  /**
+   * Unit test for Aggregate.getNext() grouping on two fields
+   */
+  @Test public void compositeGroupBy() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new Object[] { 1, "a", 2,
+                    1, "b", 4,
+                    1, "a", 6,
+                    3, "a", 2,
+                    3, "a", 4 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 1 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.COUNT },
+        new int[] { 0, 1 });
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(4,
+        new Object[] { 1, "a", 8, 2,
+                    1, "b", 4, 1,
+                    3, "a", 6, 2 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Several aggregates with a two-field GROUP BY, through the parser
+   */
+  @Test public void multipleAggregatesQuery() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 500, 4, null,
+        tuples, "c");
+    Database.getCatalog().addTable(f, "t");
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+
+    // {min, max, count} of c2 for each (c0, c1)
+    HashMap<List<Integer>, int[]> groups = new HashMap<List<Integer>, int[]>();
+    for (ArrayList<Integer> t : tuples) {
+      List<Integer> key = Arrays.asList(t.get(0), t.get(1));
+      int[] g = groups.get(key);
+      if (g == null) {
+        g = new int[] { Integer.MAX_VALUE, Integer.MIN_VALUE, 0 };
+        groups.put(key, g);
+      }
+      g[0] = Math.min(g[0], t.get(2));
+      g[1] = Math.max(g[1], t.get(2));
+      g[2]++;
+    }
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c1, MAX(t.c2), t.c0, COUNT(t.c2), MIN(t.c2) FROM t GROUP BY t.c0, t.c1;");
+    DbIterator it = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int[] g = groups.get(Arrays.asList(((IntField) t.getField(2)).getValue(),
+          ((IntField) t.getField(0)).getValue()));
+      assertNotNull(g);
+      assertEquals(g[1], ((IntField) t.getField(1)).getValue());
+      assertEquals(g[2], ((IntField) t.getField(3)).getValue());
+      assertEquals(g[0], ((IntField) t.getField(4)).getValue());
+      n++;
+    }
+    assertEquals(groups.size(), n);
+    it.close();
+  }
+
+  /**
+   * ORDER BY a field that is aggregated orders by its aggregate
+   */
+  @Test public void orderByAggregatedField() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 50, null,
+        tuples, "c");
+    Database.getCatalog().addTable(f, "t");
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c0, SUM(t.c1) FROM t GROUP BY t.c0 ORDER BY t.c1;");
+    DbIterator it = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    it.open();
+    int last = Integer.MIN_VALUE;
+    while (it.hasNext()) {
+      int sum = ((IntField) it.next().getField(1)).getValue();
+      assertTrue(sum >= last);
+      last = sum;
+    }
+    it.close();
+  }
+
   /**
    * JUnit suite target
    */
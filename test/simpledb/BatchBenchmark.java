@@ -0,0 +1,97 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the per-row CPU cost of a scan-filter-aggregate query,
+ * <pre>SELECT c2, SUM(c1) FROM t WHERE c0 &lt; 500 GROUP BY c2</pre>
+ * run a tuple at a time through next() and mergeTupleIntoGroup, against the
+ * same operators read a batch at a time through nextBatch() and mergeBatch.
+ * The buffer pool holds the whole table, so no I/O is measured.  Each run
+ * is repeated after warm-up rounds and the best round is reported.
+ * <p>
+ * Not run as part of the test suite; run it with
+ * <pre>java -cp ... simpledb.BatchBenchmark [rows] [rounds]</pre>
+ */
+public class BatchBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, rows, 1000, null, null);
+        Database.resetBufferPool(f.numPages() + 16);
+        Database.getCatalog().addTable(f, "t");
+
+        long tuple = Long.MAX_VALUE, batch = Long.MAX_VALUE;
+        int tupleGroups = 0, batchGroups = 0;
+        for (int r = 0; r < rounds + 2; r++) {
+            long start = System.nanoTime();
+            tupleGroups = runTuples(f);
+            long t = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            batchGroups = runBatches(f);
+            long b = System.nanoTime() - start;
+
+            if (r >= 2) { // The first rounds warm up the JIT and the pool.
+                tuple = Math.min(tuple, t);
+                batch = Math.min(batch, b);
+            }
+        }
+        if (tupleGroups != batchGroups)
+            throw new IllegalStateException("results differ: " + tupleGroups
+                    + " groups against " + batchGroups);
+        report("tuple at a time", rows, tuple);
+        report("batch at a time", rows, batch);
+    }
+
+    private static Filter query(HeapFile f) {
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "t");
+        return new Filter(new Predicate(0, Predicate.Op.LESS_THAN,
+                new IntField(500)), scan);
+    }
+
+    private static int drain(HashAggregator agg) throws Exception {
+        DbIterator it = agg.iterator();
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static int runTuples(HeapFile f) throws Exception {
+        Filter filter = query(f);
+        IntegerAggregator agg = new IntegerAggregator(2, Type.INT_TYPE, 1,
+                Aggregator.Op.SUM);
+        filter.open();
+        while (filter.hasNext())
+            agg.mergeTupleIntoGroup(filter.next());
+        filter.close();
+        return drain(agg);
+    }
+
+    private static int runBatches(HeapFile f) throws Exception {
+        Filter filter = query(f);
+        IntegerAggregator agg = new IntegerAggregator(2, Type.INT_TYPE, 1,
+                Aggregator.Op.SUM);
+        filter.open();
+        TupleBatch b;
+        while ((b = filter.nextBatch()) != null)
+            agg.mergeBatch(b);
+        filter.close();
+        return drain(agg);
+    }
+
+    private static void report(String name, int rows, long nanos) {
+        System.out.println(String.format("%-16s %d rows in %d ms (%.1f ns/row)",
+                name, rows, nanos / 1000000, (double) nanos / rows));
+    }
+}
@@ -0,0 +1,242 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BatchIteratorTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 3000;
+
+  ArrayList<ArrayList<Integer>> tuples;
+  HeapFile f;
+
+  @Before public void createTable() throws Exception {
+    tuples = new ArrayList<ArrayList<Integer>>();
+    f = SystemTestUtil.createRandomHeapFile(3, ROWS, 1000, null, tuples);
+  }
+
+  private SeqScan scan() {
+    return new SeqScan(new TransactionId(), f.getId(), "t");
+  }
+
+  /**
+   * A SeqScan read in batches returns every tuple of the table, in full
+   * batches except the last.
+   */
+  @Test public void seqScanBatches() throws Exception {
+    SeqScan ss = scan();
+    ss.open();
+    int n = 0;
+    TupleBatch b;
+    while ((b = ss.nextBatch()) != null) {
+      assertTrue(n + b.numSelected() == ROWS
+          || b.numSelected() == TupleBatch.DEFAULT_CAPACITY);
+      n += b.numSelected();
+    }
+    assertEquals(ROWS, n);
+    ss.rewind();
+    assertEquals(TupleBatch.DEFAULT_CAPACITY, ss.nextBatch().numSelected());
+    ss.close();
+
+    SystemTestUtil.matchTuples(new BatchTupleIterator(scan()), tuples);
+  }
+
+  /**
+   * A SeqScan read in batches, closed and re-opened, starts from the first
+   * page again; so does an Aggregate reading one.
+   */
+  @Test public void seqScanReopen() throws Exception {
+    SeqScan ss = scan();
+    for (int pass = 0; pass < 2; pass++) {
+      ss.open();
+      int n = 0;
+      TupleBatch b;
+      while ((b = ss.nextBatch()) != null)
+        n += b.numSelected();
+      assertEquals(ROWS, n);
+      ss.close();
+    }
+
+    Aggregate op = new Aggregate(scan(), 0, Aggregator.NO_GROUPING,
+        Aggregator.Op.COUNT);
+    for (int pass = 0; pass < 2; pass++) {
+      op.open();
+      assertEquals(ROWS, ((IntField) op.next().getField(0)).getValue());
+      op.close();
+    }
+  }
+
+  /**
+   * Filter narrows the selection of the batches of its child.
+   */
+  @Test public void filterBatches() throws Exception {
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(1) < 300)
+        expected.add(t);
+    }
+    Filter op = new Filter(new Predicate(1, Predicate.Op.LESS_THAN,
+        new IntField(300)), scan());
+    SystemTestUtil.matchTuples(new BatchTupleIterator(op), expected);
+  }
+
+  /**
+   * Filter on a string field, over a child that only returns tuples.
+   */
+  @Test public void stringFilterBatches() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(2,
+        new Object[] { 1, "a", 2, "b", 3, "a", 4, "c" });
+    Filter op = new Filter(new Predicate(1, Predicate.Op.EQUALS,
+        new StringField("a", Type.STRING_LEN)), scan);
+    DbIterator expected = TestUtil.createTupleList(2,
+        new Object[] { 1, "a", 3, "a" });
+    expected.open();
+    DbIterator actual = new BatchTupleIterator(op);
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+  }
+
+  /**
+   * A SeqScan with pushed-down predicates and projection list returns, a
+   * tuple or a batch at a time, the listed fields of the tuples that pass.
+   */
+  @Test public void pushdownBatches() throws Exception {
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) >= 200 && t.get(2) < 700) {
+        ArrayList<Integer> p = new ArrayList<Integer>();
+        p.add(t.get(1));
+        expected.add(p);
+      }
+    }
+    Predicate[] preds = {
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(200)),
+        new Predicate(2, Predicate.Op.LESS_THAN, new IntField(700)) };
+    SeqScan ss = new SeqScan(new TransactionId(), f.getId(), "t", preds,
+        new int[] { 1 });
+    assertEquals(1, ss.getTupleDesc().numFields());
+    SystemTestUtil.matchTuples(ss, expected);
+    SystemTestUtil.matchTuples(new BatchTupleIterator(
+        new SeqScan(new TransactionId(), f.getId(), "t", preds, new int[] { 1 })),
+        expected);
+  }
+
+  /**
+   * Project hands out batches sharing the columns of its child's.
+   */
+  @Test public void projectBatches() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(2);
+    fields.add(0);
+    Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+    Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ,
+        new IntField(500)), scan());
+    Project op = new Project(fields, types, filter);
+
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) >= 500) {
+        ArrayList<Integer> p = new ArrayList<Integer>();
+        p.add(t.get(2));
+        p.add(t.get(0));
+        expected.add(p);
+      }
+    }
+    SystemTestUtil.matchTuples(new BatchTupleIterator(op), expected);
+  }
+
+  /**
+   * Aggregate reads a batching child in batches, and hands out batches.
+   */
+  @Test public void aggregateBatches() throws Exception {
+    Database.resetBufferPool(2); // spill some of the groups
+    HashMap<Integer, Integer> sums = new HashMap<Integer, Integer>();
+    for (ArrayList<Integer> t : tuples) {
+      Integer s = sums.get(t.get(0));
+      sums.put(t.get(0), (s == null ? 0 : s) + t.get(1));
+    }
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (Integer k : sums.keySet()) {
+      ArrayList<Integer> e = new ArrayList<Integer>();
+      e.add(k);
+      e.add(sums.get(k));
+      expected.add(e);
+    }
+    Aggregate op = new Aggregate(scan(), 1, 0, Aggregator.Op.SUM);
+    SystemTestUtil.matchTuples(op, expected);
+    SystemTestUtil.matchTuples(new BatchTupleIterator(
+        new Aggregate(scan(), 1, 0, Aggregator.Op.SUM)), expected);
+  }
+
+  /**
+   * HashEquiJoin builds joined rows in its output batches, also when both
+   * inputs are partitioned to disk.
+   */
+  @Test public void hashJoinBatches() throws Exception {
+    Database.resetBufferPool(2);
+    int[] data1 = new int[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      data1[2 * i] = i % 500;
+      data1[2 * i + 1] = i;
+    }
+    int[] data2 = new int[2 * 1000];
+    for (int i = 0; i < 1000; i++) {
+      data2[2 * i] = i;
+      data2[2 * i + 1] = -i;
+    }
+    HashEquiJoin op = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        TestUtil.createTupleList(2, data1), TestUtil.createTupleList(2, data2));
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      int n = 0;
+      TupleBatch b;
+      while ((b = op.nextBatch()) != null) {
+        int[] k1 = b.intColumn(0), k2 = b.intColumn(2), v2 = b.intColumn(3);
+        for (int k = 0; k < b.numSelected(); k++) {
+          int row = b.selected(k);
+          assertEquals(k1[row], k2[row]);
+          assertEquals(-k2[row], v2[row]);
+          n++;
+        }
+      }
+      assertEquals(3000, n);
+      op.rewind();
+    }
+    op.close();
+  }
+
+  /**
+   * BatchAdapter and BatchTupleIterator convert between the two interfaces.
+   */
+  @Test public void adapters() throws Exception {
+    DbIterator list = TestUtil.createTupleList(2,
+        new int[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+    DbIterator it = new BatchTupleIterator(new BatchAdapter(list, 2));
+    DbIterator expected = TestUtil.createTupleList(2,
+        new int[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+    it.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, it);
+    it.rewind();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, it);
+    it.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BatchIteratorTest.class);
+  }
+}
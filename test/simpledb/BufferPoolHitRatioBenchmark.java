@@ -0,0 +1,81 @@
+package simpledb;
+
+import java.util.Random;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the BufferPool hit ratio of each ReplacementPolicy on a workload
+ * that mixes full SeqScans of a large "fact" table with random point
+ * lookups on the pages of a small, hot "dimension" table.
+ * <p>
+ * Not run as part of the test suite; run it with
+ * <pre>java -cp ... simpledb.BufferPoolHitRatioBenchmark</pre>
+ */
+public class BufferPoolHitRatioBenchmark {
+
+    private static final int POOL_PAGES = 64;
+    private static final int FACT_ROWS = 200000; // ~400 pages of 2 ints.
+    private static final int DIM_ROWS = 12000; // ~24 pages of 2 ints.
+    private static final int ROUNDS = 20;
+    private static final int LOOKUPS_PER_ROUND = 2000;
+
+    /** Counts hits and misses reported to the wrapped policy. */
+    private static class CountingPolicy implements ReplacementPolicy {
+        private final ReplacementPolicy inner;
+        long hits, misses;
+
+        CountingPolicy(ReplacementPolicy inner) {
+            this.inner = inner;
+        }
+
+        public void pageAdded(PageId pid) { misses++; inner.pageAdded(pid); }
+        public void pageHit(PageId pid) { hits++; inner.pageHit(pid); }
+        public void pageRemoved(PageId pid) { inner.pageRemoved(pid); }
+        public PageId evict() { return inner.evict(); }
+        public void pageReinstated(PageId pid) { inner.pageReinstated(pid); }
+    }
+
+    public static void main(String[] args) throws Exception {
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, FACT_ROWS, null, null);
+        HeapFile dim = SystemTestUtil.createRandomHeapFile(2, DIM_ROWS, null, null);
+        System.out.println("fact pages: " + fact.numPages() + ", dimension pages: "
+                + dim.numPages() + ", pool pages: " + POOL_PAGES);
+
+        run("LRU", new LruReplacementPolicy(POOL_PAGES), fact, dim);
+        run("CLOCK", new ClockReplacementPolicy(POOL_PAGES), fact, dim);
+        run("CLOCK x4", new StripedReplacementPolicy(new ReplacementPolicy[] {
+                new ClockReplacementPolicy(POOL_PAGES / 4), new ClockReplacementPolicy(POOL_PAGES / 4),
+                new ClockReplacementPolicy(POOL_PAGES / 4), new ClockReplacementPolicy(POOL_PAGES / 4)
+            }), fact, dim);
+        run("2Q", new TwoQueueReplacementPolicy(POOL_PAGES), fact, dim);
+    }
+
+    private static void run(String name, ReplacementPolicy policy, HeapFile fact, HeapFile dim)
+            throws Exception {
+        CountingPolicy counting = new CountingPolicy(policy);
+        BufferPool bp = Database.resetBufferPool(POOL_PAGES, counting);
+        Random r = new Random(42);
+        TransactionId tid = new TransactionId();
+        long lookupHits = 0, lookups = 0;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int i = 0; i < LOOKUPS_PER_ROUND; i++) {
+                long before = counting.hits;
+                bp.getPage(tid, new HeapPageId(dim.getId(), r.nextInt(dim.numPages())), Permissions.READ_ONLY);
+                lookupHits += counting.hits - before;
+                lookups++;
+            }
+            SeqScan scan = new SeqScan(tid, fact.getId(), "");
+            scan.open();
+            while (scan.hasNext()) {
+                scan.next();
+            }
+            scan.close();
+        }
+
+        long total = counting.hits + counting.misses;
+        System.out.println(String.format("%-6s overall hit ratio %.3f, point lookup hit ratio %.3f",
+                name, (double) counting.hits / total, (double) lookupHits / lookups));
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.io.File;
+
+/**
+ * Compares loading rows into an empty table one tuple at a time through
+ * BufferPool.insertTuple with the Insert operator, which hands its child to
+ * HeapFile.insertTuples and so fills new pages a whole page at a time.
+ * <p>
+ * Not run as part of the test suite; run it with
+ * <pre>java -cp ... simpledb.BulkInsertBenchmark [rows]</pre>
+ */
+public class BulkInsertBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int COLUMNS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+
+        HeapFile perTuple = createEmptyTable();
+        TransactionId tid = new TransactionId();
+        TestUtil.MockScan source = new TestUtil.MockScan(0, rows, COLUMNS);
+        long start = System.nanoTime();
+        source.open();
+        while (source.hasNext()) {
+            Database.getBufferPool().insertTuple(tid, perTuple.getId(), source.next());
+        }
+        Database.getBufferPool().flushAllPages();
+        report("per-tuple insertTuple", rows, System.nanoTime() - start, perTuple);
+
+        HeapFile bulk = createEmptyTable();
+        start = System.nanoTime();
+        Insert insert = new Insert(tid, new TestUtil.MockScan(0, rows, COLUMNS), bulk.getId());
+        insert.open();
+        insert.next();
+        insert.close();
+        Database.getBufferPool().flushAllPages();
+        report("Insert (page at a time)", rows, System.nanoTime() - start, bulk);
+    }
+
+    private static HeapFile createEmptyTable() throws Exception {
+        File f = File.createTempFile("bulk", ".dat");
+        FreeSpaceMap.deleteOnExit(f);
+        return Utility.openHeapFile(COLUMNS, f);
+    }
+
+    private static void report(String name, int rows, long nanos, HeapFile f) {
+        System.out.println(String.format("%-22s %d rows in %d ms (%.0f rows/s), %d pages",
+                name, rows, nanos / 1000000, rows / (nanos / 1e9), f.numPages()));
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures commit throughput: each thread runs transactions that insert
+ * one tuple into a table of its own and commit, so that the transactions
+ * of different threads never wait for each other's locks and every commit
+ * has to make one update durable.  Reports commits per second and the mean
+ * commit latency at each thread count.
+ * <p>
+ * Not run as part of the test suite; run it with
+ * <pre>java -cp ... simpledb.CommitBenchmark [commits per thread] [rounds]</pre>
+ */
+public class CommitBenchmark {
+
+    private static final int DEFAULT_COMMITS = 200;
+    private static final int DEFAULT_ROUNDS = 3;
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+
+    public static void main(String[] args) throws Exception {
+        int commits = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_COMMITS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        int max = THREADS[THREADS.length - 1];
+        HeapFile[] fs = new HeapFile[max];
+        for (int i = 0; i < max; i++)
+            fs[i] = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        Database.resetBufferPool(4 * max);
+
+        for (int threads : THREADS) {
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < rounds + 1; r++) {
+                long t = run(fs, threads, commits);
+                if (r >= 1) // The first round warms up the JIT and the pool.
+                    best = Math.min(best, t);
+                Database.getBufferPool().flushAllPages();
+            }
+            long total = (long) threads * commits;
+            System.out.println(String.format(
+                    "%3d threads %8.0f commits/s %8.3f ms/commit", threads,
+                    total * 1e9 / best, (double) best * threads / total / 1e6));
+        }
+    }
+
+    // Runs the commits on the given number of threads; returns the time in ns.
+    private static long run(final HeapFile[] fs, int threads, final int commits)
+            throws Exception {
+        final Exception[] errors = new Exception[threads];
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            ts[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int c = 0; c < commits; c++) {
+                            Transaction t = new Transaction();
+                            t.start();
+                            Database.getBufferPool().insertTuple(t.getId(),
+                                    fs[n].getId(), Utility.getHeapTuple(c, 2));
+                            t.commit();
+                        }
+                    } catch (Exception e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : ts)
+            t.start();
+        for (Thread t : ts)
+            t.join();
+        long time = System.nanoTime() - start;
+        for (Exception e : errors)
+            if (e != null)
+                throw e;
+        return time;
+    }
+}
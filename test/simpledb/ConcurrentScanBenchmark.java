@@ -0,0 +1,87 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the throughput of concurrent sequential scans: 1, 4, 16 and 64
+ * threads each scan the same table a number of times, each scan in its own
+ * transaction, and the total rows per second are reported.  It is run with
+ * a buffer pool that holds the whole table, where every page request is a
+ * hit, and with one that holds a quarter of it, where scans keep evicting
+ * each other's pages.  Each run is repeated after a warm-up round and the
+ * best round is reported.
+ * <p>
+ * Not run as part of the test suite; run it with
+ * <pre>java -cp ... simpledb.ConcurrentScanBenchmark [rows] [scans] [rounds]</pre>
+ */
+public class ConcurrentScanBenchmark {
+
+    private static final int DEFAULT_ROWS = 200000;
+    private static final int DEFAULT_SCANS = 64;
+    private static final int DEFAULT_ROUNDS = 3;
+    private static final int[] THREADS = { 1, 4, 16, 64 };
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SCANS;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_ROUNDS;
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        System.out.println(f.numPages() + " pages, " + Runtime.getRuntime()
+                .availableProcessors() + " processors");
+        int[] pools = { f.numPages() + 16, Math.max(1, f.numPages() / 4) };
+        for (int pages : pools) {
+            for (int threads : THREADS) {
+                Database.resetBufferPool(pages);
+                long best = Long.MAX_VALUE;
+                for (int r = 0; r < rounds + 1; r++) {
+                    long t = run(f, threads, scans);
+                    if (r >= 1) // The first round warms up the JIT and the pool.
+                        best = Math.min(best, t);
+                }
+                System.out.println(String.format(
+                        "%5d pool pages %3d threads %10.0f rows/s", pages,
+                        threads, (double) rows * scans / best * 1e9));
+            }
+        }
+    }
+
+    // Runs scans scans of f split over some threads, and returns the time
+    // they took in nanoseconds.
+    private static long run(final HeapFile f, int threads, int scans)
+            throws Exception {
+        final int perThread = Math.max(1, scans / threads);
+        final Exception[] error = new Exception[1];
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            ts[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int s = 0; s < perThread; s++) {
+                            TransactionId tid = new TransactionId();
+                            SeqScan scan = new SeqScan(tid, f.getId(), "t");
+                            scan.open();
+                            while (scan.hasNext())
+                                scan.next();
+                            scan.close();
+                            Database.getBufferPool().transactionComplete(tid);
+                        }
+                    } catch (Exception e) {
+                        synchronized (error) {
+                            error[0] = e;
+                        }
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : ts)
+            t.start();
+        for (Thread t : ts)
+            t.join();
+        long time = System.nanoTime() - start;
+        if (error[0] != null)
+            throw error[0];
+        return time * scans / (perThread * threads);
+    }
+}
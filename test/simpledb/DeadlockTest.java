@@ -0,0 +1,84 @@
+package simpledb;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DeadlockTest extends SimpleDbTestBase {
+
+  PageId p0, p1;
+  TransactionId tid1, tid2;
+
+  @Before public void createTable() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1100, null, null);
+    p0 = new HeapPageId(f.getId(), 0);
+    p1 = new HeapPageId(f.getId(), 1);
+    tid1 = new TransactionId();
+    tid2 = new TransactionId();
+  }
+
+  /**
+   * Two transactions each waiting for an exclusive lock on a page the other
+   * one reads: the one that closes the cycle is aborted, and the other one
+   * gets its lock.
+   */
+  @Test public void readWriteDeadlock() throws Exception {
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+    Database.getBufferPool().getPage(tid2, p1, Permissions.READ_ONLY);
+    TestUtil.LockGrabber t1 = LockingTest.grab(tid1, p1, Permissions.READ_WRITE);
+    assertFalse(t1.acquired());
+    TestUtil.LockGrabber t2 = LockingTest.grab(tid2, p0, Permissions.READ_WRITE);
+    t2.join();
+    assertTrue(t2.getError() instanceof TransactionAbortedException);
+    LockingTest.assertGranted(t1);
+  }
+
+  /**
+   * Two transactions both upgrading their shared lock on a page.
+   */
+  @Test public void upgradeDeadlock() throws Exception {
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+    Database.getBufferPool().getPage(tid2, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber t1 = LockingTest.grab(tid1, p0, Permissions.READ_WRITE);
+    assertFalse(t1.acquired());
+    TestUtil.LockGrabber t2 = LockingTest.grab(tid2, p0, Permissions.READ_WRITE);
+    t2.join();
+    assertTrue(t2.getError() instanceof TransactionAbortedException);
+    LockingTest.assertGranted(t1);
+  }
+
+  /**
+   * A cycle through three transactions.
+   */
+  @Test public void threeWayDeadlock() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    PageId p2 = new HeapPageId(p0.getTableId(), 2);
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_WRITE);
+    Database.getBufferPool().getPage(tid2, p1, Permissions.READ_WRITE);
+    Database.getBufferPool().getPage(tid3, p2, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t1 = LockingTest.grab(tid1, p1, Permissions.READ_ONLY);
+    TestUtil.LockGrabber t2 = LockingTest.grab(tid2, p2, Permissions.READ_ONLY);
+    assertFalse(t1.acquired());
+    assertFalse(t2.acquired());
+    TestUtil.LockGrabber t3 = LockingTest.grab(tid3, p0, Permissions.READ_ONLY);
+    t3.join();
+    assertTrue(t3.getError() instanceof TransactionAbortedException);
+    LockingTest.assertGranted(t2);
+    assertFalse(t1.acquired());
+    Database.getBufferPool().transactionComplete(tid2);
+    LockingTest.assertGranted(t1);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DeadlockTest.class);
+  }
+}
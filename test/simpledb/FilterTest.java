@@ -1,14 +1,19 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class FilterTest extends SimpleDbTestBase {
 
@@ -120,6 +125,61 @@ public class FilterTest extends SimpleDbTestBase {
     op.close();
   }
 
+  /**
+   * Unit test for Filter.getNext() using several predicates
+   */
+  @Test public void filterConjunction() throws Exception {
+    Predicate[] preds = {
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, TestUtil.getField(-2)),
+        new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(3)),
+        new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)) };
+    Filter op = new Filter(preds, scan);
+    op.open();
+    for (int i : new int[] { -2, -1, 1, 2 }) {
+      assertTrue(op.hasNext());
+      assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(i, testWidth),
+          op.next()));
+    }
+    TestUtil.checkExhausted(op);
+    op.close();
+  }
+
+  /**
+   * The filters of a query on a table are pushed down into its scan, which
+   * only returns the fields the rest of the query refers to
+   */
+  @Test public void pushedDownQuery() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 500, 8, null,
+        tuples, "c");
+    Database.getCatalog().addTable(f, "t");
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+
+    ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (t.get(0) > 1 && t.get(1) < 3 && t.get(0) < 6) {
+        ArrayList<Integer> e = new ArrayList<Integer>();
+        e.add(t.get(2));
+        e.add(t.get(1));
+        expected.add(e);
+      }
+    }
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c2, t.c1 FROM t WHERE t.c0 > 1 AND t.c1 < 3 AND t.c0 < 6;");
+    DbIterator it = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    DbIterator op = it;
+    while (op instanceof Operator) {
+      assertFalse(op instanceof Filter);
+      op = ((Operator) op).getChildren()[0];
+    }
+    SeqScan ss = (SeqScan) op;
+    assertEquals(3, ss.getPredicates().length);
+    assertArrayEquals(new int[] { 1, 2 }, ss.getFields());
+    SystemTestUtil.matchTuples(it, expected);
+  }
+
   /**
    * JUnit suite target
    */
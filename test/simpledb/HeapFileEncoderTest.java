@@ -0,0 +1,166 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.*;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static final int PAGE = BufferPool.PAGE_SIZE;
+    private static final Type[] INTS = { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
+    private static final Type[] MIXED = { Type.INT_TYPE, Type.STRING_TYPE };
+
+    /**
+     * Encodes text a line at a time, the way HeapFileEncoder did before it
+     * was parallelized, as a reference for the output of the streaming one.
+     */
+    private static byte[] referenceEncode(String text, Type[] types) throws IOException {
+        int nrecbytes = 0;
+        for (Type t : types)
+            nrecbytes += t.getLen();
+        int nrecords = (PAGE * 8) / (nrecbytes * 8 + 1);
+        int nheaderbytes = (nrecords + 7) / 8;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] page = new byte[PAGE];
+        int count = 0, npages = 0;
+        for (String line : text.replace("\r", "").split("\n")) {
+            if (line.length() == 0)
+                continue;
+            ByteArrayOutputStream rec = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(rec);
+            String[] fields = line.split(",", -1);
+            for (int i = 0; i < types.length; i++) {
+                String s = fields[i].trim();
+                if (types[i] == Type.INT_TYPE) {
+                    dos.writeInt(Integer.parseInt(s));
+                } else {
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeInt(s.length());
+                    dos.writeBytes(s);
+                    for (int k = s.length(); k < Type.STRING_LEN; k++)
+                        dos.write(0);
+                }
+            }
+            page[count / 8] |= (byte) (1 << (count % 8));
+            System.arraycopy(rec.toByteArray(), 0, page,
+                    nheaderbytes + count * nrecbytes, nrecbytes);
+            if (++count == nrecords) {
+                out.write(page);
+                page = new byte[PAGE];
+                count = 0;
+                npages++;
+            }
+        }
+        if (count > 0 || npages == 0)
+            out.write(page);
+        return out.toByteArray();
+    }
+
+    // Encodes text with the streaming encoder, in chunks of chunkBytes.
+    private static byte[] encode(String text, Type[] types, int chunkBytes,
+            int threads) throws IOException {
+        File in = File.createTempFile("encoder", ".txt");
+        in.deleteOnExit();
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        Writer w = new FileWriter(in);
+        w.write(text);
+        w.close();
+        HeapFileEncoder.convert(in, out, PAGE, types.length, types, ',',
+                chunkBytes, threads);
+        return TestUtil.readFileBytes(out.getAbsolutePath());
+    }
+
+    private static String randomInts(int rows, Random r) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rows; i++) {
+            sb.append(r.nextInt()).append(',').append(i).append(',')
+                    .append(r.nextInt(100)).append(i % 7 == 0 ? "\r\n" : "\n");
+            if (i % 50 == 0)
+                sb.append('\n'); // blank line
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Many small chunks, encoded on several threads, give the same pages as
+     * the sequential encoder: lines cut at chunk boundaries are carried
+     * over and pages are written in input order.
+     */
+    @Test public void multiChunkMatchesSequential() throws Exception {
+        String text = randomInts(5000, new Random(1));
+        byte[] expected = referenceEncode(text, INTS);
+        for (int chunk : new int[] { 1, 7, 64, 1000, HeapFileEncoder.CHUNK_BYTES }) {
+            assertArrayEquals("chunk " + chunk, expected, encode(text, INTS, chunk, 4));
+        }
+        assertArrayEquals(expected, encode(text, INTS, 64, 1));
+    }
+
+    /**
+     * The last line needs no newline, also when it spans chunks.
+     */
+    @Test public void lastLineWithoutNewline() throws Exception {
+        String text = randomInts(300, new Random(2)) + "12345,-6789,42";
+        byte[] expected = referenceEncode(text, INTS);
+        assertArrayEquals(expected, encode(text, INTS, 5, 3));
+        assertArrayEquals(expected, encode(text, INTS, 100, 3));
+    }
+
+    /**
+     * String fields, whose records are far larger than their input lines.
+     */
+    @Test public void stringFields() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        Random r = new Random(3);
+        for (int i = 0; i < 2000; i++) {
+            sb.append(i).append(',');
+            int len = r.nextInt(i % 10 == 0 ? 200 : 8);
+            for (int k = 0; k < len; k++)
+                sb.append((char) ('a' + r.nextInt(26)));
+            sb.append('\n');
+        }
+        String text = sb.toString();
+        byte[] expected = referenceEncode(text, MIXED);
+        assertArrayEquals(expected, encode(text, MIXED, 33, 4));
+        assertArrayEquals(expected, encode(text, MIXED, HeapFileEncoder.CHUNK_BYTES, 4));
+    }
+
+    /**
+     * Empty input gives one empty page.
+     */
+    @Test public void emptyInput() throws Exception {
+        assertArrayEquals(new byte[PAGE], encode("", INTS, 16, 2));
+    }
+
+    /**
+     * A line with the wrong number of fields fails the conversion, in
+     * whichever chunk it is.
+     */
+    @Test public void wrongFieldCount() throws Exception {
+        String good = randomInts(1000, new Random(4));
+        for (String bad : new String[] { "1,2\n", "1,2,3,4\n" }) {
+            try {
+                encode(good + bad + good, INTS, 64, 4);
+                fail("expected an IOException for " + bad.trim());
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
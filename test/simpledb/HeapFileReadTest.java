@@ -77,6 +77,84 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): closing the handle, e.g. through
+     * Catalog.clear(), must not break later reads.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(hf);
+
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(1));
+    }
+
+    /**
+     * Unit test for the mmap mode of HeapFile: pages come from the mapping,
+     * and pages appended later are picked up by remapping.
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped);
+
+        HeapPage page = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 0));
+        assertTrue(page.data.isDirect()); // read in place, not copied
+        assertEquals(484, page.getNumEmptySlots());
+        assertTrue(page.isSlotUsed(1));
+        assertFalse(page.isSlotUsed(20));
+
+        HeapPage extra = new HeapPage(new HeapPageId(mapped.getId(), 1),
+                HeapPage.createEmptyPageData());
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(7));
+        t.setField(1, new IntField(8));
+        extra.insertTuple(t);
+        mapped.writePage(extra);
+
+        page = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 1));
+        assertEquals(503, page.getNumEmptySlots());
+        Tuple read = page.iterator().next();
+        assertEquals(new IntField(7), read.getField(0));
+        assertEquals(new IntField(8), read.getField(1));
+    }
+
+    /**
+     * A page read through the mapping keeps its contents when the page is
+     * written back to the file afterwards.
+     */
+    @Test
+    public void mappedPageSurvivesRewrite() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped);
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        HeapPage rewritten = (HeapPage) mapped.readPage(pid);
+        Iterator<Tuple> it = rewritten.iterator();
+        while (it.hasNext())
+            rewritten.deleteTuple(it.next());
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(-1));
+        for (int i = 0; i < 20; i++)
+            rewritten.insertTuple(t);
+        mapped.writePage(rewritten);
+        assertFalse(page.data.isDirect());
+
+        int n = 0;
+        it = page.iterator();
+        while (it.hasNext()) {
+            assertFalse(new IntField(-1).equals(it.next().getField(0)));
+            n++;
+        }
+        assertEquals(20, n);
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -121,6 +199,40 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * An iterator with a predicate and a projection list returns the given
+     * fields of the tuples that pass, also of tuples inserted into a page
+     * since it was read.
+     */
+    @Test
+    public void testIteratorPushdown() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1500, 1000, null, tuples);
+        Database.getBufferPool().insertTuple(tid, f.getId(),
+                Utility.getHeapTuple(new int[] { 7, 8, 9 }));
+        tuples.add(new ArrayList<Integer>(Arrays.asList(7, 8, 9)));
+
+        Predicate[] preds = {
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)),
+                new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(500)) };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 300 && t.get(0) != 500)
+                expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+        }
+
+        DbFileIterator it = f.iterator(tid,
+                PredicateEvaluator.compile(preds, f.getTupleDesc()), new int[] { 2, 0 });
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            assertTrue(expected.remove(SystemTestUtil.tupleToList(t)));
+        }
+        assertTrue(expected.isEmpty());
+        it.close();
+    }
+
     /**
      * JUnit suite target
      */
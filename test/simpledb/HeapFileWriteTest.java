@@ -43,6 +43,158 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free space map: a slot freed on a full page is
+     * reused before the file grows, and the map survives a close.
+     */
+    @Test public void reuseFreedSlot() throws Exception {
+        Tuple victim = null;
+        for (int i = 0; i < 504 * 2; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 10)
+                victim = t;
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().findFreePage());
+
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertEquals(0, empty.getFreeSpaceMap().findFreePage());
+
+        // the freed page is only in the buffer pool, so a reopened file can
+        // only know about it through the saved map.
+        empty.close();
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(0, reopened.getFreeSpaceMap().findFreePage());
+
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(2, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().findFreePage());
+    }
+
+    /**
+     * Unit test for the free space map: a page an aborted transaction
+     * filled is free again.
+     */
+    @Test public void abortFreesFilledPage() throws Exception {
+        for (int i = 0; i < 504; ++i)
+            Database.getBufferPool().insertTuple(tid, empty.getId(),
+                    Utility.getHeapTuple(i, 2));
+        assertEquals(-1, empty.getFreeSpaceMap().findFreePage());
+
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertEquals(0, empty.getFreeSpaceMap().findFreePage());
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(1, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuples(): the free slots of the existing
+     * page are used first, the rest is appended as new pages.
+     */
+    @Test public void insertTuples() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(-1, 2));
+
+        int rows = 504 * 130; // more pages than the BufferPool holds
+        TestUtil.MockScan scan = new TestUtil.MockScan(0, rows - 1, 2);
+        scan.open();
+        assertEquals(rows - 1, empty.insertTuples(tid, scan));
+        assertEquals(130, empty.numPages());
+        assertEquals(-1, empty.getFreeSpaceMap().findFreePage());
+
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(t.getField(0), t.getField(1));
+            count++;
+        }
+        assertEquals(rows, count);
+        it.close();
+    }
+
+    /**
+     * Pages appended by HeapFile.insertTuples() are filled in memory and
+     * written out by the file once logged, without going through the
+     * BufferPool.
+     */
+    @Test public void insertTuplesWritesNewPages() throws Exception {
+        TestUtil.MockScan scan = new TestUtil.MockScan(0, 504 * 3, 2);
+        scan.open();
+        assertEquals(504 * 3, empty.insertTuples(tid, scan));
+        // the empty page the file starts with is filled, then two appended
+        assertEquals(3, empty.numPages());
+        assertEquals(3 * BufferPool.getPageSize(), empty.getFile().length());
+        assertEquals(504 * 3, count(empty));
+    }
+
+    /**
+     * Tuples appended by HeapFile.insertTuples() are rolled back when the
+     * transaction aborts.
+     */
+    @Test public void insertTuplesAbort() throws Exception {
+        TestUtil.MockScan scan = new TestUtil.MockScan(0, 2000, 2);
+        scan.open();
+        assertEquals(2000, empty.insertTuples(tid, scan));
+        Database.getBufferPool().transactionComplete(tid, false);
+        tid = new TransactionId();
+        assertEquals(0, count(empty));
+
+        // the pages rolled back are reused
+        int pages = empty.numPages();
+        scan = new TestUtil.MockScan(0, 2000, 2);
+        scan.open();
+        assertEquals(2000, empty.insertTuples(tid, scan));
+        assertEquals(pages, empty.numPages());
+        assertEquals(2000, count(empty));
+    }
+
+    /**
+     * Transactions appending to a file at the same time get different new
+     * pages.
+     */
+    @Test public void concurrentInsertTuples() throws Exception {
+        final int threads = 4, rows = 2000;
+        final Throwable[] errors = new Throwable[threads];
+        Thread[] ts = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int n = i;
+            ts[i] = new Thread() {
+                public void run() {
+                    try {
+                        Transaction t = new Transaction();
+                        t.start();
+                        TestUtil.MockScan scan = new TestUtil.MockScan(0, rows, 2);
+                        scan.open();
+                        empty.insertTuples(t.getId(), scan);
+                        t.commit();
+                    } catch (Throwable e) {
+                        errors[n] = e;
+                    }
+                }
+            };
+            ts[i].start();
+        }
+        for (int i = 0; i < threads; i++) {
+            ts[i].join(60000);
+            assertNull(errors[i]);
+        }
+        assertEquals(threads * rows, count(empty));
+    }
+
+    // Number of tuples in a file.
+    private int count(HeapFile f) throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        int n = 0;
+        for (; it.hasNext(); it.next())
+            n++;
+        it.close();
+        return n;
+    }
+
     /**
      * JUnit suite target
      */
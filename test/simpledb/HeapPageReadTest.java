@@ -100,6 +100,37 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getField()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) page.getField(row, 1)).getValue());
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) page.getField(row, 0)).getValue());
+        }
+    }
+
+    /**
+     * getField decodes string bytes of 0x80 and over the same way as the
+     * tuple iterator: one char per byte.
+     */
+    @Test public void getStringField() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+        HeapPageId spid = new HeapPageId(-2, 0);
+        HeapPage empty = new HeapPage(spid, HeapPage.createEmptyPageData());
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(1));
+        t.setField(1, new StringField("caf\u00e9 \u00ff", Type.STRING_LEN));
+        empty.insertTuple(t);
+
+        HeapPage page = new HeapPage(spid, empty.getPageData());
+        assertEquals("caf\u00e9 \u00ff", ((StringField) page.getField(0, 1)).getValue());
+        assertEquals(page.iterator().next().getField(1), page.getField(0, 1));
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -4,6 +4,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +127,32 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getDelta() and HeapPage.applyDelta()
+     */
+    @Test public void delta() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertEquals(0, page.getDelta(page.getBeforeImage()).length);
+
+        Iterator<Tuple> it = page.iterator();
+        page.deleteTuple(it.next());
+        page.insertTuple(Utility.getHeapTuple(42, 2));
+        page.insertTuple(Utility.getHeapTuple(43, 2));
+        HeapPage before = page.getBeforeImage();
+        byte[] delta = page.getDelta(before);
+        assertTrue(delta.length < 64);
+
+        // redo on the before image gives the page, undo on the page the
+        // before image; either can be applied twice
+        HeapPage redone = page.getBeforeImage();
+        redone.applyDelta(delta, true);
+        redone.applyDelta(delta, true);
+        assertTrue(Arrays.equals(page.getPageData(), redone.getPageData()));
+        page.applyDelta(delta, false);
+        page.applyDelta(delta, false);
+        assertTrue(Arrays.equals(before.getPageData(), page.getPageData()));
+    }
+
     /**
      * JUnit suite target
      */
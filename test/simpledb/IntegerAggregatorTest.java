@@ -178,6 +178,92 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test IntegerAggregator over many groups, with negative keys and sums
+   * that overflow an int partway through
+   */
+  @Test public void manyGroups() throws Exception {
+    int groups = 50000;
+    IntegerAggregator sum = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    IntegerAggregator count = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    for (int round = 0; round < 4; round++) {
+      for (int g = 0; g < groups; g++) {
+        Tuple t = Utility.getHeapTuple(new int[] { g - groups / 2, Integer.MAX_VALUE - round });
+        sum.mergeTupleIntoGroup(t);
+        count.mergeTupleIntoGroup(t);
+      }
+    }
+
+    DbIterator it = sum.iterator();
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(Integer.MAX_VALUE - 2, ((IntField) t.getField(1)).getValue());
+      n++;
+    }
+    assertEquals(groups, n);
+
+    it = count.iterator();
+    it.open();
+    boolean[] seen = new boolean[groups];
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int g = ((IntField) t.getField(0)).getValue() + groups / 2;
+      assertEquals(false, seen[g]);
+      seen[g] = true;
+      assertEquals(4, ((IntField) t.getField(1)).getValue());
+    }
+  }
+
+  /**
+   * Test IntegerAggregator with more groups than fit in a tiny buffer pool:
+   * the overflow groups are spilled and aggregated partition by partition
+   */
+  @Test public void spilledGroups() throws Exception {
+    Database.resetBufferPool(2); // budget: one page of groups
+    int groups = 20000;
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    for (int round = 0; round < 3; round++) {
+      for (int g = 0; g < groups; g++)
+        agg.mergeTupleIntoGroup(Utility.getHeapTuple(new int[] { g, g + round }));
+    }
+    assertEquals(true, agg.hasSpilled());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    for (int pass = 0; pass < 2; pass++) {
+      boolean[] seen = new boolean[groups];
+      int n = 0;
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        int g = ((IntField) t.getField(0)).getValue();
+        assertEquals(false, seen[g]);
+        seen[g] = true;
+        assertEquals(3 * g + 3, ((IntField) t.getField(1)).getValue());
+        n++;
+      }
+      assertEquals(groups, n);
+      it.rewind();
+    }
+    it.close();
+    agg.clear();
+    assertEquals(false, agg.hasSpilled());
+  }
+
+  /**
+   * Test IntegerAggregator without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    scan1.open();
+    IntegerAggregator agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 1, Aggregator.Op.MAX);
+    while (scan1.hasNext())
+      agg.mergeTupleIntoGroup(scan1.next());
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 7 }), it);
+  }
+
   /**
    * JUnit suite target
    */
@@ -26,7 +26,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 	 */
 	public static HeapFile createDuplicateHeapFile(ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix) throws IOException {
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        FreeSpaceMap.deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.PAGE_SIZE, columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
@@ -161,6 +161,33 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		Assert.assertEquals(Boolean.TRUE, ret[0]);
 	}
 
+	/**
+	 * Verify that range joins are costed and instantiated as sort-merge joins,
+	 * and that equality joins are left to the nested-loops join
+	 */
+	@Test public void sortMergeJoinTest() throws ParsingException {
+		TransactionId tid = new TransactionId();
+		Parser p = new Parser();
+		JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1 + " t1, " + tableName2 + " t2 WHERE t1.c1 < t2.c2;"),
+				new Vector<LogicalJoinNode>());
+
+		LogicalJoinNode ltJoinNode = new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.LESS_THAN);
+		double nl = jo.estimateNestedLoopJoinCost(ltJoinNode, 1000, 1000, 100.0, 100.0);
+		double sm = jo.estimateSortMergeJoinCost(ltJoinNode, 1000, 1000, 100.0, 100.0);
+		Assert.assertTrue(sm < nl);
+		Assert.assertEquals(sm, jo.estimateJoinCost(ltJoinNode, 1000, 1000, 100.0, 100.0), 0.0);
+
+		LogicalJoinNode eqJoinNode = new LogicalJoinNode("t1", "t2", "c1", "c2", Predicate.Op.EQUALS);
+		Assert.assertTrue(Double.isInfinite(jo.estimateSortMergeJoinCost(eqJoinNode, 1000, 1000, 100.0, 100.0)));
+
+		DbIterator j = JoinOptimizer.instantiateJoin(ltJoinNode.asSortMerge(),
+				new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+		Assert.assertTrue(j instanceof SortMergeJoin);
+		j = JoinOptimizer.instantiateJoin(ltJoinNode,
+				new SeqScan(tid, tableId1, "t1"), new SeqScan(tid, tableId2, "t2"));
+		Assert.assertTrue(j instanceof Join);
+	}
+
 	/**
 	 * Verify that the join cardinalities produced by estimateJoinCardinality() are reasonable
 	 */
@@ -105,6 +105,40 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() when the outer relation spans several
+   * blocks, using a < predicate so every block meets the whole inner side
+   */
+  @Test public void multiBlockJoin() throws Exception {
+    int rows = 1200; // more than two one-page blocks of 2-int tuples
+    int[] outer = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      outer[2 * i] = i % 10;
+      outer[2 * i + 1] = i;
+    }
+    int[] inner = new int[10];
+    for (int i = 0; i < 10; i++)
+      inner[i] = i;
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+    Join op = new Join(pred, TestUtil.createTupleList(2, outer),
+        TestUtil.createTupleList(1, inner), 1);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        assertTrue(((IntField) t.getField(0)).getValue()
+            < ((IntField) t.getField(2)).getValue());
+        count++;
+      }
+      // key k matches the 9 - k larger inner values; 45 pairs per 10 rows
+      assertEquals(rows / 10 * 45, count);
+      op.rewind();
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
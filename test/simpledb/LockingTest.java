@@ -0,0 +1,161 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LockingTest extends SimpleDbTestBase {
+
+  /** Time to let a LockGrabber block, in milliseconds. */
+  private static final int WAIT = 100;
+
+  HeapFile f;
+  PageId p0, p1;
+  TransactionId tid1, tid2;
+
+  @Before public void createTable() throws Exception {
+    // three pages of two int fields
+    f = SystemTestUtil.createRandomHeapFile(2, 1100, null, null);
+    p0 = new HeapPageId(f.getId(), 0);
+    p1 = new HeapPageId(f.getId(), 1);
+    tid1 = new TransactionId();
+    tid2 = new TransactionId();
+  }
+
+  /**
+   * Starts a LockGrabber and gives it time to get the lock.
+   */
+  static TestUtil.LockGrabber grab(TransactionId tid, PageId pid,
+      Permissions perm) throws Exception {
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+    t.start();
+    Thread.sleep(WAIT);
+    return t;
+  }
+
+  /**
+   * Waits for a LockGrabber to finish, and checks that it got its lock.
+   */
+  static void assertGranted(TestUtil.LockGrabber t) throws Exception {
+    t.join(10 * WAIT);
+    assertTrue(t.acquired());
+    assertNull(t.getError());
+  }
+
+  /**
+   * Any number of transactions can hold a shared lock on a page.
+   */
+  @Test public void sharedLocks() throws Exception {
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+    assertGranted(grab(tid2, p0, Permissions.READ_ONLY));
+    assertTrue(Database.getBufferPool().holdsLock(tid1, p0));
+    assertTrue(Database.getBufferPool().holdsLock(tid2, p0));
+    assertFalse(Database.getBufferPool().holdsLock(tid1, p1));
+  }
+
+  /**
+   * An exclusive lock waits for the shared locks of other transactions to
+   * be released.
+   */
+  @Test public void sharedBlocksExclusive() throws Exception {
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_WRITE);
+    assertFalse(t.acquired());
+    Database.getBufferPool().transactionComplete(tid1);
+    assertGranted(t);
+    assertFalse(Database.getBufferPool().holdsLock(tid1, p0));
+  }
+
+  /**
+   * A shared lock waits for the exclusive lock of another transaction to be
+   * released, but not for locks on other pages.
+   */
+  @Test public void exclusiveBlocksShared() throws Exception {
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_WRITE);
+    assertGranted(grab(tid2, p1, Permissions.READ_WRITE));
+    TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_ONLY);
+    assertFalse(t.acquired());
+    Database.getBufferPool().releasePage(tid1, p0);
+    assertGranted(t);
+  }
+
+  /**
+   * A transaction that holds the only shared lock on a page can upgrade it,
+   * and then keeps others from reading the page.
+   */
+  @Test public void upgrade() throws Exception {
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_WRITE);
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber t = grab(tid2, p0, Permissions.READ_ONLY);
+    assertFalse(t.acquired());
+    Database.getBufferPool().transactionComplete(tid1);
+    assertGranted(t);
+  }
+
+  /**
+   * An upgrade waits for the other holders of shared locks.
+   */
+  @Test public void upgradeWaits() throws Exception {
+    Database.getBufferPool().getPage(tid1, p0, Permissions.READ_ONLY);
+    Database.getBufferPool().getPage(tid2, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber t = grab(tid1, p0, Permissions.READ_WRITE);
+    assertFalse(t.acquired());
+    Database.getBufferPool().transactionComplete(tid2);
+    assertGranted(t);
+  }
+
+  // Number of tuples on a page.
+  private int count(PageId pid) throws Exception {
+    int n = 0;
+    Iterator<Tuple> it = ((HeapPage) Database.getBufferPool().getPage(null,
+        pid, null)).iterator();
+    for (; it.hasNext(); it.next())
+      n++;
+    return n;
+  }
+
+  /**
+   * Aborting a transaction drops the pages it dirtied; committing it logs
+   * them, but leaves them in the pool to be written out later.
+   */
+  @Test public void abortAndCommit() throws Exception {
+    // delete a tuple of page 0 and abort
+    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid1, p0,
+        Permissions.READ_WRITE);
+    int n = count(p0);
+    Database.getBufferPool().deleteTuple(tid1, page.iterator().next());
+    assertEquals(n - 1, count(p0));
+    Database.getBufferPool().transactionComplete(tid1, false);
+    assertEquals(n, count(p0));
+    assertFalse(Database.getBufferPool().holdsLock(tid1, p0));
+
+    // delete it again and commit
+    page = (HeapPage) Database.getBufferPool().getPage(tid2, p0,
+        Permissions.READ_WRITE);
+    Database.getBufferPool().deleteTuple(tid2, page.iterator().next());
+    Database.getBufferPool().transactionComplete(tid2, true);
+    assertEquals(tid2, Database.getBufferPool().getPage(null, p0, null).isDirty());
+    Database.getBufferPool().flushAllPages();
+    assertNull(Database.getBufferPool().getPage(null, p0, null).isDirty());
+    Database.getBufferPool().discardPage(p0);
+    assertEquals(n - 1, count(p0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LockingTest.class);
+  }
+}
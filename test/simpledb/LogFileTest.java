@@ -0,0 +1,238 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+  // Inserts a tuple into a table in a transaction of its own and commits it.
+  private static void insertAndCommit(HeapFile f, int value) throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    Database.getBufferPool().insertTuple(t.getId(), f.getId(),
+        Utility.getHeapTuple(value, 2));
+    t.commit();
+  }
+
+  // Free slots of the first page of a table as it is on disk.
+  private static int emptySlotsOnDisk(HeapFile f) {
+    return ((HeapPage) f.readPage(new HeapPageId(f.getId(), 0))).getNumEmptySlots();
+  }
+
+  /**
+   * A commit logs the pages the transaction dirtied (a BEGIN, an UPDATE and
+   * a COMMIT record) but does not write them to the table until they are
+   * flushed.
+   */
+  @Test public void noForceCommit() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    int empty = emptySlotsOnDisk(f);
+    int records = Database.getLogFile().getTotalRecords();
+
+    insertAndCommit(f, 42);
+    assertEquals(records + 3, Database.getLogFile().getTotalRecords());
+    assertEquals(empty, emptySlotsOnDisk(f));
+
+    Database.getBufferPool().flushAllPages();
+    assertEquals(empty - 1, emptySlotsOnDisk(f));
+  }
+
+  /**
+   * Transactions committing at the same time all return, with their commit
+   * records in the log.
+   */
+  @Test public void concurrentCommits() throws Exception {
+    final int threads = 8, commits = 5;
+    final HeapFile[] fs = new HeapFile[threads];
+    int[] empty = new int[threads];
+    for (int i = 0; i < threads; i++) {
+      fs[i] = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+      empty[i] = emptySlotsOnDisk(fs[i]);
+    }
+    int records = Database.getLogFile().getTotalRecords();
+
+    final Throwable[] errors = new Throwable[threads];
+    Thread[] ts = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      final int n = i;
+      ts[i] = new Thread() {
+        public void run() {
+          try {
+            for (int c = 0; c < commits; c++)
+              insertAndCommit(fs[n], c);
+          } catch (Throwable e) {
+            errors[n] = e;
+          }
+        }
+      };
+      ts[i].start();
+    }
+    for (int i = 0; i < threads; i++) {
+      ts[i].join(60000);
+      assertNull(errors[i]);
+    }
+    assertEquals(records + 3 * threads * commits,
+        Database.getLogFile().getTotalRecords());
+
+    Database.getBufferPool().flushAllPages();
+    for (int i = 0; i < threads; i++)
+      assertEquals(empty[i] - commits, emptySlotsOnDisk(fs[i]));
+  }
+
+  // Loses the BufferPool, with the pages that were not written out and the
+  // locks of running transactions, as a crash would.
+  private static void crash() {
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  /**
+   * Aborting a transaction rolls back the pages it wrote out before it
+   * ended.
+   */
+  @Test public void abortRollsBackStolenPages() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    int empty = emptySlotsOnDisk(f);
+    Transaction t = new Transaction();
+    t.start();
+    Database.getBufferPool().insertTuple(t.getId(), f.getId(),
+        Utility.getHeapTuple(42, 2));
+    Database.getBufferPool().flushAllPages();
+    assertEquals(empty - 1, emptySlotsOnDisk(f));
+
+    t.abort();
+    assertEquals(empty, emptySlotsOnDisk(f));
+    HeapPage p = (HeapPage) Database.getBufferPool().getPage(null,
+        new HeapPageId(f.getId(), 0), null);
+    assertEquals(empty, p.getNumEmptySlots());
+  }
+
+  /**
+   * Recovery redoes committed updates that were never written out, and
+   * undoes those of transactions still running at the crash that were.
+   */
+  @Test public void recoverRedoAndUndo() throws Exception {
+    HeapFile committed = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    HeapFile loser = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    int empty = emptySlotsOnDisk(committed);
+
+    Transaction l = new Transaction();
+    l.start();
+    Database.getBufferPool().insertTuple(l.getId(), loser.getId(),
+        Utility.getHeapTuple(1, 2));
+    Database.getBufferPool().flushAllPages();
+    insertAndCommit(committed, 2);
+    crash();
+    assertEquals(empty, emptySlotsOnDisk(committed));
+    assertEquals(empty - 1, emptySlotsOnDisk(loser));
+
+    Database.getLogFile().recover();
+    assertEquals(empty - 1, emptySlotsOnDisk(committed));
+    assertEquals(empty, emptySlotsOnDisk(loser));
+  }
+
+  /**
+   * Recovery starts at the last checkpoint, but undoes a loser back to its
+   * first update before it; it logs the losers as aborted, so that
+   * recovering again does not undo later committed updates of their pages.
+   */
+  @Test public void recoverFromCheckpoint() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    int empty = emptySlotsOnDisk(f);
+
+    Transaction l = new Transaction();
+    l.start();
+    Database.getBufferPool().insertTuple(l.getId(), f.getId(),
+        Utility.getHeapTuple(1, 2));
+    Database.getLogFile().logCheckpoint();
+    assertEquals(empty - 1, emptySlotsOnDisk(f));
+    crash();
+    Database.getLogFile().recover();
+    assertEquals(empty, emptySlotsOnDisk(f));
+
+    insertAndCommit(f, 2);
+    insertAndCommit(f, 3);
+    crash();
+    Database.getLogFile().recover();
+    assertEquals(empty - 2, emptySlotsOnDisk(f));
+  }
+
+  /**
+   * A record torn by the crash at the end of the log is dropped.
+   */
+  @Test public void recoverTornRecord() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    int empty = emptySlotsOnDisk(f);
+    insertAndCommit(f, 1);
+    crash();
+    RandomAccessFile log = new RandomAccessFile(Database.getLogFile().logFile, "rw");
+    long length = log.length();
+    log.seek(length);
+    log.writeInt(LogFile.UPDATE_RECORD);
+    log.writeLong(1);
+    log.close();
+
+    Database.getLogFile().recover();
+    assertEquals(empty - 1, emptySlotsOnDisk(f));
+    assertEquals(length, Database.getLogFile().logFile.length());
+    insertAndCommit(f, 2);
+    crash();
+    Database.getLogFile().recover();
+    assertEquals(empty - 2, emptySlotsOnDisk(f));
+  }
+
+  /**
+   * The update of a heap page is logged as the slots it changed, not as two
+   * page images.
+   */
+  @Test public void deltaRecord() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    long length = Database.getLogFile().logFile.length();
+    insertAndCommit(f, 42);
+    assertTrue(Database.getLogFile().logFile.length() - length < 100);
+  }
+
+  /**
+   * Aborting a transaction keeps the committed updates of the pages it
+   * dirtied that were not written out yet, and drops its own updates
+   * whether or not they were written out or logged.
+   */
+  @Test public void abortKeepsCommittedUpdates() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+    int empty = emptySlotsOnDisk(f);
+    insertAndCommit(f, 1);
+
+    Transaction t = new Transaction();
+    t.start();
+    Database.getBufferPool().insertTuple(t.getId(), f.getId(),
+        Utility.getHeapTuple(2, 2));
+    Database.getBufferPool().flushAllPages();
+    Database.getBufferPool().insertTuple(t.getId(), f.getId(),
+        Utility.getHeapTuple(3, 2));
+    t.abort();
+
+    HeapPage p = (HeapPage) Database.getBufferPool().getPage(null,
+        new HeapPageId(f.getId(), 0), null);
+    assertEquals(empty - 1, p.getNumEmptySlots());
+    Database.getBufferPool().flushAllPages();
+    assertEquals(empty - 1, emptySlotsOnDisk(f));
+    crash();
+    Database.getLogFile().recover();
+    assertEquals(empty - 1, emptySlotsOnDisk(f));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LogFileTest.class);
+  }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /**
+   * Builds a two-column tuple list of random keys; the second column numbers
+   * the rows so that every tuple can be told apart.
+   */
+  private static int[] randomKeys(int rows) {
+    Random rand = new Random(rows);
+    int[] keys = new int[rows];
+    for (int i = 0; i < rows; i++)
+      keys[i] = rand.nextInt(rows / 4 + 1);
+    return keys;
+  }
+
+  private static DbIterator tupleList(int[] keys) {
+    int[] data = new int[keys.length * 2];
+    for (int i = 0; i < keys.length; i++) {
+      data[2 * i] = keys[i];
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  /**
+   * Reads the whole operator and checks it returns the expected keys, in
+   * order, and that a rewind returns them again.
+   */
+  private static void checkSorted(OrderBy op, int[] keys, boolean asc, int limit)
+      throws Exception {
+    int[] expected = keys.clone();
+    Arrays.sort(expected);
+    if (!asc) {
+      for (int i = 0; i < expected.length / 2; i++) {
+        int tmp = expected[i];
+        expected[i] = expected[expected.length - 1 - i];
+        expected[expected.length - 1 - i] = tmp;
+      }
+    }
+    int n = limit == OrderBy.NO_LIMIT ? expected.length
+        : Math.min(limit, expected.length);
+    for (int pass = 0; pass < 2; pass++) {
+      boolean[] seen = new boolean[keys.length];
+      int i = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        assertTrue(i < n);
+        int key = ((IntField) t.getField(0)).getValue();
+        int row = ((IntField) t.getField(1)).getValue();
+        assertEquals(expected[i++], key);
+        assertEquals(keys[row], key);
+        assertTrue(!seen[row]);
+        seen[row] = true;
+      }
+      assertEquals(n, i);
+      op.rewind();
+    }
+  }
+
+  /**
+   * Unit test for OrderBy when the child fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    int[] keys = randomKeys(1000);
+    OrderBy op = new OrderBy(0, true, tupleList(keys));
+    op.open();
+    checkSorted(op, keys, true, OrderBy.NO_LIMIT);
+    op.close();
+  }
+
+  /**
+   * Unit test for the external sort: with a tiny buffer pool the child is
+   * cut into many runs, which take more than one merge pass
+   */
+  @Test public void external() throws Exception {
+    Database.resetBufferPool(2); // budget: one page of tuples, fan-in 2
+    int[] keys = randomKeys(5000);
+    OrderBy op = new OrderBy(0, false, tupleList(keys));
+    op.open();
+    checkSorted(op, keys, false, OrderBy.NO_LIMIT);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy with a limit, both below the memory budget (a
+   * bounded heap) and above it (an external sort that stops early)
+   */
+  @Test public void topN() throws Exception {
+    int[] keys = randomKeys(3000);
+    OrderBy op = new OrderBy(0, true, tupleList(keys), 10);
+    op.open();
+    checkSorted(op, keys, true, 10);
+    op.close();
+
+    op = new OrderBy(0, true, tupleList(keys), 0);
+    op.open();
+    checkSorted(op, keys, true, 0);
+    op.close();
+
+    Database.resetBufferPool(2);
+    op = new OrderBy(0, true, tupleList(keys), 1500);
+    op.open();
+    checkSorted(op, keys, true, 1500);
+    op.close();
+  }
+
+  /**
+   * Unit test for OrderBy on several keys with mixed directions
+   */
+  @Test public void multiKey() throws Exception {
+    DbIterator child = TestUtil.createTupleList(3,
+        new Object[] { 2, "b", 1,
+                       1, "a", 2,
+                       2, "c", 3,
+                       1, "c", 4,
+                       2, "b", 5,
+                       1, "a", 6 });
+    OrderBy op = new OrderBy(new int[] { 0, 1, 2 },
+        new boolean[] { true, false, true }, child, OrderBy.NO_LIMIT);
+    DbIterator expected = TestUtil.createTupleList(3,
+        new Object[] { 1, "c", 4,
+                       1, "a", 2,
+                       1, "a", 6,
+                       2, "c", 3,
+                       2, "b", 1,
+                       2, "b", 5 });
+    op.open();
+    expected.open();
+    while (expected.hasNext()) {
+      assertTrue(op.hasNext());
+      assertTrue(TestUtil.compareTuples(expected.next(), op.next()));
+    }
+    assertTrue(!op.hasNext());
+    op.close();
+  }
+
+  /**
+   * Unit test for a multi-key ORDER BY through the parser
+   */
+  @Test public void multiKeyQuery() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 10, null,
+        new java.util.ArrayList<java.util.ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(f, "t");
+    TableStats.setTableStats("t", new TableStats(f.getId(), 1));
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT * FROM t ORDER BY t.c0 DESC, t.c1 ASC;");
+    DbIterator it = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    it.open();
+    int n = 0;
+    int lastA = Integer.MAX_VALUE, lastB = Integer.MIN_VALUE;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int a = ((IntField) t.getField(0)).getValue();
+      int b = ((IntField) t.getField(1)).getValue();
+      assertTrue(a < lastA || (a == lastA && b >= lastB));
+      lastA = a;
+      lastB = b;
+      n++;
+    }
+    assertEquals(500, n);
+    it.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
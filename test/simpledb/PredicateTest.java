@@ -3,6 +3,7 @@ package simpledb;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -55,6 +56,69 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  /**
+   * A compiled PredicateEvaluator agrees with Predicate.filter(), on tuples
+   * and on batches, also for constants at the bounds of an int.
+   */
+  @Test public void compiled() {
+    int[] vals = new int[] { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE };
+    TupleDesc td = Utility.getTupleDesc(1);
+    TupleBatch b = new TupleBatch(td);
+    for (int v : vals) {
+      for (int d = -1; d <= 1; d++)
+        b.add(Utility.getHeapTuple(v + d));
+    }
+
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i : vals) {
+        Predicate p = new Predicate(0, op, TestUtil.getField(i));
+        PredicateEvaluator e = PredicateEvaluator.compile(p, td);
+        for (int k = 0; k < b.size(); k++) {
+          Tuple t = b.getTuple(k);
+          assertEquals(p.filter(t), e.eval(t));
+        }
+
+        b.numSelected = b.size();
+        for (int k = 0; k < b.size(); k++)
+          b.sel[k] = k;
+        e.filter(b);
+        int m = 0;
+        for (int k = 0; k < b.size(); k++) {
+          if (p.filter(b.getTuple(k)))
+            assertEquals(k, b.selected(m++));
+        }
+        assertEquals(m, b.numSelected());
+      }
+    }
+  }
+
+  /**
+   * A conjunction passes the tuples that pass all of its predicates.
+   */
+  @Test public void conjunction() {
+    Predicate[] ps = {
+        new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(-2)),
+        new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, TestUtil.getField(2)),
+        new Predicate(0, Predicate.Op.NOT_EQUALS, TestUtil.getField(0)) };
+    TupleDesc td = Utility.getTupleDesc(2);
+    for (int n = 1; n <= ps.length; n++) {
+      Predicate[] conj = new Predicate[n];
+      System.arraycopy(ps, 0, conj, 0, n);
+      PredicateEvaluator e = PredicateEvaluator.compile(conj, td);
+      for (int i = -4; i <= 4; i++) {
+        for (int j = -4; j <= 4; j++) {
+          Tuple t = new Tuple(td);
+          t.setInt(0, i);
+          t.setInt(1, j);
+          boolean pass = true;
+          for (Predicate p : conj)
+            pass &= p.filter(t);
+          assertEquals(pass, e.eval(t));
+        }
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures the per-row cost of a selective scan,
+ * <pre>SELECT c1 FROM t WHERE c0 &lt; 10</pre>
+ * run as a Project over a Filter over a plain SeqScan, which decodes every
+ * tuple before testing it, against a SeqScan with the predicate and the
+ * projection list pushed down, which tests the page bytes and only decodes
+ * field 1 of the tuples that pass.  The buffer pool holds the whole table,
+ * so no I/O is measured.  Each run is repeated after warm-up rounds and the
+ * best round is reported.
+ * <p>
+ * Not run as part of the test suite; run it with
+ * <pre>java -cp ... simpledb.PushdownBenchmark [rows] [rounds]</pre>
+ */
+public class PushdownBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, rows, 1000, null, null);
+        Database.resetBufferPool(f.numPages() + 16);
+        Database.getCatalog().addTable(f, "t");
+
+        Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(10));
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(1);
+        Type[] types = { Type.INT_TYPE };
+
+        long filtered = Long.MAX_VALUE, pushed = Long.MAX_VALUE;
+        int filteredRows = 0, pushedRows = 0;
+        for (int r = 0; r < rounds + 2; r++) {
+            long start = System.nanoTime();
+            filteredRows = drain(new Project(fields, types, new Filter(pred,
+                    new SeqScan(new TransactionId(), f.getId(), "t"))));
+            long a = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            pushedRows = drain(new SeqScan(new TransactionId(), f.getId(), "t",
+                    new Predicate[] { pred }, new int[] { 1 }));
+            long b = System.nanoTime() - start;
+
+            if (r >= 2) { // The first rounds warm up the JIT and the pool.
+                filtered = Math.min(filtered, a);
+                pushed = Math.min(pushed, b);
+            }
+        }
+        if (filteredRows != pushedRows)
+            throw new IllegalStateException("results differ: " + filteredRows
+                    + " rows against " + pushedRows);
+        report("filter", rows, filtered);
+        report("pushed down", rows, pushed);
+    }
+
+    private static int drain(DbIterator it) throws Exception {
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static void report(String name, int rows, long nanos) {
+        System.out.println(String.format("%-12s %d rows in %d ms (%.1f ns/row)",
+                name, rows, nanos / 1000000, (double) nanos / rows));
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures recovery time against log size.  Each run starts a fresh log,
+ * commits transactions that each insert one tuple into a table, leaves a
+ * few transactions running with their pages written out, and then
+ * "crashes" by dropping the BufferPool, so that recovery has to redo every
+ * committed insert and undo the running ones.  Each log size is recovered
+ * once from a log with no checkpoint, and once from one with a checkpoint
+ * taken before the last tenth of the transactions, which is all that
+ * recovery then has to read.
+ * <p>
+ * Not run as part of the test suite; run it with
+ * <pre>java -cp ... simpledb.RecoveryBenchmark [smallest number of transactions] [sizes]</pre>
+ */
+public class RecoveryBenchmark {
+
+    private static final int DEFAULT_TRANSACTIONS = 500;
+    private static final int DEFAULT_SIZES = 4;
+    private static final int LOSERS = 4;
+
+    public static void main(String[] args) throws Exception {
+        int transactions = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_TRANSACTIONS;
+        int sizes = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SIZES;
+
+        for (int s = 0; s < sizes; s++, transactions *= 2) {
+            for (boolean checkpoint : new boolean[] { false, true }) {
+                long length = prepare(transactions, checkpoint);
+                long start = System.nanoTime();
+                Database.getLogFile().recover();
+                long nanos = System.nanoTime() - start;
+                System.out.println(String.format(
+                        "%6d transactions %-13s %7.1f MB log  %7.0f ms  %6.1f MB/s",
+                        transactions, checkpoint ? "checkpointed" : "",
+                        length / 1e6, nanos / 1e6, length * 1e3 / nanos));
+            }
+        }
+    }
+
+    // Writes the log of a run up to the crash; returns its length in bytes.
+    private static long prepare(int transactions, boolean checkpoint)
+            throws Exception {
+        Database.reset();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+        for (int i = 0; i < transactions; i++) {
+            if (checkpoint && i == transactions - transactions / 10)
+                Database.getLogFile().logCheckpoint();
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(),
+                    Utility.getHeapTuple(i, 2));
+            t.commit();
+        }
+        // Losers, each on a table of its own so that they do not block.
+        for (int i = 0; i < LOSERS; i++) {
+            HeapFile g = SystemTestUtil.createRandomHeapFile(2, 1, null, null);
+            Transaction t = new Transaction();
+            t.start();
+            Database.getBufferPool().insertTuple(t.getId(), g.getId(),
+                    Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        return Database.getLogFile().logFile.length();
+    }
+}
@@ -0,0 +1,236 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static HeapPageId pid(int pageNo) {
+        return new HeapPageId(-1, pageNo);
+    }
+
+    /**
+     * Unit test for LruReplacementPolicy: a hit protects a page from the
+     * next eviction.
+     */
+    @Test public void lruEvictsLeastRecentlyUsed() {
+        ReplacementPolicy policy = new LruReplacementPolicy(3);
+        policy.pageAdded(pid(0));
+        policy.pageAdded(pid(1));
+        policy.pageAdded(pid(2));
+        policy.pageHit(pid(0));
+
+        assertEquals(pid(1), policy.evict());
+        assertEquals(pid(2), policy.evict());
+        assertEquals(pid(0), policy.evict());
+        assertNull(policy.evict());
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: referenced pages get a second
+     * chance.
+     */
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy policy = new ClockReplacementPolicy(3);
+        policy.pageAdded(pid(0));
+        policy.pageAdded(pid(1));
+        policy.pageAdded(pid(2));
+        policy.pageHit(pid(0));
+        policy.pageHit(pid(2));
+
+        assertEquals(pid(1), policy.evict());
+        policy.pageAdded(pid(3));
+        assertEquals(pid(0), policy.evict());
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: a page added after an eviction
+     * takes the freed frame, right behind the hand, and a clock that
+     * overfills grows.
+     */
+    @Test public void clockReusesFreedFrames() {
+        ReplacementPolicy policy = new ClockReplacementPolicy(2);
+        policy.pageAdded(pid(0));
+        policy.pageAdded(pid(1));
+        assertEquals(pid(0), policy.evict());
+        policy.pageAdded(pid(2));
+        assertEquals(pid(1), policy.evict());
+        assertEquals(pid(2), policy.evict());
+        assertNull(policy.evict());
+
+        for (int i = 0; i < 5; i++)
+            policy.pageAdded(pid(i));
+        policy.pageRemoved(pid(3));
+        policy.pageAdded(pid(5));
+        HashSet<PageId> evicted = new HashSet<PageId>();
+        PageId victim;
+        while ((victim = policy.evict()) != null)
+            evicted.add(victim);
+        assertEquals(5, evicted.size());
+        assertFalse(evicted.contains(pid(3)));
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: hits from other threads, which
+     * take no lock, do not disturb pages being added and evicted.
+     */
+    @Test public void clockConcurrentHits() throws Exception {
+        final ReplacementPolicy policy = new ClockReplacementPolicy(16);
+        final int pages = 64;
+        Thread[] hitters = new Thread[4];
+        for (int t = 0; t < hitters.length; t++) {
+            hitters[t] = new Thread() {
+                public void run() {
+                    for (int i = 0; i < 200000; i++)
+                        policy.pageHit(pid(i % pages));
+                }
+            };
+            hitters[t].start();
+        }
+        HashSet<PageId> resident = new HashSet<PageId>();
+        for (int i = 0; i < 20000; i++) {
+            if (resident.size() == 16)
+                assertTrue(resident.remove(policy.evict()));
+            PageId p = pid(i % pages);
+            policy.pageAdded(p);
+            resident.add(p);
+        }
+        for (Thread t : hitters)
+            t.join();
+        PageId victim;
+        while ((victim = policy.evict()) != null)
+            assertTrue(resident.remove(victim));
+        assertTrue(resident.isEmpty());
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: a one-pass scan does not
+     * evict pages that were referenced twice.
+     */
+    @Test public void twoQueueIsScanResistant() {
+        ReplacementPolicy policy = new TwoQueueReplacementPolicy(8);
+        policy.pageAdded(pid(0));
+        policy.pageHit(pid(0));
+
+        // Scan 100 pages through a full pool of 8 frames.
+        for (int i = 1; i <= 100; i++) {
+            if (i >= 8) {
+                assertFalse(pid(0).equals(policy.evict()));
+            }
+            policy.pageAdded(pid(i));
+        }
+    }
+
+    /**
+     * Unit test for TwoQueueReplacementPolicy: a probation victim that the
+     * pool passes over because it is pinned goes back on probation; it is
+     * not promoted as if it had been referenced twice.
+     */
+    @Test public void twoQueueReinstatesPinnedProbationVictim() {
+        ReplacementPolicy policy = new TwoQueueReplacementPolicy(8);
+        policy.pageAdded(pid(100));
+        policy.pageHit(pid(100));
+        policy.pageAdded(pid(0));
+        policy.pageAdded(pid(1));
+        assertEquals(pid(0), policy.evict());
+        policy.pageReinstated(pid(0)); // It was pinned.
+
+        // Scan more pages; the victim is evicted, the hot page is not.
+        HashSet<PageId> evicted = new HashSet<PageId>();
+        for (int i = 2; i < 20; i++) {
+            evicted.add(policy.evict());
+            policy.pageAdded(pid(i));
+        }
+        assertTrue(evicted.contains(pid(0)));
+        assertFalse(evicted.contains(pid(100)));
+    }
+
+    /**
+     * Unit test for pageReinstated() on all policies: the page is tracked
+     * again and evicted later.
+     */
+    @Test public void reinstatedPagesAreTrackedAgain() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new LruReplacementPolicy(2), new ClockReplacementPolicy(2),
+            new TwoQueueReplacementPolicy(2), striped(2)
+        };
+        for (ReplacementPolicy policy : policies) {
+            policy.pageAdded(pid(0));
+            policy.pageAdded(pid(1));
+            PageId victim = policy.evict();
+            policy.pageReinstated(victim);
+            HashSet<PageId> evicted = new HashSet<PageId>();
+            evicted.add(policy.evict());
+            evicted.add(policy.evict());
+            assertEquals(2, evicted.size());
+            assertTrue(evicted.contains(victim));
+            assertNull(policy.evict());
+        }
+    }
+
+    // Two CLOCK stripes of the given number of frames each.
+    private static ReplacementPolicy striped(int frames) {
+        return new StripedReplacementPolicy(new ReplacementPolicy[] {
+            new ClockReplacementPolicy(frames), new ClockReplacementPolicy(frames)
+        });
+    }
+
+    /**
+     * Unit test for StripedReplacementPolicy: every page is evicted once,
+     * from whichever stripe holds it, and hits reach the page's stripe.
+     */
+    @Test public void stripedEvictsFromEveryStripe() {
+        ReplacementPolicy policy = new StripedReplacementPolicy(new ReplacementPolicy[] {
+            new LruReplacementPolicy(4), new LruReplacementPolicy(4),
+            new LruReplacementPolicy(4)
+        });
+        for (int i = 0; i < 12; i++)
+            policy.pageAdded(pid(i));
+        for (int i = 0; i < 12; i += 2)
+            policy.pageHit(pid(i));
+        // Each stripe gives up its pages that were not hit first.
+        for (int i = 0; i < 6; i++)
+            assertEquals(1, policy.evict().pageNumber() % 2);
+        HashSet<PageId> evicted = new HashSet<PageId>();
+        PageId victim;
+        while ((victim = policy.evict()) != null)
+            assertTrue(evicted.add(victim));
+        assertEquals(6, evicted.size());
+
+        // A small pool gets a single stripe.
+        assertEquals(1, StripedReplacementPolicy.clock(2).numStripes());
+    }
+
+    /**
+     * Unit test for pageRemoved() on all policies.
+     */
+    @Test public void removedPagesAreNeverEvicted() {
+        ReplacementPolicy[] policies = new ReplacementPolicy[] {
+            new LruReplacementPolicy(2), new ClockReplacementPolicy(2),
+            new TwoQueueReplacementPolicy(2), striped(2)
+        };
+        for (ReplacementPolicy policy : policies) {
+            policy.pageAdded(pid(0));
+            policy.pageAdded(pid(1));
+            policy.pageRemoved(pid(0));
+            assertEquals(pid(1), policy.evict());
+            assertNull(policy.evict());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Measures in-memory sort throughput of the comparators OrderBy builds with
+ * TupleComparator.create, against a comparator that compares each key with
+ * two Field.compare(Predicate.Op, Field) calls, as OrderBy used to.  Each
+ * sort is repeated after warm-up rounds and the best round is reported.
+ * <p>
+ * Not run as part of the test suite; run it with
+ * <pre>java -cp ... simpledb.SortBenchmark [rows] [rounds]</pre>
+ */
+public class SortBenchmark {
+
+    private static final int DEFAULT_ROWS = 1000000;
+    private static final int DEFAULT_ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_ROUNDS;
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE,
+                Type.STRING_TYPE, Type.INT_TYPE });
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(rows);
+        Random rand = new Random(0);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(rand.nextInt(1000)));
+            t.setField(1, new StringField("s" + rand.nextInt(1000), Type.STRING_LEN));
+            t.setField(2, new IntField(rand.nextInt()));
+            tuples.add(t);
+        }
+
+        int[] one = { 2 };
+        boolean[] oneAsc = { true };
+        int[] three = { 0, 1, 2 };
+        boolean[] threeAsc = { true, false, true };
+
+        run("1 int key, Field.compare", tuples, new FieldCompare(one, oneAsc), rounds);
+        run("1 int key, compiled", tuples, TupleComparator.create(td, one, oneAsc), rounds);
+        run("3 keys, Field.compare", tuples, new FieldCompare(three, threeAsc), rounds);
+        run("3 keys, compiled", tuples, TupleComparator.create(td, three, threeAsc), rounds);
+    }
+
+    private static void run(String name, ArrayList<Tuple> tuples,
+            Comparator<Tuple> cmp, int rounds) {
+        long best = Long.MAX_VALUE;
+        for (int r = 0; r < rounds + 2; r++) {
+            ArrayList<Tuple> copy = new ArrayList<Tuple>(tuples);
+            Collections.shuffle(copy, new Random(r));
+            long start = System.nanoTime();
+            Collections.sort(copy, cmp);
+            long nanos = System.nanoTime() - start;
+            if (r >= 2) // The first rounds warm up the JIT.
+                best = Math.min(best, nanos);
+        }
+        System.out.println(String.format("%-26s %d rows in %d ms (%.0f rows/s)",
+                name, tuples.size(), best / 1000000, tuples.size() / (best / 1e9)));
+    }
+
+    /** Compares each key with two Field.compare calls. */
+    private static class FieldCompare implements Comparator<Tuple> {
+        private final int[] fields;
+        private final boolean[] asc;
+
+        FieldCompare(int[] fields, boolean[] asc) {
+            this.fields = fields;
+            this.asc = asc;
+        }
+
+        public int compare(Tuple o1, Tuple o2) {
+            for (int i = 0; i < fields.length; i++) {
+                Field t1 = o1.getField(fields[i]);
+                Field t2 = o2.getField(fields[i]);
+                if (t1.compare(Predicate.Op.EQUALS, t2))
+                    continue;
+                if (t1.compare(Predicate.Op.GREATER_THAN, t2))
+                    return asc[i] ? 1 : -1;
+                else
+                    return asc[i] ? -1 : 1;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+
+  /**
+   * Initialize each unit test; the inputs are out of order on purpose
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    1, 2,
+                    7, 8,
+                    3, 4 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    2, 3, 4,
+                    5, 6, 7,
+                    1, 2, 3,
+                    3, 4, 5 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Every supported predicate gives the same number of tuples as Join, on
+   * inputs with many duplicate keys, and the output is ordered by the outer
+   * join field.
+   */
+  @Test public void matchesNestedLoops() throws Exception {
+    Random rand = new Random(42);
+    int[] outer = new int[400];
+    int[] inner = new int[300];
+    for (int i = 0; i < outer.length; i++)
+      outer[i] = rand.nextInt(50);
+    for (int i = 0; i < inner.length; i++)
+      inner[i] = rand.nextInt(50);
+    assertMatchesNestedLoops(outer, inner);
+  }
+
+  /**
+   * Same, with an inner relation that does not fit in memory, and runs of
+   * equal inner keys that may not either.
+   */
+  @Test public void matchesNestedLoopsSpilled() throws Exception {
+    Database.resetBufferPool(2); // memory for 992 one-field tuples
+    Random rand = new Random(42);
+    int[] outer = new int[100];
+    int[] inner = new int[3000];
+    for (int i = 0; i < outer.length; i++)
+      outer[i] = rand.nextInt(5) - 1;
+    for (int i = 0; i < inner.length; i++)
+      inner[i] = rand.nextInt(3);
+    assertMatchesNestedLoops(outer, inner);
+  }
+
+  private static void assertMatchesNestedLoops(int[] outer, int[] inner)
+      throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op o : ops) {
+      JoinPredicate pred = new JoinPredicate(0, o, 0);
+      Join expected = new Join(pred, TestUtil.createTupleList(1, outer),
+          TestUtil.createTupleList(1, inner));
+      SortMergeJoin actual = new SortMergeJoin(pred,
+          TestUtil.createTupleList(1, outer),
+          TestUtil.createTupleList(1, inner));
+      expected.open();
+      actual.open();
+
+      int n = 0;
+      while (expected.hasNext()) {
+        expected.next();
+        n++;
+      }
+      int m = 0;
+      int last = Integer.MIN_VALUE;
+      while (actual.hasNext()) {
+        Tuple t = actual.next();
+        assertTrue(t.getField(0).compare(o, t.getField(1)));
+        int key = ((IntField) t.getField(0)).getValue();
+        assertTrue(key >= last);
+        last = key;
+        m++;
+      }
+      assertEquals(o.toString(), n, m);
+      actual.close();
+    }
+  }
+
+  /**
+   * An input that is already ordered on the join field is not sorted again
+   */
+  @Test public void sortedInput() throws Exception {
+    OrderBy sorted = new OrderBy(0, true, scan1);
+    assertTrue(SortMergeJoin.isSortedOn(sorted, 0));
+    assertTrue(!SortMergeJoin.isSortedOn(sorted, 1));
+    assertTrue(!SortMergeJoin.isSortedOn(new OrderBy(0, false, scan1), 0));
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, sorted, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Predicates that cannot be merged are rejected
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -105,6 +105,39 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator grouping on strings with more groups than fit in
+   * a tiny buffer pool
+   */
+  @Test public void spilledGroups() throws Exception {
+    Database.resetBufferPool(2);
+    int groups = 5000;
+    Type[] types = { Type.STRING_TYPE, Type.STRING_TYPE };
+    TupleDesc td = new TupleDesc(types, new String[] { "g", "s" });
+    StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+    for (int round = 0; round < 2; round++) {
+      for (int g = 0; g < groups; g++) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField("group" + g, Type.STRING_LEN));
+        t.setField(1, new StringField("x", Type.STRING_LEN));
+        agg.mergeTupleIntoGroup(t);
+      }
+    }
+    assertEquals(true, agg.hasSpilled());
+
+    DbIterator it = agg.iterator();
+    it.open();
+    HashSet<String> seen = new HashSet<String>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(true, seen.add(((StringField) t.getField(0)).getValue()));
+      assertEquals(2, ((IntField) t.getField(1)).getValue());
+    }
+    assertEquals(groups, seen.size());
+    it.close();
+    agg.clear();
+  }
+
   /**
    * JUnit suite target
    */
@@ -219,6 +219,11 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public int insertTuples(TransactionId tid, DbIterator tuples)
+            throws DbException, IOException, TransactionAbortedException {
+            throw new RuntimeException("not implemented");
+        }
+
         public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -378,7 +383,7 @@ public class TestUtil {
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
+            FreeSpaceMap.deleteOnExit(emptyFile);
         }
 
         protected void setUp() throws Exception {
@@ -1,6 +1,8 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +31,69 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the typed accessors over mixed int and string fields
+     */
+    @Test public void typedFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE,
+                Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+        assertNull(tup.getString(2));
+
+        tup.setString(0, "abc");
+        tup.setInt(1, -7);
+        tup.setField(2, new StringField("de", Type.STRING_LEN));
+        tup.setField(3, new IntField(42));
+
+        assertEquals("abc", tup.getString(0));
+        assertEquals(-7, tup.getInt(1));
+        assertEquals("de", tup.getString(2));
+        assertEquals(42, tup.getInt(3));
+        assertEquals(new StringField("abc", Type.STRING_LEN), tup.getField(0));
+        assertEquals(new IntField(-7), tup.getField(1));
+
+        tup.setString(0, "x");
+        assertEquals("x", tup.getString(0));
+        tup.setField(1, null);
+        assertNull(tup.getField(1));
+    }
+
+    /**
+     * Strings longer than Type.STRING_LEN are cut, as on disk
+     */
+    @Test public void longString() {
+        Tuple tup = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE }));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < Type.STRING_LEN + 10; i++)
+            sb.append((char) ('a' + i % 26));
+        tup.setString(0, sb.toString());
+        assertEquals(sb.substring(0, Type.STRING_LEN), tup.getString(0));
+    }
+
+    /**
+     * Setting or reading a field as the wrong type fails
+     */
+    @Test public void wrongType() {
+        Tuple tup = new Tuple(new TupleDesc(new Type[] { Type.INT_TYPE,
+                Type.STRING_TYPE }));
+        try {
+            tup.setField(0, new StringField("a", Type.STRING_LEN));
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            tup.getString(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            tup.setInt(1, 3);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -104,6 +104,51 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /**
+     * Threads scanning a table at the same time through a pool much smaller
+     * than the table all see every tuple, while they evict each other's
+     * pages.
+     */
+    @Test public void testConcurrentScans() throws Exception {
+        final int THREADS = 8;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        final HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, null, tuples);
+        long expected = 0;
+        for (ArrayList<Integer> t : tuples)
+            expected += t.get(0);
+        Database.resetBufferPool(4);
+
+        final long[] sums = new long[THREADS];
+        final Exception[] errors = new Exception[THREADS];
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int k = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int pass = 0; pass < 3; pass++) {
+                            TransactionId tid = new TransactionId();
+                            SeqScan scan = new SeqScan(tid, f.getId(), "");
+                            scan.open();
+                            while (scan.hasNext())
+                                sums[k] += scan.next().getInt(0);
+                            scan.close();
+                            Database.getBufferPool().transactionComplete(tid);
+                        }
+                    } catch (Exception e) {
+                        errors[k] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < THREADS; i++) {
+            threads[i].join();
+            assertNull(errors[i]);
+            assertEquals(3 * expected, sums[i]);
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
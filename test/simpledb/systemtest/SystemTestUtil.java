@@ -80,7 +80,7 @@ public class SystemTestUtil {
 
         // Convert the tuples list to a heap file and open it
         File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        FreeSpaceMap.deleteOnExit(temp);
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }